@@ -0,0 +1,66 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Old regex/split cleaner versus {@link MermaidSanitizer} over the recorded model outputs, plus the
+ * structural parse that follows it. Each invocation processes the whole corpus. Run with {@code mvn -Pbenchmark verify};
+ * the profile adds {@code -prof gc} so allocation rate per operation is reported alongside throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MermaidSanitizerBenchmark {
+
+    private String[] responses;
+    private String[] cleaned;
+
+    @Setup
+    public void loadCorpus() {
+        responses = MermaidCorpus.load().values().toArray(String[]::new);
+        cleaned = Arrays.stream(responses).map(MermaidSanitizer::clean).filter(code -> !code.isEmpty())
+                .toArray(String[]::new);
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        for (String response : responses) {
+            String cleaned = LegacyMermaidSanitizer.cleanMermaidCode(response);
+            blackhole.consume(cleaned);
+            blackhole.consume(LegacyMermaidSanitizer.isValidMermaidSyntax(cleaned));
+        }
+    }
+
+    @Benchmark
+    public void sanitizer(Blackhole blackhole) {
+        for (String response : responses) {
+            String cleaned = MermaidSanitizer.clean(response);
+            blackhole.consume(cleaned);
+            blackhole.consume(MermaidSanitizer.isValid(cleaned));
+        }
+    }
+
+    // Structural parse and repair of every cleaned diagram, as MermaidRepairer runs it
+    @Benchmark
+    public void parseAndRepair(Blackhole blackhole) {
+        for (String code : cleaned) {
+            blackhole.consume(MermaidParser.parse(code));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-generation text processing in {@code AIService} on multi-KB model outputs: the streamed
+ * guard fed token-sized chunks, the batch sanitizer, and the structural review.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextProcessingBenchmark {
+
+    @Param({"1", "8", "64"})
+    private int kilobytes;
+
+    private String response;
+    private String[] chunks;
+    private String cleaned;
+
+    @Setup
+    public void generateResponse() {
+        response = modelOutput(kilobytes * 1024);
+        cleaned = MermaidSanitizer.clean(response);
+
+        // Ollama streams roughly one token, a few characters, per chunk
+        List<String> split = new ArrayList<>();
+        for (int i = 0; i < response.length(); i += 4) {
+            split.add(response.substring(i, Math.min(response.length(), i + 4)));
+        }
+        chunks = split.toArray(String[]::new);
+    }
+
+    @Benchmark
+    public void streamThroughGuard(Blackhole blackhole) {
+        GenerationGuard guard = new GenerationGuard(diagramType -> Integer.MAX_VALUE);
+        for (String chunk : chunks) {
+            blackhole.consume(guard.accept(chunk));
+        }
+        blackhole.consume(guard.finish());
+        blackhole.consume(guard.acceptedText());
+    }
+
+    @Benchmark
+    public void sanitize(Blackhole blackhole) {
+        String code = MermaidSanitizer.clean(response);
+        blackhole.consume(code);
+        blackhole.consume(MermaidSanitizer.isValid(code));
+    }
+
+    @Benchmark
+    public MermaidParser.Result review() {
+        return MermaidParser.parse(cleaned);
+    }
+
+    // Fenced flowchart with the preamble and explanation models tend to add, padded to about `size` characters
+    static String modelOutput(int size) {
+        StringBuilder out = new StringBuilder(size + 256);
+        out.append("Here is a Mermaid diagram that explains the concept step by step:\n\n```mermaid\ngraph TD\n");
+        int node = 0;
+        while (out.length() < size - 120) {
+            out.append("    N").append(node).append("[Stage ").append(node).append(": collect inputs]")
+                    .append(" -->|produces| N").append(node + 1).append("{Validated ").append(node + 1).append("?}\n");
+            if (node % 10 == 9) {
+                out.append("    style N").append(node).append(" fill:#e3f2fd,stroke:#1565c0\n");
+            }
+            node++;
+        }
+        out.append("```\n\nThis diagram shows how each stage feeds the next one.\n");
+        return out.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package com.conceptviz.conceptvizbackend.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files, e.g. the last release against the current build:
+ * {@code JmhResultDiff baseline.json current.json}. A change counts as a regression or an
+ * improvement only when it is larger than the combined error margins of both runs.
+ */
+public final class JmhResultDiff {
+
+    private JmhResultDiff() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("No JMH baseline given (-Djmh.baseline=<results.json>), skipping comparison");
+            return;
+        }
+
+        Map<String, JsonNode> baseline = load(new File(args[0]));
+        Map<String, JsonNode> current = load(new File(args[1]));
+        System.out.printf("%-80s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        current.forEach((key, run) -> {
+            JsonNode before = baseline.get(key);
+            JsonNode metric = run.path("primaryMetric");
+            double score = metric.path("score").asDouble();
+            String unit = metric.path("scoreUnit").asText();
+            if (before == null) {
+                System.out.printf("%-80s %14s %14.3f %9s  %s%n", key, "-", score, "new", unit);
+                return;
+            }
+
+            JsonNode beforeMetric = before.path("primaryMetric");
+            double beforeScore = beforeMetric.path("score").asDouble();
+            double margin = errorOf(beforeMetric) + errorOf(metric);
+            double change = beforeScore == 0 ? 0 : (score - beforeScore) / beforeScore * 100;
+            // Throughput is better when higher, every other mode measures time
+            boolean higherIsBetter = "thrpt".equals(run.path("mode").asText());
+            String verdict = Math.abs(score - beforeScore) <= margin ? ""
+                    : (score > beforeScore) == higherIsBetter ? "improved" : "REGRESSED";
+            System.out.printf("%-80s %14.3f %14.3f %+8.1f%%  %s %s%n", key, beforeScore, score, change, unit, verdict);
+        });
+    }
+
+    private static double errorOf(JsonNode metric) {
+        double error = metric.path("scoreError").asDouble(0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    private static Map<String, JsonNode> load(File file) throws IOException {
+        Map<String, JsonNode> runs = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            Map<String, String> params = new TreeMap<>();
+            run.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            String benchmark = run.path("benchmark").asText().replace("com.conceptviz.conceptvizbackend.", "");
+            runs.put(params.isEmpty() ? benchmark : benchmark + " " + params, run);
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,73 @@
+package com.conceptviz.conceptvizbackend.security;
+
+import com.conceptviz.conceptvizbackend.entity.User;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token handling on every authenticated request: issuing, the single parse the filter does,
+ * and the older extract/validate helpers that each parse the token again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtUtilBenchmark {
+
+    private JwtUtil jwtUtil;
+    private User user;
+    private String token;
+    private UserDetails userDetails;
+
+    @Setup
+    public void issueToken() {
+        jwtUtil = new JwtUtil();
+        // Same shape as a production secret: 64 random characters, HS256
+        ReflectionTestUtils.setField(jwtUtil, "secret", "kQ3vZ8pW1xN6tR0yB5mJ2cL9hF4gD7sA8eU3iO6pK1wX5zV2nM9bT4qY7rE0uH3j");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 86_400_000L);
+        jwtUtil.init();
+
+        user = new User();
+        user.setId(48_213L);
+        user.setEmail("ada.lovelace@example.com");
+        user.setName("Ada Lovelace");
+        token = jwtUtil.generateToken(user);
+        userDetails = new org.springframework.security.core.userdetails.User(user.getEmail(), "", List.of());
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken(user);
+    }
+
+    @Benchmark
+    public Claims parseToken() {
+        return jwtUtil.parseToken(token);
+    }
+
+    @Benchmark
+    public String extractUsername() {
+        return jwtUtil.extractUsername(token);
+    }
+
+    @Benchmark
+    public Boolean validateToken() {
+        return jwtUtil.validateToken(token, userDetails);
+    }
+}
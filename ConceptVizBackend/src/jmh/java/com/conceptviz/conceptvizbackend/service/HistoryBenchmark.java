@@ -0,0 +1,88 @@
+package com.conceptviz.conceptvizbackend.service;
+
+import com.conceptviz.conceptvizbackend.ai.MermaidCorpus;
+import com.conceptviz.conceptvizbackend.ai.MermaidSanitizer;
+import com.conceptviz.conceptvizbackend.dto.DiagramResponse;
+import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The my-history response path for users with 10, 1k and 10k saved diagrams: entity to DTO
+ * mapping in {@link DiagramService#mapToResponse} and Jackson serialization of the DTO list with
+ * the same object mapper defaults Spring Boot configures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    private int diagrams;
+
+    private DiagramService diagramService;
+    private ObjectWriter writer;
+    private List<Diagram> entities;
+    private List<DiagramResponse> responses;
+
+    @Setup
+    public void buildHistory() {
+        diagramService = new DiagramService(null, null, null, null, null, null, null);
+        writer = Jackson2ObjectMapperBuilder.json().build().writer();
+
+        // Real model outputs, cycled, so code sizes match what users actually store
+        List<String> codes = MermaidCorpus.load().values().stream()
+                .map(MermaidSanitizer::clean)
+                .filter(MermaidSanitizer::isValid)
+                .toList();
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 12, 0);
+        entities = new ArrayList<>(diagrams);
+        for (int i = 0; i < diagrams; i++) {
+            Diagram diagram = new Diagram();
+            diagram.setId((long) (diagrams - i));
+            diagram.setTopic("Concept number " + i + " explained visually");
+            diagram.setMermaidCode(codes.get(i % codes.size()));
+            diagram.setCreatedAt(now.minusMinutes(i * 17L));
+            entities.add(diagram);
+        }
+        responses = mapToResponses();
+    }
+
+    @Benchmark
+    public List<DiagramResponse> mapToResponses() {
+        List<DiagramResponse> mapped = new ArrayList<>(entities.size());
+        for (Diagram diagram : entities) {
+            mapped.add(diagramService.mapToResponse(diagram));
+        }
+        return mapped;
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return writer.writeValueAsBytes(responses);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerialize() throws Exception {
+        return writer.writeValueAsBytes(mapToResponses());
+    }
+}
@@ -0,0 +1,152 @@
+package com.conceptviz.conceptvizbackend.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-endpoint latency histograms and status counts for one load-test phase. Workers record lock-free;
+ * {@link #tick()} drains the interval histograms for progress lines and folds them into the totals.
+ * Latencies cover successful (2xx and 304) responses only, everything else is counted by status.
+ */
+public class LatencyReport {
+
+    // Connection refused, reset or timed out before a status line arrived
+    public static final int IO_ERROR = -1;
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private final long windowNanos;
+    private final long startNanos = System.nanoTime();
+    private long lastTickNanos = startNanos;
+    private long endNanos;
+
+    public LatencyReport(Iterable<String> endpointNames, Duration window) {
+        this.windowNanos = window.toNanos();
+        for (String name : endpointNames) {
+            endpoints.put(name, new Endpoint());
+        }
+    }
+
+    public void record(String endpoint, int status, long latencyNanos) {
+        Endpoint stats = endpoints.get(endpoint);
+        stats.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        if (isSuccess(status)) {
+            stats.recorder.recordValue(Math.min(MAX_LATENCY_MICROS, Math.max(1, latencyNanos / 1000)));
+        }
+    }
+
+    /**
+     * Folds the latest interval into the totals and returns a one-line summary of it.
+     */
+    public synchronized String tick() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastTickNanos) / 1e9);
+        lastTickNanos = now;
+        endNanos = now;
+
+        StringBuilder line = new StringBuilder(String.format("%6.0fs", (now - startNanos) / 1e9));
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint stats = entry.getValue();
+            stats.interval = stats.recorder.getIntervalHistogram(stats.interval);
+            stats.total.add(stats.interval);
+            line.append(String.format("  %s %.1f/s p99 %s", entry.getKey(), stats.interval.getTotalCount() / seconds,
+                    millis(stats.interval.getValueAtPercentile(99))));
+        }
+        return line.toString();
+    }
+
+    public synchronized String summary() {
+        double seconds = elapsedSeconds();
+        StringBuilder table = new StringBuilder(String.format("%-24s %9s %9s %9s %9s %9s %9s %9s  %s%n",
+                "endpoint", "ok", "req/s", "p50", "p90", "p99", "p99.9", "max", "failed"));
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Histogram total = entry.getValue().total;
+            table.append(String.format("%-24s %9d %9.1f %9s %9s %9s %9s %9s  %s%n", entry.getKey(),
+                    total.getTotalCount(), total.getTotalCount() / seconds,
+                    millis(total.getValueAtPercentile(50)), millis(total.getValueAtPercentile(90)),
+                    millis(total.getValueAtPercentile(99)), millis(total.getValueAtPercentile(99.9)),
+                    millis(total.getMaxValue()), failures(entry.getValue())));
+        }
+        return table.toString();
+    }
+
+    public long requests() {
+        long requests = 0;
+        for (Endpoint stats : endpoints.values()) {
+            requests += stats.statuses.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+        return requests;
+    }
+
+    public synchronized long ok(String endpoint) {
+        Endpoint stats = endpoints.get(endpoint);
+        return stats == null ? 0 : stats.total.getTotalCount();
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("durationSeconds", elapsedSeconds());
+        Map<String, Object> perEndpoint = new LinkedHashMap<>();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Histogram total = entry.getValue().total;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("ok", total.getTotalCount());
+            stats.put("throughput", total.getTotalCount() / elapsedSeconds());
+            stats.put("p50Ms", total.getValueAtPercentile(50) / 1000.0);
+            stats.put("p90Ms", total.getValueAtPercentile(90) / 1000.0);
+            stats.put("p99Ms", total.getValueAtPercentile(99) / 1000.0);
+            stats.put("p999Ms", total.getValueAtPercentile(99.9) / 1000.0);
+            stats.put("maxMs", total.getMaxValue() / 1000.0);
+            stats.put("statuses", statuses(entry.getValue()));
+            perEndpoint.put(entry.getKey(), stats);
+        }
+        result.put("endpoints", perEndpoint);
+        return result;
+    }
+
+    // Throughput is per configured window, responses that land during the drain still count
+    private double elapsedSeconds() {
+        return Math.max(1e-9, Math.min(windowNanos, endNanos - startNanos) / 1e9);
+    }
+
+    private static Map<Integer, Long> statuses(Endpoint stats) {
+        Map<Integer, Long> counts = new TreeMap<>();
+        stats.statuses.forEach((status, count) -> counts.put(status, count.sum()));
+        return counts;
+    }
+
+    private static String failures(Endpoint stats) {
+        StringBuilder text = new StringBuilder();
+        statuses(stats).forEach((status, count) -> {
+            if (!isSuccess(status)) {
+                text.append(status == IO_ERROR ? "io" : status).append('=').append(count).append(' ');
+            }
+        });
+        return text.isEmpty() ? "-" : text.toString().trim();
+    }
+
+    // A 304 is a successful revalidation of a cached history
+    private static boolean isSuccess(int status) {
+        return status >= 200 && status < 300 || status == 304;
+    }
+
+    private static String millis(long micros) {
+        return micros >= 10_000 ? String.format("%dms", micros / 1000) : String.format("%.2fms", micros / 1000.0);
+    }
+
+    private static final class Endpoint {
+        private final Recorder recorder = new Recorder(MAX_LATENCY_MICROS, 3);
+        private final Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        private Histogram interval;
+    }
+}
@@ -0,0 +1,346 @@
+package com.conceptviz.conceptvizbackend.loadtest;
+
+import com.conceptviz.conceptvizbackend.ConceptVizBackendApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Boots the backend against {@link StubOllamaServer} and an in-memory H2 database, signs up users, seeds
+ * their history and then drives a weighted mix of generate, save and my-history calls. Runs fully offline.
+ * <p>
+ * Options are {@code --key=value} arguments; {@code loadtest.*} and {@code stub.*} configure the harness and
+ * everything else is passed to the backend, e.g. {@code --conceptviz.ai.inference.max-concurrent=8}.
+ * {@code loadtest.backends} starts that many stubs and pools them with {@code conceptviz.ai.ollama.backends}; the first
+ * {@code loadtest.slow-backends} of them answer {@code loadtest.slow-factor} times slower.
+ * With {@code loadtest.rate} set, workers issue requests on a fixed schedule and latency is measured from the
+ * scheduled start, so a stalled server shows up in the percentiles instead of just slowing the load down.
+ */
+public class LoadTestRunner {
+
+    public record Settings(int users, int historyPerUser, int concurrency, double rate, Duration warmup,
+                           Duration duration, Duration reportInterval, Duration requestTimeout, int topics,
+                           int saveBatchSize, int generateBatchSize, double paraphraseRate, Map<Workload.Operation, Integer> mix, Path report) {
+
+        public static Settings from(Environment env) {
+            return new Settings(
+                    env.getProperty("loadtest.users", Integer.class, 50),
+                    env.getProperty("loadtest.history-per-user", Integer.class, 20),
+                    env.getProperty("loadtest.concurrency", Integer.class, 32),
+                    env.getProperty("loadtest.rate", Double.class, 0.0),
+                    env.getProperty("loadtest.warmup", Duration.class, Duration.ofSeconds(15)),
+                    env.getProperty("loadtest.duration", Duration.class, Duration.ofSeconds(60)),
+                    env.getProperty("loadtest.report-interval", Duration.class, Duration.ofSeconds(10)),
+                    env.getProperty("loadtest.request-timeout", Duration.class, Duration.ofSeconds(120)),
+                    env.getProperty("loadtest.topics", Integer.class, 2000),
+                    env.getProperty("loadtest.save-batch-size", Integer.class, 50),
+                    env.getProperty("loadtest.generate-batch-size", Integer.class, 10),
+                    env.getProperty("loadtest.paraphrase-rate", Double.class, 0.0),
+                    parseMix(env.getProperty("loadtest.mix", "generate:20,save:30,history:50")),
+                    Path.of(env.getProperty("loadtest.report", "target/loadtest-report.json")));
+        }
+
+        private static Map<Workload.Operation, Integer> parseMix(String mix) {
+            Map<Workload.Operation, Integer> weights = new EnumMap<>(Workload.Operation.class);
+            for (String part : mix.split(",")) {
+                String[] entry = part.trim().split(":");
+                if (entry.length != 2) {
+                    throw new IllegalArgumentException("Invalid loadtest.mix entry: " + part);
+                }
+                weights.put(Workload.Operation.valueOf(entry[0].trim().toUpperCase()), Integer.parseInt(entry[1].trim()));
+            }
+            return weights;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // DevTools would otherwise restart the context in a fresh class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        StandardEnvironment env = new StandardEnvironment();
+        env.setConversionService(new ApplicationConversionService());
+        env.getPropertySources().addFirst(new SimpleCommandLinePropertySource(args));
+        Settings settings = Settings.from(env);
+
+        List<StubOllamaServer> stubs = startStubs(env);
+        try (AutoCloseable closeStubs = () -> stubs.forEach(StubOllamaServer::close);
+             ConfigurableApplicationContext context = new SpringApplicationBuilder(ConceptVizBackendApplication.class)
+                     .run(backendArgs(args, stubs))) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            String baseUrl = "http://127.0.0.1:" + port + context.getEnvironment().getProperty("server.servlet.context-path", "");
+            Workload workload = new Workload(baseUrl, settings.topics(), settings.requestTimeout(), settings.saveBatchSize(),
+                    settings.generateBatchSize(), settings.paraphraseRate());
+
+            System.out.printf("Backend on %s, stub Ollama on %s%n", baseUrl,
+                    stubs.stream().map(StubOllamaServer::baseUrl).toList());
+            workload.signUp(settings.users(), Long.toString(System.currentTimeMillis(), 36));
+            seedHistory(workload, settings);
+
+            System.out.printf("Warming up for %ss%n", settings.warmup().toSeconds());
+            run(workload, settings, settings.warmup(), null);
+            System.out.printf("Measuring for %ss with %d workers%s%n", settings.duration().toSeconds(),
+                    settings.concurrency(), settings.rate() > 0 ? " at " + settings.rate() + " req/s" : "");
+            LatencyReport report = run(workload, settings, settings.duration(), settings.reportInterval());
+
+            System.out.println();
+            System.out.print(report.summary());
+            double issuedRate = report.requests() / (settings.duration().toMillis() / 1000.0);
+            if (settings.rate() > 0 && issuedRate < settings.rate() * 0.95) {
+                System.out.printf("Only %.1f of %.1f req/s were issued: the workers fell behind schedule, so latencies include "
+                        + "their backlog. Raise loadtest.concurrency.%n", issuedRate, settings.rate());
+            }
+            printSaveThroughput(report, settings);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            Map<String, Long> outcomes = generateOutcomes(registry);
+            System.out.printf("Generate outcomes (incl. warmup): %s, stub requests %s, injected failures %d%n",
+                    outcomes, stubs.stream().map(StubOllamaServer::requests).toList(),
+                    stubs.stream().mapToLong(StubOllamaServer::injectedFailures).sum());
+            printSemanticCache(registry);
+            printModelTiers(registry);
+            printCircuitBreaker(registry);
+            printPrompts(registry);
+            writeReport(settings, report, outcomes);
+        }
+    }
+
+    private static List<StubOllamaServer> startStubs(Environment env) throws IOException {
+        StubOllamaServer.Settings settings = StubOllamaServer.Settings.from(env);
+        int count = Math.max(1, env.getProperty("loadtest.backends", Integer.class, 1));
+        int slow = env.getProperty("loadtest.slow-backends", Integer.class, 0);
+        double slowFactor = env.getProperty("loadtest.slow-factor", Double.class, 5.0);
+        List<StubOllamaServer> stubs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stubs.add(new StubOllamaServer(i < slow ? settings.slowedBy(slowFactor) : settings));
+        }
+        return stubs;
+    }
+
+    private static String[] backendArgs(String[] args, List<StubOllamaServer> stubs) {
+        List<String> backendArgs = new ArrayList<>();
+        backendArgs.add("--spring.config.additional-location=classpath:/loadtest/backend.properties");
+        backendArgs.add("--spring.ai.ollama.base-url=" + stubs.get(0).baseUrl());
+        if (stubs.size() > 1) {
+            backendArgs.add("--conceptviz.ai.ollama.backends=" + String.join(",",
+                    stubs.stream().map(StubOllamaServer::baseUrl).toList()));
+        }
+        Arrays.stream(args)
+                .filter(arg -> !arg.startsWith("--loadtest.") && !arg.startsWith("--stub."))
+                .forEach(backendArgs::add);
+        return backendArgs.toArray(String[]::new);
+    }
+
+    private static void seedHistory(Workload workload, Settings settings) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(settings.concurrency());
+        try {
+            List<Future<Integer>> saves = new ArrayList<>();
+            for (Workload.User user : workload.users()) {
+                for (int i = 0; i < settings.historyPerUser(); i++) {
+                    saves.add(pool.submit(() -> workload.save(user, ThreadLocalRandom.current())));
+                }
+            }
+            for (Future<Integer> save : saves) {
+                if (save.get() != 200) {
+                    throw new IllegalStateException("Seeding history failed with status " + save.get());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static LatencyReport run(Workload workload, Settings settings, Duration duration,
+                                     Duration reportInterval) throws InterruptedException {
+        List<Workload.Operation> operations = new ArrayList<>(settings.mix().keySet());
+        LatencyReport report = new LatencyReport(operations.stream().map(Workload.Operation::endpoint).toList(), duration);
+        int[] cumulativeWeights = new int[operations.size()];
+        int totalWeight = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            totalWeight += settings.mix().get(operations.get(i));
+            cumulativeWeights[i] = totalWeight;
+        }
+        int weightSum = totalWeight;
+
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + duration.toNanos();
+        // Each worker gets an equal share of the target rate; zero means closed loop
+        long intervalNanos = settings.rate() > 0 ? (long) (settings.concurrency() * 1e9 / settings.rate()) : 0;
+
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        if (reportInterval != null) {
+            ticker.scheduleAtFixedRate(() -> System.out.println(report.tick()), reportInterval.toMillis(),
+                    reportInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(settings.concurrency());
+        for (int w = 0; w < settings.concurrency(); w++) {
+            long offset = intervalNanos * w / settings.concurrency();
+            workers.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long scheduled = startNanos + offset;
+                while (!Thread.currentThread().isInterrupted()) {
+                    long now = System.nanoTime();
+                    if (intervalNanos > 0) {
+                        if (scheduled > now) {
+                            LockSupport.parkNanos(scheduled - now);
+                        }
+                    } else {
+                        scheduled = now;
+                    }
+                    if (scheduled >= deadline) {
+                        return null;
+                    }
+
+                    int pick = random.nextInt(weightSum);
+                    int index = 0;
+                    while (cumulativeWeights[index] <= pick) {
+                        index++;
+                    }
+                    Workload.Operation operation = operations.get(index);
+                    Workload.User user = workload.users().get(random.nextInt(workload.users().size()));
+                    int status = workload.execute(operation, user, random);
+                    report.record(operation.endpoint(), status, System.nanoTime() - scheduled);
+                    scheduled += intervalNanos;
+                }
+                return null;
+            });
+        }
+        workers.shutdown();
+        // Requests still in flight at the deadline are allowed to finish and are counted
+        workers.awaitTermination(duration.toNanos() + settings.requestTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        workers.shutdownNow();
+        ticker.shutdownNow();
+        report.tick();
+        return report;
+    }
+
+    // Batch saves are one request per saveBatchSize rows; compare the paths in rows rather than requests
+    private static void printSaveThroughput(LatencyReport report, Settings settings) {
+        double seconds = settings.duration().toMillis() / 1000.0;
+        long single = report.ok(Workload.Operation.SAVE.endpoint());
+        long batched = report.ok(Workload.Operation.SAVE_BATCH.endpoint()) * settings.saveBatchSize();
+        if (settings.mix().containsKey(Workload.Operation.SAVE_BATCH)) {
+            System.out.printf("Saved rows/s: single %.1f, batch of %d %.1f%n", single / seconds,
+                    settings.saveBatchSize(), batched / seconds);
+        }
+    }
+
+    private static void printSemanticCache(MeterRegistry registry) {
+        Map<String, Long> lookups = new TreeMap<>();
+        double totalMillis = 0;
+        for (Timer timer : registry.find("diagram.cache.semantic.lookup").timers()) {
+            lookups.put(timer.getId().getTag("result"), timer.count());
+            totalMillis += timer.totalTime(TimeUnit.MILLISECONDS);
+        }
+        long total = lookups.values().stream().mapToLong(Long::longValue).sum();
+        if (total > 0) {
+            System.out.printf("Semantic cache lookups (incl. warmup): %s, hit rate %.1f%%, mean lookup %.2f ms%n",
+                    lookups, 100.0 * lookups.getOrDefault("hit", 0L) / total, totalMillis / total);
+        }
+    }
+
+    private static void printModelTiers(MeterRegistry registry) {
+        for (Timer timer : registry.find("diagram.tier.duration").timers()) {
+            System.out.printf("Tier %s (%s) %s: %d calls, mean %.0f ms%n", timer.getId().getTag("tier"),
+                    timer.getId().getTag("model"), timer.getId().getTag("outcome"), timer.count(),
+                    timer.mean(TimeUnit.MILLISECONDS));
+        }
+        double escalations = registry.find("diagram.tier.escalations").counters().stream()
+                .mapToDouble(Counter::count).sum();
+        Map<String, Double> routed = new TreeMap<>();
+        for (Counter counter : registry.find("diagram.tier.routed").counters()) {
+            routed.put(counter.getId().getTag("tier") + "/" + counter.getId().getTag("reason"), counter.count());
+        }
+        if (!routed.isEmpty()) {
+            System.out.printf("Tier routing (incl. warmup): %s, escalations %.0f%n", routed, escalations);
+        }
+        for (Timer timer : registry.find("diagram.generate.duration").timers()) {
+            System.out.printf("Generate from %s: %d, mean %.0f ms, max %.0f ms%n", timer.getId().getTag("source"),
+                    timer.count(), timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static void printCircuitBreaker(MeterRegistry registry) {
+        Map<String, Double> transitions = new TreeMap<>();
+        for (Counter counter : registry.find("ollama.breaker.transitions").counters()) {
+            transitions.put(counter.getId().getTag("from") + "->" + counter.getId().getTag("to"), counter.count());
+        }
+        Counter shortCircuited = registry.find("ollama.breaker.short.circuited").counter();
+        Counter timeouts = registry.find("ollama.breaker.timeouts").counter();
+        if (shortCircuited != null && timeouts != null) {
+            System.out.printf("Circuit breaker (incl. warmup): transitions %s, short-circuited %.0f, timeouts %.0f%n",
+                    transitions, shortCircuited.count(), timeouts.count());
+        }
+    }
+
+    private static void printPrompts(MeterRegistry registry) {
+        Map<String, String> rows = new TreeMap<>();
+        for (DistributionSummary summary : registry.find("diagram.llm.tokens").summaries()) {
+            String prompt = summary.getId().getTag("prompt");
+            String direction = summary.getId().getTag("direction");
+            rows.merge(prompt, String.format("%s tokens %.0f", direction, summary.mean()), (a, b) -> a + ", " + b);
+        }
+        for (Timer timer : registry.find("diagram.llm.first.token").timers()) {
+            rows.merge(timer.getId().getTag("prompt"), String.format("first token %.0f ms",
+                    timer.mean(TimeUnit.MILLISECONDS)), (a, b) -> a + ", " + b);
+        }
+        Map<String, long[]> durations = new TreeMap<>();
+        for (Timer timer : registry.find("diagram.llm.duration").timers()) {
+            long[] totals = durations.computeIfAbsent(timer.getId().getTag("prompt"), prompt -> new long[2]);
+            totals[0] += timer.count();
+            totals[1] += (long) timer.totalTime(TimeUnit.MILLISECONDS);
+        }
+        durations.forEach((prompt, totals) -> rows.merge(prompt, String.format("%d calls, mean call %d ms",
+                totals[0], totals[0] == 0 ? 0 : totals[1] / totals[0]), (a, b) -> a + ", " + b));
+        rows.forEach((prompt, row) -> System.out.printf("Prompt %s (mean per call, incl. warmup): %s%n", prompt, row));
+    }
+
+    private static Map<String, Long> generateOutcomes(MeterRegistry registry) {
+        Map<String, Long> outcomes = new TreeMap<>();
+        for (Counter counter : registry.find("diagram.generate.outcome").counters()) {
+            outcomes.merge(counter.getId().getTag("outcome"), (long) counter.count(), Long::sum);
+        }
+        return outcomes;
+    }
+
+    private static void writeReport(Settings settings, LatencyReport report, Map<String, Long> outcomes) throws Exception {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("settings", Map.of("users", settings.users(), "concurrency", settings.concurrency(),
+                "rate", settings.rate(), "topics", settings.topics(), "saveBatchSize", settings.saveBatchSize(),
+                "generateBatchSize", settings.generateBatchSize(),                "paraphraseRate", settings.paraphraseRate(), "mix", settings.mix()));
+        json.putAll(report.toMap());
+        json.put("generateOutcomes", outcomes);
+
+        Path target = settings.report().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(target.toFile(), json);
+        System.out.println("Report written to " + target);
+    }
+}
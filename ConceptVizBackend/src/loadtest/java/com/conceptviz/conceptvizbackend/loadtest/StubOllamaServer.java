@@ -0,0 +1,342 @@
+package com.conceptviz.conceptvizbackend.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for Ollama's {@code /api/chat} on a loopback port, streaming NDJSON chunks like the real server.
+ * Time to first token follows a log-normal distribution fitted to the configured median and p99, plus the
+ * time to read the prompt at a fixed rate, then the diagram is emitted at a fixed token rate. A share of requests can fail with a 500, stop mid-stream,
+ * return Mermaid with typical model mistakes or return prose only. Models named like {@code *fast*} answer
+ * faster but with more prose, and {@code options.num_predict} caps the tokens returned. A stall window makes
+ * the server hang like a wedged or reloading Ollama: requests arriving in it get no answer until it ends. It
+ * is timed from the first chat request, so application startup does not eat into it.
+ * <p>
+ * {@code /api/embed} returns hashed bag-of-words vectors that ignore filler words, so rephrasings such as
+ * "how does X work" and "X" embed identically while different topics stay apart.
+ */
+public class StubOllamaServer implements AutoCloseable {
+
+    // z-score of the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.326;
+
+    private static final int EMBEDDING_DIMENSIONS = 384;
+    private static final Set<String> FILLER_WORDS = Set.of("a", "an", "the", "how", "does", "do", "what", "is",
+            "are", "work", "works", "explain", "explained", "overview", "of", "in", "diagram");
+
+    private static final String[] NODE_LABELS = {
+            "Input", "Validate", "Parse", "Transform", "Store", "Index", "Notify", "Review", "Approve",
+            "Publish", "Retry", "Archive", "Measure", "Report", "Cleanup"
+    };
+
+    public record Settings(Duration firstTokenMedian, Duration firstTokenP99, double tokensPerSecond,
+                           int charsPerToken, int diagramLines, double errorRate, double truncateRate,
+                           double malformedRate, double proseRate, double fastSpeedup, double fastProseRate,
+                           Duration stallAfter, Duration stallFor, double promptTokensPerSecond) {
+
+        public static Settings from(Environment env) {
+            return new Settings(
+                    env.getProperty("stub.first-token-median", Duration.class, Duration.ofMillis(300)),
+                    env.getProperty("stub.first-token-p99", Duration.class, Duration.ofSeconds(2)),
+                    env.getProperty("stub.tokens-per-second", Double.class, 40.0),
+                    env.getProperty("stub.chars-per-token", Integer.class, 4),
+                    env.getProperty("stub.diagram-lines", Integer.class, 20),
+                    env.getProperty("stub.error-rate", Double.class, 0.01),
+                    env.getProperty("stub.truncate-rate", Double.class, 0.005),
+                    env.getProperty("stub.malformed-rate", Double.class, 0.1),
+                    env.getProperty("stub.prose-rate", Double.class, 0.02),
+                    env.getProperty("stub.fast-speedup", Double.class, 3.0),
+                    env.getProperty("stub.fast-prose-rate", Double.class, 0.15),
+                    env.getProperty("stub.stall-after", Duration.class, Duration.ZERO),
+                    env.getProperty("stub.stall-for", Duration.class, Duration.ZERO),
+                    env.getProperty("stub.prompt-tokens-per-second", Double.class, 500.0));
+        }
+
+        public Settings slowedBy(double factor) {
+            return new Settings(Duration.ofNanos((long) (firstTokenMedian.toNanos() * factor)),
+                    Duration.ofNanos((long) (firstTokenP99.toNanos() * factor)), tokensPerSecond / factor, charsPerToken,
+                    diagramLines, errorRate, truncateRate, malformedRate, proseRate, fastSpeedup, fastProseRate,
+                    stallAfter, stallFor, promptTokensPerSecond / factor);
+        }
+    }
+
+    private final Settings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+    private final AtomicLong firstRequestAt = new AtomicLong();
+
+    public StubOllamaServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 512);
+        server.createContext("/api/chat", this::chat);
+        server.createContext("/api/embed", this::embed);
+        server.createContext("/", this::root);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long injectedFailures() {
+        return injectedFailures.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void root(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            boolean isRoot = "/".equals(exchange.getRequestURI().getPath());
+            byte[] body = (isRoot ? "Ollama is running" : "404 page not found").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(isRoot ? 200 : 404, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private void chat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            long now = System.nanoTime();
+            firstRequestAt.compareAndSet(0, now);
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String model = request.path("model").asText("stub");
+            boolean stream = request.path("stream").asBoolean(true);
+            int numPredict = request.path("options").path("num_predict").asInt(-1);
+            boolean fast = model.contains("fast");
+            double speedup = fast ? Math.max(1, settings.fastSpeedup()) : 1;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            if (random.nextDouble() < settings.errorRate()) {
+                injectedFailures.incrementAndGet();
+                byte[] body = "{\"error\":\"injected failure\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(500, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+
+            int promptTokens = promptTokens(request);
+            String content = response(topicOf(request), fast ? settings.fastProseRate() : settings.proseRate(), random);
+            List<String> tokens = tokenize(content);
+            String doneReason = "stop";
+            if (numPredict > 0 && tokens.size() > numPredict) {
+                tokens = tokens.subList(0, numPredict);
+                content = String.join("", tokens);
+                doneReason = "length";
+            }
+            boolean truncate = random.nextDouble() < settings.truncateRate();
+            int truncateAt = truncate ? random.nextInt(Math.max(1, tokens.size())) : -1;
+            long tokenNanos = (long) (1_000_000_000L / (settings.tokensPerSecond() * speedup));
+            long start = System.nanoTime();
+
+            long stallStart = firstRequestAt.get() + settings.stallAfter().toNanos();
+            long stallEnd = stallStart + settings.stallFor().toNanos();
+            if (now - stallStart >= 0 && now - stallEnd < 0) {
+                park(stallEnd - now);
+            }
+            park((long) ((firstTokenDelay(random) + promptTokens * 1e9 / settings.promptTokensPerSecond()) / speedup));
+            if (!stream) {
+                park(tokenNanos * tokens.size());
+                byte[] body = objectMapper.writeValueAsBytes(chunk(model, content, true, doneReason, promptTokens, tokens.size(), start));
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i == truncateAt) {
+                    // Ends the body without the final done chunk, like a runner that died mid-generation
+                    injectedFailures.incrementAndGet();
+                    return;
+                }
+                writeLine(out, chunk(model, tokens.get(i), false, null, 0, 0, start));
+                if (i + 1 < tokens.size()) {
+                    park(tokenNanos);
+                }
+            }
+            writeLine(out, chunk(model, "", true, doneReason, promptTokens, tokens.size(), start));
+        } catch (IOException e) {
+            // Client cancelled, e.g. the generation guard aborted the stream
+        }
+    }
+
+    private void embed(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            JsonNode input = request.path("input");
+            ObjectNode response = objectMapper.createObjectNode();
+            response.put("model", request.path("model").asText("stub"));
+            ArrayNode embeddings = response.putArray("embeddings");
+            for (JsonNode text : input.isArray() ? input : objectMapper.createArrayNode().add(input)) {
+                ArrayNode vector = embeddings.addArray();
+                for (float value : embedding(text.asText(""))) {
+                    vector.add(value);
+                }
+            }
+            byte[] body = objectMapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private static float[] embedding(String text) {
+        float[] vector = new float[EMBEDDING_DIMENSIONS];
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}#]+")) {
+            if (word.isEmpty() || FILLER_WORDS.contains(word)) {
+                continue;
+            }
+            int hash = word.hashCode() * 0x9E3779B9;
+            vector[Math.floorMod(hash, EMBEDDING_DIMENSIONS)] += (hash & 0x10000) == 0 ? 1 : -1;
+        }
+        return vector;
+    }
+
+    private void writeLine(OutputStream out, ObjectNode chunk) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(chunk));
+        out.write('\n');
+        out.flush();
+    }
+
+    private ObjectNode chunk(String model, String content, boolean done, String doneReason, int promptEvalCount,
+                             int evalCount, long start) {
+        ObjectNode chunk = objectMapper.createObjectNode();
+        chunk.put("model", model);
+        chunk.put("created_at", Instant.now().toString());
+        ObjectNode message = chunk.putObject("message");
+        message.put("role", "assistant");
+        message.put("content", content);
+        chunk.put("done", done);
+        if (done) {
+            long total = System.nanoTime() - start;
+            chunk.put("done_reason", doneReason);
+            chunk.put("total_duration", total);
+            chunk.put("load_duration", 0L);
+            chunk.put("prompt_eval_count", promptEvalCount);
+            chunk.put("prompt_eval_duration", 0L);
+            chunk.put("eval_count", evalCount);
+            chunk.put("eval_duration", total);
+        }
+        return chunk;
+    }
+
+    private long firstTokenDelay(ThreadLocalRandom random) {
+        double median = settings.firstTokenMedian().toNanos();
+        double p99 = Math.max(median, settings.firstTokenP99().toNanos());
+        if (median <= 0) {
+            return 0;
+        }
+        double sigma = Math.log(p99 / median) / Z_99;
+        return (long) (median * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    private static void park(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    private int promptTokens(JsonNode request) {
+        int chars = 0;
+        for (JsonNode message : request.path("messages")) {
+            chars += message.path("content").asText("").length();
+        }
+        return Math.max(1, chars / Math.max(1, settings.charsPerToken()));
+    }
+
+    private static String topicOf(JsonNode request) {
+        JsonNode messages = request.path("messages");
+        String prompt = messages.isEmpty() ? "" : messages.get(messages.size() - 1).path("content").asText("");
+        int at = prompt.indexOf("Topic: ");
+        if (at < 0) {
+            return "Concept";
+        }
+        int end = prompt.indexOf('\n', at);
+        return prompt.substring(at + 7, end < 0 ? prompt.length() : end).trim();
+    }
+
+    private String response(String topic, double proseRate, ThreadLocalRandom random) {
+        double roll = random.nextDouble();
+        if (roll < proseRate) {
+            return "I'm sorry, but I can't draw a diagram for " + topic + ". It is a broad subject that covers "
+                    + "many different ideas, so please try a more specific topic.";
+        }
+        boolean malformed = roll < proseRate + settings.malformedRate();
+
+        StringBuilder diagram = new StringBuilder(malformed ? "```mermaid\ngraph TD\n" : "graph TD\n");
+        diagram.append("    A[\"").append(topic.replace('"', '\'')).append("\"]");
+        int lines = Math.max(1, settings.diagramLines() - 1);
+        for (int i = 1; i <= lines; i++) {
+            String from = nodeId(i - 1);
+            String to = nodeId(i);
+            String label = NODE_LABELS[(i + topic.length()) % NODE_LABELS.length];
+            diagram.append(i == 1 ? " --> " : "\n    " + from + " --> ");
+            if (malformed && i == lines / 2) {
+                // Typical model slips that the repairer fixes locally
+                diagram.append(to).append('[').append(label).append(" step\n    ").append(to).append(" -> ")
+                        .append(nodeId(i + 1)).append('[').append(label).append(" again]");
+                i++;
+            } else {
+                diagram.append(to).append('[').append(label).append(' ').append(i).append(']');
+            }
+        }
+        if (malformed) {
+            diagram.append("\n```\nThis flowchart shows the main stages of ").append(topic).append('.');
+        }
+        return diagram.toString();
+    }
+
+    private static String nodeId(int i) {
+        return i < 26 ? String.valueOf((char) ('A' + i)) : "N" + i;
+    }
+
+    private List<String> tokenize(String content) {
+        int size = Math.max(1, settings.charsPerToken());
+        List<String> tokens = new ArrayList<>(content.length() / size + 1);
+        for (int i = 0; i < content.length(); i += size) {
+            tokens.add(content.substring(i, Math.min(content.length(), i + size)));
+        }
+        return tokens;
+    }
+}
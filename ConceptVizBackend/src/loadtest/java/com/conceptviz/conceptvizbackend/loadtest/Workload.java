@@ -0,0 +1,237 @@
+package com.conceptviz.conceptvizbackend.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The user-facing calls the load test mixes: generate, batch generate, save, batch save, my-history and search, each issued as
+ * one of a fixed set of signed-up users. Topics are drawn from a bounded pool so the diagram cache sees a realistic mix of
+ * hits and misses; saves reuse the last generated diagram of the user when there is one. A share of generate
+ * topics can be reworded, which only the semantic cache recognises as a topic it has seen.
+ */
+public class Workload {
+
+    public enum Operation {
+        GENERATE("POST /diagram/generate"),
+        GENERATE_BATCH("POST /diagram/generate/batch"),
+        SAVE("POST /diagram/save"),
+        SAVE_BATCH("POST /diagram/save/batch"),
+        HISTORY("GET /diagram/my-history"),
+        // Full-text search is Postgres only and answers 503 on H2; point spring.datasource.* at a Postgres database with
+        // db/migration/004_diagram_search.sql applied to include it
+        SEARCH("GET /diagram/search");
+
+        private final String endpoint;
+
+        Operation(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public String endpoint() {
+            return endpoint;
+        }
+    }
+
+    private static final String CANNED_DIAGRAM = """
+            graph TD
+                A[Request] --> B[Validate]
+                B --> C[Store]
+                C --> D[Respond]""";
+
+    private static final String[] PARAPHRASES = {"How does %s work", "Explain %s", "%s overview", "What is %s"};
+
+    private static final String[] SUBJECTS = {
+            "OAuth2 login", "TCP handshake", "binary search", "photosynthesis", "CI pipeline", "order checkout",
+            "garbage collection", "DNS resolution", "Raft consensus", "user onboarding", "cache invalidation",
+            "blue-green deploy", "rocket launch", "library loans", "payment refund", "compiler stages",
+            "order database schema", "TCP connection states", "product launch roadmap", "observer design pattern"
+    };
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+    private final int topicCount;
+    private final Duration requestTimeout;
+    private final int saveBatchSize;
+    private final int generateBatchSize;
+    private final double paraphraseRate;
+    private final List<User> users = new ArrayList<>();
+
+    public Workload(String baseUrl, int topicCount, Duration requestTimeout, int saveBatchSize, int generateBatchSize,
+                    double paraphraseRate) {
+        this.baseUrl = baseUrl;
+        this.topicCount = Math.max(1, topicCount);
+        this.requestTimeout = requestTimeout;
+        this.saveBatchSize = Math.max(1, saveBatchSize);
+        this.generateBatchSize = Math.max(1, generateBatchSize);
+        this.paraphraseRate = paraphraseRate;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public List<User> users() {
+        return users;
+    }
+
+    public int saveBatchSize() {
+        return saveBatchSize;
+    }
+
+    public void signUp(int count, String runId) throws IOException, InterruptedException {
+        for (int i = 0; i < count; i++) {
+            String email = "loadtest-" + runId + "-" + i + "@example.com";
+            HttpResponse<String> response = send(post("/auth/signup", null,
+                    Map.of("email", email, "password", "load-test-password", "name", "Load Test " + i)));
+            JsonNode body = objectMapper.readTree(response.body());
+            if (response.statusCode() != 200 || !body.hasNonNull("token")) {
+                throw new IllegalStateException("Signup failed for " + email + ": " + response.statusCode() + " " + response.body());
+            }
+            users.add(new User(body.get("token").asText()));
+        }
+    }
+
+    /**
+     * Runs one operation and returns its HTTP status, or {@link LatencyReport#IO_ERROR} when no response arrived.
+     */
+    public int execute(Operation operation, User user, ThreadLocalRandom random) throws InterruptedException {
+        try {
+            return switch (operation) {
+                case GENERATE -> generate(user, random);
+                case GENERATE_BATCH -> generateBatch(user, random);
+                case SAVE -> save(user, random);
+                case SAVE_BATCH -> saveBatch(user, random);
+                case HISTORY -> history(user);
+                case SEARCH -> send(get("/diagram/search?q=" + searchTerm(random), user)).statusCode();
+            };
+        } catch (IOException e) {
+            return LatencyReport.IO_ERROR;
+        }
+    }
+
+    private int generate(User user, ThreadLocalRandom random) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(post("/diagram/generate", user, Map.of("topic", generateTopic(random))));
+        if (response.statusCode() == 200) {
+            JsonNode code = objectMapper.readTree(response.body()).get("mermaidCode");
+            if (code != null && code.isTextual()) {
+                user.lastDiagram = code.asText();
+            }
+        }
+        return response.statusCode();
+    }
+
+    // Saves the results and reads the NDJSON stream to its summary line; a stream cut short counts as an error
+    private int generateBatch(User user, ThreadLocalRandom random) throws IOException, InterruptedException {
+        List<String> topics = new ArrayList<>(generateBatchSize);
+        for (int i = 0; i < generateBatchSize; i++) {
+            topics.add(generateTopic(random));
+        }
+        HttpResponse<String> response = send(post("/diagram/generate/batch", user, Map.of("topics", topics, "save", true)));
+        if (response.statusCode() != 200) {
+            return response.statusCode();
+        }
+        String[] lines = response.body().strip().split("\n");
+        JsonNode last = objectMapper.readTree(lines[lines.length - 1]);
+        return "complete".equals(last.path("type").asText()) ? 200 : LatencyReport.IO_ERROR;
+    }
+
+    public int save(User user, ThreadLocalRandom random) throws IOException, InterruptedException {
+        String diagram = user.lastDiagram != null ? user.lastDiagram : CANNED_DIAGRAM;
+        return send(post("/diagram/save", user, Map.of("topic", topic(random), "mermaidCode", diagram))).statusCode();
+    }
+
+    // Revalidates like the browser does: If-None-Match with the ETag of the last full response
+    private int history(User user) throws IOException, InterruptedException {
+        HttpRequest.Builder request = request("/diagram/my-history", user).GET();
+        String eTag = user.historyETag;
+        if (eTag != null) {
+            request.header("If-None-Match", eTag);
+        }
+        HttpResponse<String> response = send(request.build());
+        if (response.statusCode() == 200) {
+            user.historyETag = response.headers().firstValue("ETag").orElse(null);
+        }
+        return response.statusCode();
+    }
+
+    private int saveBatch(User user, ThreadLocalRandom random) throws IOException, InterruptedException {
+        String diagram = user.lastDiagram != null ? user.lastDiagram : CANNED_DIAGRAM;
+        List<Map<String, String>> diagrams = new ArrayList<>(saveBatchSize);
+        for (int i = 0; i < saveBatchSize; i++) {
+            diagrams.add(Map.of("topic", topic(random), "mermaidCode", diagram));
+        }
+        return send(post("/diagram/save/batch", user, Map.of("diagrams", diagrams))).statusCode();
+    }
+
+    private String topic(ThreadLocalRandom random) {
+        int n = random.nextInt(topicCount);
+        return SUBJECTS[n % SUBJECTS.length] + " #" + n;
+    }
+
+    private String generateTopic(ThreadLocalRandom random) {
+        String topic = topic(random);
+        if (random.nextDouble() < paraphraseRate) {
+            return String.format(PARAPHRASES[random.nextInt(PARAPHRASES.length)], topic);
+        }
+        return topic;
+    }
+
+    // One word of a topic subject, sometimes shortened to a prefix as if still typing
+    private String searchTerm(ThreadLocalRandom random) {
+        String[] words = SUBJECTS[random.nextInt(SUBJECTS.length)].split("[ -]");
+        String word = words[random.nextInt(words.length)];
+        if (word.length() > 4 && random.nextBoolean()) {
+            word = word.substring(0, 3 + random.nextInt(word.length() - 3));
+        }
+        return URLEncoder.encode(word, StandardCharsets.UTF_8);
+    }
+
+    private HttpRequest post(String path, User user, Map<String, ?> body) throws JsonProcessingException {
+        return request(path, user)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                .build();
+    }
+
+    private HttpRequest get(String path, User user) {
+        return request(path, user).GET().build();
+    }
+
+    private HttpRequest.Builder request(String path, User user) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(requestTimeout);
+        if (user != null) {
+            builder.header("Authorization", "Bearer " + user.token);
+        }
+        return builder;
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public static final class User {
+        private final String token;
+        // Workers share users; any recent diagram of the user is good enough to save
+        private volatile String lastDiagram;
+        private volatile String historyETag;
+
+        private User(String token) {
+            this.token = token;
+        }
+    }
+}
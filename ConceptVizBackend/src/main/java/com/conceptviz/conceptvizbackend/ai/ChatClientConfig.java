@@ -0,0 +1,15 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ChatClientConfig {
+
+    // One client for every generation; model and output budget travel with each prompt's options
+    @Bean
+    public ChatClient diagramChatClient(ChatClient.Builder chatClientBuilder) {
+        return chatClientBuilder.build();
+    }
+}
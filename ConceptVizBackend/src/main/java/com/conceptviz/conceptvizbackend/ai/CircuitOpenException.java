@@ -0,0 +1,19 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import lombok.Getter;
+
+/**
+ * Thrown instead of calling Ollama while the circuit breaker is open; carries a Retry-After hint.
+ */
+@Getter
+public class CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public CircuitOpenException(long retryAfterSeconds) {
+        super("Ollama calls are suspended after repeated failures, retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
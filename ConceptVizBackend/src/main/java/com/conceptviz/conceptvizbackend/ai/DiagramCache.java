@@ -0,0 +1,59 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Bounded cache of validated Mermaid diagrams keyed on the model, the prompt version
+ * and the normalized topic, so changing either the model or the prompt invalidates it.
+ */
+@Slf4j
+@Component
+public class DiagramCache {
+
+    private final Cache<String, String> cache;
+    private final String model;
+    private final boolean enabled;
+
+    public DiagramCache(@Value("${conceptviz.cache.diagram.enabled:true}") boolean enabled,
+                        @Value("${conceptviz.cache.diagram.max-size:1000}") long maxSize,
+                        @Value("${conceptviz.cache.diagram.ttl:6h}") Duration ttl,
+                        @Value("${spring.ai.ollama.chat.model:unknown}") String model,
+                        MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.model = model;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "diagrams");
+        log.info("Diagram cache enabled={} maxSize={} ttl={} model={}", enabled, maxSize, ttl, model);
+    }
+
+    public String keyFor(String topic, String promptVersion) {
+        return model + "|" + promptVersion + "|" + TopicNormalizer.normalize(topic);
+    }
+
+    public Optional<String> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    public void put(String key, String mermaidCode) {
+        if (enabled) {
+            cache.put(key, mermaidCode);
+        }
+    }
+}
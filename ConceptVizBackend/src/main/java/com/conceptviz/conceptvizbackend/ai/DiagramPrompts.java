@@ -0,0 +1,138 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The generation prompts, built once at startup. A topic the {@link TopicClassifier} can place gets a short
+ * prompt for that one diagram type and a matching output budget; anything else gets the generic prompt that
+ * lets the model choose among the types.
+ * <p>
+ * Output budgets can be overridden with {@code conceptviz.ai.prompts.num-predict.<diagramType>}; the model
+ * tier's own budget still applies when it is lower.
+ */
+@Slf4j
+@Component
+public class DiagramPrompts {
+
+    private static final String GENERIC = "generic";
+
+    private static final String GENERIC_TEMPLATE = """
+            You are a Mermaid.js diagram expert. Generate ONLY valid Mermaid.js syntax for: {topic}
+
+            CRITICAL RULES - FOLLOW EXACTLY:
+            1. Return ONLY Mermaid code - NO explanations, NO markdown backticks, NO extra text
+            2. Start with EXACTLY ONE diagram type declaration on the first line
+            3. Use ONLY ONE diagram type - never mix types
+            4. Follow strict Mermaid.js syntax for the chosen type
+            5. Keep it simple and clear and try to make it visually appealing
+            6. If unsure about the topic, create a simple flowchart
+
+            Choose the BEST diagram type for this topic:
+            - graph TD or graph LR: For processes, workflows, hierarchies, general concepts
+            - sequenceDiagram: For API calls, interactions, communications between entities
+            - classDiagram: For OOP concepts, data structures, class relationships
+            - stateDiagram-v2: For state machines, lifecycles, state transitions
+            - erDiagram: For database schemas, entity relationships
+            - journey: For user journeys, customer experiences
+            - gantt: For timelines, project schedules, roadmaps
+
+            Topic: {topic}
+
+            IMPORTANT: Output ONLY the Mermaid code, nothing else. Start immediately with the diagram type.
+            """;
+
+    private static final String TYPED_TEMPLATE = """
+            Output ONLY valid Mermaid.js code, with no markdown backticks and no explanation.
+            %s
+            Keep it simple and clear.
+            Topic: {topic}
+            """;
+
+    private static final Map<String, String> TYPE_INSTRUCTIONS = Map.of(
+            "graph", "Draw a flowchart. First line: graph TD. Short node labels, at most 15 nodes.",
+            "sequenceDiagram", "Draw a sequence diagram. First line: sequenceDiagram. Declare the participants, "
+                    + "then one message per line as A->>B: text.",
+            "classDiagram", "Draw a class diagram. First line: classDiagram. Key fields and methods only, "
+                    + "relations such as Animal <|-- Dog.",
+            "stateDiagram", "Draw a state diagram. First line: stateDiagram-v2. Use [*] for start and end, "
+                    + "transitions as A --> B: event.",
+            "erDiagram", "Draw an entity relationship diagram. First line: erDiagram. Relations such as "
+                    + "CUSTOMER ||--o| ORDER : places.",
+            "journey", "Draw a user journey. First line: journey, then a title, sections and tasks such as "
+                    + "Make tea: 5: Me.",
+            "gantt", "Draw a gantt chart. First line: gantt, then a title, dateFormat YYYY-MM-DD, sections and "
+                    + "tasks with ids and durations."
+    );
+
+    private static final Map<String, Integer> DEFAULT_NUM_PREDICT = Map.of(
+            "graph", 500,
+            "sequenceDiagram", 500,
+            "classDiagram", 700,
+            "stateDiagram", 400,
+            "erDiagram", 700,
+            "journey", 350,
+            "gantt", 450
+    );
+
+    /**
+     * A prompt for one kind of topic. Rendering substitutes the topic into the prebuilt text; Spring AI's
+     * {@link PromptTemplate} re-binds a shared template on every render and is not safe to share.
+     */
+    public record DiagramPrompt(String type, String text, int numPredict) {
+
+        public UserMessage render(String topic) {
+            return new UserMessage(text.replace("{topic}", topic));
+        }
+    }
+
+    private final TopicClassifier topicClassifier;
+    private final boolean classify;
+    private final DiagramPrompt generic;
+    private final Map<String, DiagramPrompt> typed = new HashMap<>();
+    private final String version;
+
+    public DiagramPrompts(TopicClassifier topicClassifier,
+                          Environment environment,
+                          @Value("${conceptviz.ai.prompts.classify:true}") boolean classify) {
+        this.topicClassifier = topicClassifier;
+        this.classify = classify;
+        this.generic = prompt(GENERIC, GENERIC_TEMPLATE, Integer.MAX_VALUE);
+        Map<String, Integer> budgets = new TreeMap<>();
+        TYPE_INSTRUCTIONS.forEach((type, instruction) -> {
+            int numPredict = environment.getProperty("conceptviz.ai.prompts.num-predict." + type, Integer.class,
+                    DEFAULT_NUM_PREDICT.get(type));
+            typed.put(type, prompt(type, TYPED_TEMPLATE.formatted(instruction), numPredict));
+            budgets.put(type, numPredict);
+        });
+
+        // Cached diagrams are only reusable for the prompts that produced them
+        StringBuilder texts = new StringBuilder(generic.text());
+        new TreeMap<>(typed).values().forEach(prompt -> texts.append(prompt.text()));
+        this.version = Integer.toHexString(texts.toString().hashCode()) + (classify ? "t" : "g");
+        log.info("Diagram prompts version={} classify={} numPredict={}", version, classify, budgets);
+    }
+
+    public DiagramPrompt forTopic(String topic) {
+        String type = classify ? topicClassifier.classify(topic) : null;
+        return type != null && typed.containsKey(type) ? typed.get(type) : generic;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    // Parsing through PromptTemplate once rejects a broken template at startup rather than on first use
+    private static DiagramPrompt prompt(String type, String text, int numPredict) {
+        new PromptTemplate(text).render(Map.of("topic", "validation"));
+        return new DiagramPrompt(type, text, numPredict);
+    }
+}
@@ -0,0 +1,99 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of identical generations: the first caller for a key runs the
+ * inference, concurrent callers for the same key wait (up to a cap) for its result.
+ * A {@code null} result means the generation was unusable and the caller should fall back;
+ * exceptions thrown by the leader are rethrown to every follower, except a rejection for the leader's own
+ * per-requester limit, after which followers retry the generation themselves.
+ */
+@Slf4j
+@Component
+public class GenerationCoalescer {
+
+    private final ConcurrentMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Duration maxWait;
+    private final Counter leaders;
+    private final Counter followers;
+    private final Counter followerTimeouts;
+
+    public GenerationCoalescer(@Value("${conceptviz.ai.coalesce.max-wait:60s}") Duration maxWait,
+                               MeterRegistry meterRegistry) {
+        this.maxWait = maxWait;
+        this.leaders = Counter.builder("diagram.generate.coalescing")
+                .description("Generate requests that ran their own inference (leader) or joined one (follower)")
+                .tag("role", "leader")
+                .register(meterRegistry);
+        this.followers = Counter.builder("diagram.generate.coalescing")
+                .description("Generate requests that ran their own inference (leader) or joined one (follower)")
+                .tag("role", "follower")
+                .register(meterRegistry);
+        this.followerTimeouts = Counter.builder("diagram.generate.coalescing.timeouts")
+                .description("Followers that gave up waiting for the leader's result")
+                .register(meterRegistry);
+        meterRegistry.gauge("diagram.generate.inflight", inFlight, ConcurrentMap::size);
+    }
+
+    public String execute(String key, Supplier<String> generation) {
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        while (true) {
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            CompletableFuture<String> existing = inFlight.putIfAbsent(key, mine);
+
+            if (existing == null) {
+                leaders.increment();
+                try {
+                    String result = generation.get();
+                    mine.complete(result);
+                    return result;
+                } catch (RuntimeException e) {
+                    mine.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    inFlight.remove(key, mine);
+                }
+            }
+
+            followers.increment();
+            log.debug("Joining in-flight generation for key: {}", key);
+            try {
+                return existing.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                followerTimeouts.increment();
+                log.warn("Gave up waiting {} for in-flight generation of key: {}", maxWait, key);
+                return null;
+            } catch (ExecutionException e) {
+                // The leader hit its own requester's queue cap, which says nothing about this caller:
+                // run the generation under this caller's own requester instead
+                if (e.getCause() instanceof InferenceRejectedException rejected && rejected.isPerRequester()) {
+                    log.debug("Leader for key {} was over its requester limit, retrying as leader", key);
+                    continue;
+                }
+                // Share the leader's failure, e.g. a full inference queue, with everyone waiting on it
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                log.warn("In-flight generation failed for key {}: {}", key, e.getCause().getMessage());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs generations off the Tomcat request threads so slow LLM calls cannot starve other endpoints.
+ * Uses virtual threads when the JVM supports them (Java 21+), otherwise a bounded platform pool
+ * that rejects work once saturated.
+ */
+@Slf4j
+@Component
+public class GenerationExecutor implements DisposableBean {
+
+    private final Executor executor;
+    private final ThreadPoolExecutor platformPool;
+
+    public GenerationExecutor(@Value("${conceptviz.ai.executor.virtual-threads:true}") boolean virtualThreads,
+                              @Value("${conceptviz.ai.executor.max-threads:200}") int maxThreads,
+                              MeterRegistry meterRegistry) {
+        if (virtualThreads && Runtime.version().feature() >= 21) {
+            SimpleAsyncTaskExecutor virtualExecutor = new SimpleAsyncTaskExecutor("generate-");
+            virtualExecutor.setVirtualThreads(true);
+            this.executor = virtualExecutor;
+            this.platformPool = null;
+            log.info("Generation executor using virtual threads");
+        } else {
+            this.platformPool = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+            this.executor = platformPool;
+            meterRegistry.gauge("diagram.generate.executor.active", platformPool, ThreadPoolExecutor::getActiveCount);
+            log.info("Generation executor using up to {} platform threads", maxThreads);
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new InferenceRejectedException("executor_saturated", 5));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (platformPool != null) {
+            platformPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Watches a streamed generation line by line and decides when the rest of it is not worth
+ * paying for: a second diagram starts, the model falls back to prose or a closing fence
+ * after the diagram body, or the body exceeds the line budget for its diagram type.
+ * Wraps a {@link MermaidLineCleaner} so callers get the cleaned lines as they go.
+ * Not thread-safe, one instance per generation.
+ */
+public class GenerationGuard {
+
+    public enum AbortReason {
+        SECOND_DIAGRAM,
+        FENCE_AFTER_BODY,
+        PROSE_AFTER_BODY,
+        LINE_BUDGET
+    }
+
+    private final MermaidLineCleaner lineCleaner = new MermaidLineCleaner();
+    private final ToIntFunction<String> lineBudget;
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder accepted = new StringBuilder();
+    private String diagramType;
+    private String header;
+    private int bodyLines;
+    private int chunks;
+    private AbortReason abortReason;
+
+    public GenerationGuard(ToIntFunction<String> lineBudget) {
+        this.lineBudget = lineBudget;
+    }
+
+    public List<String> accept(String chunk) {
+        List<String> lines = new ArrayList<>();
+        chunks++;
+        if (chunk == null || abortReason != null) {
+            return lines;
+        }
+
+        pending.append(chunk);
+        int newline;
+        while (abortReason == null && (newline = pending.indexOf("\n")) >= 0) {
+            String line = pending.substring(0, newline);
+            pending.delete(0, newline + 1);
+            acceptLine(line, lines);
+        }
+        return lines;
+    }
+
+    public List<String> finish() {
+        List<String> lines = new ArrayList<>();
+        if (abortReason == null && !pending.isEmpty()) {
+            acceptLine(pending.toString(), lines);
+        }
+        pending.setLength(0);
+        return lines;
+    }
+
+    public boolean isAborted() {
+        return abortReason != null;
+    }
+
+    public AbortReason getAbortReason() {
+        return abortReason;
+    }
+
+    /**
+     * Type from the diagram header, or null while no header has been seen.
+     */
+    public String getDiagramType() {
+        return diagramType;
+    }
+
+    /**
+     * Streamed chunks seen so far; Ollama streams roughly one token per chunk.
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Raw response up to, but excluding, the line that triggered an abort.
+     */
+    public String acceptedText() {
+        return abortReason == null ? accepted.toString() + pending : accepted.toString();
+    }
+
+    private void acceptLine(String line, List<String> lines) {
+        abortReason = inspect(line.trim());
+        if (abortReason != null) {
+            return;
+        }
+
+        accepted.append(line).append('\n');
+        for (String cleaned : lineCleaner.accept(line + "\n")) {
+            if (diagramType == null) {
+                diagramType = lineCleaner.getDiagramType();
+                header = cleaned.trim();
+            } else {
+                bodyLines++;
+            }
+            lines.add(cleaned);
+        }
+    }
+
+    private AbortReason inspect(String trimmedLine) {
+        if (diagramType == null || trimmedLine.isEmpty()) {
+            return null;
+        }
+
+        if (MermaidSyntax.isValidDiagramStart(trimmedLine) && !trimmedLine.startsWith(diagramType)) {
+            return AbortReason.SECOND_DIAGRAM;
+        }
+        if (bodyLines > 0 && trimmedLine.startsWith("```")) {
+            return AbortReason.FENCE_AFTER_BODY;
+        }
+        if (bodyLines > 0 && MermaidSyntax.startsLikeProse(trimmedLine) && !isStatement(trimmedLine)) {
+            return AbortReason.PROSE_AFTER_BODY;
+        }
+        if (bodyLines >= lineBudget.applyAsInt(diagramType)) {
+            return AbortReason.LINE_BUDGET;
+        }
+        return null;
+    }
+
+    // Node ids such as "Explanation[Explain results]" open like commentary but parse as part of the diagram
+    private boolean isStatement(String trimmedLine) {
+        return MermaidParser.parse(header + "\n    " + trimmedLine).issues().stream()
+                .noneMatch(issue -> issue.kind() == MermaidIssue.Kind.PROSE || issue.kind() == MermaidIssue.Kind.SYNTAX);
+    }
+}
@@ -0,0 +1,77 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Creates {@link GenerationGuard}s with per-diagram-type line budgets and records what they saved.
+ * Budgets can be overridden with {@code conceptviz.ai.guard.line-budget.<diagramType>}.
+ */
+@Slf4j
+@Component
+public class GenerationGuards {
+
+    private static final Map<String, Integer> DEFAULT_LINE_BUDGETS = Map.of(
+            "graph", 80,
+            "sequenceDiagram", 80,
+            "classDiagram", 120,
+            "stateDiagram", 60,
+            "erDiagram", 120,
+            "journey", 40,
+            "gantt", 60,
+            "gitGraph", 60
+    );
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary tokensReceived;
+    private final DistributionSummary tokensSaved;
+
+    public GenerationGuards(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        this.tokensReceived = DistributionSummary.builder("diagram.generate.tokens.received")
+                .description("Streamed tokens received per generation")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+        this.tokensSaved = DistributionSummary.builder("diagram.generate.tokens.saved")
+                .description("Estimated tokens not generated because the guard aborted (num-predict minus tokens received)")
+                .baseUnit("tokens")
+                .register(meterRegistry);
+    }
+
+    public GenerationGuard newGuard() {
+        return new GenerationGuard(this::lineBudget);
+    }
+
+    /**
+     * Records a finished generation; {@code numPredict} is the output budget the call actually ran with.
+     */
+    public void record(GenerationGuard guard, int numPredict) {
+        tokensReceived.record(guard.getChunks());
+        if (!guard.isAborted()) {
+            return;
+        }
+
+        int saved = Math.max(0, numPredict - guard.getChunks());
+        tokensSaved.record(saved);
+        Counter.builder("diagram.generate.aborted")
+                .description("Generations cancelled early by the guard")
+                .tag("reason", guard.getAbortReason().name())
+                .register(meterRegistry)
+                .increment();
+        log.info("Aborted generation after {} tokens ({}), ~{} tokens saved",
+                guard.getChunks(), guard.getAbortReason(), saved);
+    }
+
+    private int lineBudget(String diagramType) {
+        return environment.getProperty("conceptviz.ai.guard.line-budget." + diagramType, Integer.class,
+                DEFAULT_LINE_BUDGETS.getOrDefault(diagramType, 80));
+    }
+}
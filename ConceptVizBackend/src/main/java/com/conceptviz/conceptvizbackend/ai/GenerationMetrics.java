@@ -0,0 +1,175 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import com.fasterxml.jackson.core.JacksonException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.core.codec.CodecException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.SignalType;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Meters for the Ollama calls behind diagram generation: call duration, time to first token, tokens in and
+ * out, generation speed and failures. Tags are limited to bounded sets (configured models, detected diagram
+ * type, a fixed outcome or error category) so the series count does not grow with traffic.
+ */
+@Component
+public class GenerationMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public GenerationMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Starts a call to the given model with the given prompt, from {@link DiagramPrompts}. Both tag the meters:
+     * tiered generation uses more than one model, and the prompts differ in length and output budget.
+     */
+    public Call start(String model, String prompt) {
+        return new Call(model, prompt, System.nanoTime());
+    }
+
+    /**
+     * One streamed Ollama call. Not thread-safe; the stream delivers its signals sequentially.
+     */
+    public final class Call {
+
+        private final String model;
+        private final String prompt;
+        private final long start;
+        private long firstToken;
+        private Usage usage;
+        private Throwable error;
+
+        private Call(String model, String prompt, long start) {
+            this.model = model;
+            this.prompt = prompt;
+            this.start = start;
+        }
+
+        /**
+         * Notes timing and usage of a streamed response and returns its text, or null when it carries none.
+         */
+        public String onResponse(ChatResponse response) {
+            if (response.getMetadata() != null && response.getMetadata().getUsage() != null
+                    && response.getMetadata().getUsage().getGenerationTokens() != null
+                    && response.getMetadata().getUsage().getGenerationTokens() > 0) {
+                usage = response.getMetadata().getUsage();
+            }
+            if (response.getResult() == null || response.getResult().getOutput() == null) {
+                return null;
+            }
+            String content = response.getResult().getOutput().getContent();
+            if (content == null || content.isEmpty()) {
+                return null;
+            }
+            if (firstToken == 0) {
+                firstToken = System.nanoTime();
+                Timer.builder("diagram.llm.first.token")
+                        .description("Time from sending the prompt to the first streamed token")
+                        .tag("model", model)
+                        .tag("prompt", prompt)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(firstToken - start, TimeUnit.NANOSECONDS);
+            }
+            return content;
+        }
+
+        public void failed(Throwable e) {
+            error = e;
+        }
+
+        public void finish(SignalType signal, GenerationGuard guard) {
+            long end = System.nanoTime();
+            String outcome;
+            if (error != null) {
+                outcome = "error";
+                Counter.builder("diagram.llm.errors")
+                        .description("Failed Ollama calls by error category")
+                        .tag("model", model)
+                        .tag("error", errorCategory(error))
+                        .register(meterRegistry)
+                        .increment();
+            } else if (guard.isAborted()) {
+                outcome = "aborted";
+            } else if (signal == SignalType.CANCEL) {
+                outcome = "cancelled";
+            } else {
+                outcome = "completed";
+            }
+
+            Timer.builder("diagram.llm.duration")
+                    .description("Ollama call duration from sending the prompt to the end of the stream")
+                    .tag("model", model)
+                    .tag("diagram_type", guard.getDiagramType() != null ? guard.getDiagramType() : "unknown")
+                    .tag("prompt", prompt)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(end - start, TimeUnit.NANOSECONDS);
+
+            // An aborted stream never reaches the final chunk with usage; count what was streamed
+            long generated = usage != null ? usage.getGenerationTokens() : guard.getChunks();
+            tokenSummary(model, prompt, "generated").record(generated);
+            if (usage != null && usage.getPromptTokens() != null) {
+                tokenSummary(model, prompt, "prompt").record(usage.getPromptTokens());
+            }
+            if (firstToken != 0 && end > firstToken && generated > 1) {
+                DistributionSummary.builder("diagram.llm.tokens.per.second")
+                        .description("Generation speed after the first token")
+                        .baseUnit("tokens/s")
+                        .tag("model", model)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record((generated - 1) / ((end - firstToken) / 1e9));
+            }
+        }
+    }
+
+    private DistributionSummary tokenSummary(String model, String prompt, String direction) {
+        return DistributionSummary.builder("diagram.llm.tokens")
+                .description("Tokens per Ollama call, prompt (in) or generated (out)")
+                .baseUnit("tokens")
+                .tag("model", model)
+                .tag("prompt", prompt)
+                .tag("direction", direction)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // A fixed set of categories instead of exception class names keeps the tag bounded
+    static String errorCategory(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof WebClientResponseException response) {
+                return response.getStatusCode().is5xxServerError() ? "http_5xx" : "http_4xx";
+            }
+            if (e instanceof RestClientResponseException response) {
+                return response.getStatusCode().is5xxServerError() ? "http_5xx" : "http_4xx";
+            }
+            if (e instanceof TimeoutException || e instanceof SocketTimeoutException) {
+                return "timeout";
+            }
+            if (e instanceof ConnectException || e instanceof UnknownHostException
+                    || e.getClass().getSimpleName().equals("PrematureCloseException")) {
+                return "connection";
+            }
+            if (e instanceof CodecException || e instanceof JacksonException) {
+                return "decode";
+            }
+        }
+        return "other";
+    }
+}
@@ -0,0 +1,325 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical navigable small world graph (Malkov and Yashunin) over unit-length vectors, scored by inner
+ * product, i.e. cosine similarity. Searches run concurrently with each other; adds and removals take the
+ * write lock.
+ * <p>
+ * Removal only marks a node deleted: it keeps routing searches through the graph but is never returned.
+ * Owners rebuild the index once {@link #deleted()} becomes a large share of {@link #nodes()}.
+ */
+final class HnswIndex {
+
+    record Match(long key, double similarity) {
+    }
+
+    private static final class Node {
+        final long key;
+        final float[] vector;
+        final int[][] links;
+        volatile boolean deleted;
+
+        Node(long key, float[] vector, int level) {
+            this.key = key;
+            this.vector = vector;
+            this.links = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[0];
+            }
+        }
+
+        int level() {
+            return links.length - 1;
+        }
+    }
+
+    private record Candidate(int node, double similarity) {
+    }
+
+    private static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble(Candidate::similarity).reversed();
+    private static final Comparator<Candidate> WORST_FIRST = Comparator.comparingDouble(Candidate::similarity);
+
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final double levelFactor;
+    private final List<Node> nodes = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int entryPoint = -1;
+    private int deleted;
+
+    HnswIndex(int dimensions, int m, int efConstruction) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW m must be at least 2");
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelFactor = 1 / Math.log(m);
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int nodes() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int deleted() {
+        lock.readLock().lock();
+        try {
+            return deleted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a vector under the given key and returns its node number for {@link #remove(int)}.
+     * The vector must be unit length and is kept by reference.
+     */
+    int add(long key, float[] vector) {
+        checkDimensions(vector);
+        int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelFactor);
+
+        lock.writeLock().lock();
+        try {
+            int node = nodes.size();
+            Node added = new Node(key, vector, level);
+            nodes.add(added);
+            if (entryPoint < 0) {
+                entryPoint = node;
+                return node;
+            }
+
+            int top = nodes.get(entryPoint).level();
+            int current = entryPoint;
+            for (int l = top; l > level; l--) {
+                current = greedyClosest(vector, current, l);
+            }
+            for (int l = Math.min(level, top); l >= 0; l--) {
+                List<Candidate> candidates = searchLayer(vector, current, efConstruction, l);
+                int[] neighbours = selectNeighbours(vector, candidates, m);
+                added.links[l] = neighbours;
+                for (int neighbour : neighbours) {
+                    link(neighbour, node, l);
+                }
+                current = candidates.get(0).node();
+            }
+            if (level > top) {
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int node) {
+        lock.writeLock().lock();
+        try {
+            Node removed = nodes.get(node);
+            if (!removed.deleted) {
+                removed.deleted = true;
+                deleted++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code k} live entries closest to the query, most similar first. A larger {@code ef}
+     * trades latency for recall.
+     */
+    List<Match> search(float[] query, int k, int ef) {
+        checkDimensions(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            for (int l = nodes.get(entryPoint).level(); l > 0; l--) {
+                current = greedyClosest(query, current, l);
+            }
+            List<Match> matches = new ArrayList<>(k);
+            for (Candidate candidate : searchLayer(query, current, Math.max(ef, k), 0)) {
+                Node node = nodes.get(candidate.node());
+                if (!node.deleted) {
+                    matches.add(new Match(node.key, candidate.similarity()));
+                    if (matches.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        double best = similarity(query, nodes.get(current).vector);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : nodes.get(current).links[level]) {
+                double similarity = similarity(query, nodes.get(neighbour).vector);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Best-first search of one layer; returns up to ef nodes, deleted ones included, most similar first
+    private List<Candidate> searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+        Candidate first = new Candidate(start, similarity(query, nodes.get(start).vector));
+        visited.set(start);
+        frontier.add(first);
+        results.add(first);
+
+        while (!frontier.isEmpty()) {
+            Candidate closest = frontier.poll();
+            if (results.size() >= ef && closest.similarity() < results.peek().similarity()) {
+                break;
+            }
+            for (int neighbour : nodes.get(closest.node()).links[level]) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                double similarity = similarity(query, nodes.get(neighbour).vector);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbour, similarity);
+                    frontier.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BEST_FIRST);
+        return sorted;
+    }
+
+    // Neighbour selection heuristic: skip candidates closer to an already chosen neighbour than to the
+    // base, which keeps links spread across clusters; leftover slots go to the closest skipped ones
+    private int[] selectNeighbours(float[] base, List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() == max) {
+                break;
+            }
+            float[] vector = nodes.get(candidate.node()).vector;
+            if (vector == base) {
+                continue;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (similarity(vector, nodes.get(chosen.node()).vector) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : skipped).add(candidate);
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected.stream().mapToInt(Candidate::node).toArray();
+    }
+
+    // A full neighbour list swaps out its least similar entry; re-running the selection heuristic on every
+    // overflow costs a quadratic number of similarity computations and barely changes recall
+    private void link(int from, int to, int level) {
+        Node node = nodes.get(from);
+        int[] links = node.links[level];
+        int max = level == 0 ? 2 * m : m;
+        if (links.length < max) {
+            int[] grown = new int[links.length + 1];
+            System.arraycopy(links, 0, grown, 0, links.length);
+            grown[links.length] = to;
+            node.links[level] = grown;
+            return;
+        }
+
+        int worst = -1;
+        double worstSimilarity = similarity(node.vector, nodes.get(to).vector);
+        for (int i = 0; i < links.length; i++) {
+            double similarity = similarity(node.vector, nodes.get(links[i]).vector);
+            if (similarity < worstSimilarity) {
+                worstSimilarity = similarity;
+                worst = i;
+            }
+        }
+        if (worst >= 0) {
+            int[] replaced = links.clone();
+            replaced[worst] = to;
+            node.links[level] = replaced;
+        }
+    }
+
+    private void checkDimensions(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+    }
+
+    static double similarity(float[] a, float[] b) {
+        // Independent accumulators let the JIT pipeline the multiply-adds
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = a.length - 3; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (double) s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * Scales a vector to unit length in place and returns it, or returns null for a zero vector.
+     */
+    static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(similarity(vector, vector));
+        if (norm == 0 || Double.isNaN(norm)) {
+            return null;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (vector[i] / norm);
+        }
+        return vector;
+    }
+}
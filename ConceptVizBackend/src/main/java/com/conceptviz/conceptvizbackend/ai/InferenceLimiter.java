@@ -0,0 +1,360 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Permit pool in front of the Ollama call with a bounded wait queue. Requests beyond the queue
+ * capacity, or that wait longer than the configured maximum, are rejected with a Retry-After hint
+ * instead of piling up.
+ * <p>
+ * Waiting requests are queued per {@link Requester} and released permits are handed out by weighted
+ * round-robin across requesters, so one client scripting generate in a loop only ever competes for
+ * its own turn. Authenticated users can be weighted above anonymous callers.
+ */
+@Slf4j
+@Component
+public class InferenceLimiter {
+
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final int maxQueuedPerRequester;
+    private final int authenticatedWeight;
+    private final int anonymousWeight;
+    private final Duration maxWait;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, RequesterQueue> queues = new HashMap<>();
+    private final Deque<RequesterQueue> rotation = new ArrayDeque<>();
+    private int available;
+    private int waitingCount;
+
+    // Exponentially weighted average of how long a permit is held, used for Retry-After
+    private volatile double averageHoldMillis = 15_000;
+
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, WaitWindow> requesterWaits;
+
+    public InferenceLimiter(@Value("${conceptviz.ai.inference.max-concurrent:2}") int maxConcurrent,
+                            @Value("${conceptviz.ai.inference.queue-capacity:50}") int queueCapacity,
+                            @Value("${conceptviz.ai.inference.max-queued-per-requester:5}") int maxQueuedPerRequester,
+                            @Value("${conceptviz.ai.fairness.authenticated-weight:2}") int authenticatedWeight,
+                            @Value("${conceptviz.ai.fairness.anonymous-weight:1}") int anonymousWeight,
+                            @Value("${conceptviz.ai.inference.max-wait:60s}") Duration maxWait,
+                            MeterRegistry meterRegistry) {
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.maxQueuedPerRequester = Math.max(1, maxQueuedPerRequester);
+        this.authenticatedWeight = Math.max(1, authenticatedWeight);
+        this.anonymousWeight = Math.max(1, anonymousWeight);
+        this.maxWait = maxWait;
+        this.available = maxConcurrent;
+        this.meterRegistry = meterRegistry;
+        this.requesterWaits = Caffeine.newBuilder()
+                .maximumSize(1000)
+                .expireAfterAccess(Duration.ofHours(1))
+                .build();
+
+        Gauge.builder("diagram.inference.queue.depth", this, InferenceLimiter::queueDepth)
+                .description("Generations waiting for an inference permit")
+                .register(meterRegistry);
+        Gauge.builder("diagram.inference.active", this, InferenceLimiter::activeCount)
+                .description("Generations currently holding an inference permit")
+                .register(meterRegistry);
+        Gauge.builder("diagram.inference.queue.requesters", this, InferenceLimiter::waitingRequesters)
+                .description("Distinct requesters with generations waiting for a permit")
+                .register(meterRegistry);
+        log.info("Inference limiter maxConcurrent={} queueCapacity={} perRequester={} weights={}/{} maxWait={}",
+                maxConcurrent, queueCapacity, this.maxQueuedPerRequester, authenticatedWeight, anonymousWeight, maxWait);
+    }
+
+    public Permit acquire(Requester requester) {
+        long start = System.nanoTime();
+        Ticket ticket;
+
+        lock.lock();
+        try {
+            if (available > 0 && waitingCount == 0) {
+                available--;
+                return granted(requester, start);
+            }
+            if (waitingCount >= queueCapacity) {
+                throw reject(requester, "queue_full");
+            }
+
+            // Checked before the queue exists so a rejected requester never sits in the rotation without tickets
+            RequesterQueue queue = queues.get(requester.key());
+            if (queue != null && queue.tickets.size() >= maxQueuedPerRequester) {
+                throw reject(requester, "requester_limit");
+            }
+            if (queue == null) {
+                queue = new RequesterQueue(requester.key(), requester.authenticated() ? authenticatedWeight : anonymousWeight);
+                queues.put(queue.key, queue);
+                rotation.addLast(queue);
+            }
+
+            ticket = new Ticket(queue);
+            queue.tickets.addLast(ticket);
+            waitingCount++;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            ticket.granted.get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            return granted(requester, start);
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            lock.lock();
+            try {
+                if (!remove(ticket)) {
+                    // The permit was handed over while we were giving up
+                    return granted(requester, start);
+                }
+                throw reject(requester, "timeout");
+            } finally {
+                lock.unlock();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the flux while holding a permit, waiting for it on a bounded elastic thread. The permit is returned
+     * however the flux ends, including a cancellation that arrives between the grant and the first element.
+     */
+    public <T> Flux<T> withPermit(Requester requester, Supplier<Flux<T>> work) {
+        return Flux.using(() -> acquire(requester), permit -> work.get(), Permit::close)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public long retryAfterSeconds() {
+        double queued = queueDepth() + 1;
+        return Math.max(1, (long) Math.ceil(queued * averageHoldMillis / maxConcurrent / 1000));
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return waitingCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int activeCount() {
+        lock.lock();
+        try {
+            return maxConcurrent - available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int waitingRequesters() {
+        lock.lock();
+        try {
+            return rotation.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue wait percentiles per requester, worst p95 first.
+     */
+    public List<Map<String, Object>> requesterWaitPercentiles(int limit) {
+        Map<String, Integer> queued = new HashMap<>();
+        lock.lock();
+        try {
+            queues.forEach((key, queue) -> queued.put(key, queue.tickets.size()));
+        } finally {
+            lock.unlock();
+        }
+
+        return requesterWaits.asMap().entrySet().stream()
+                .map(entry -> {
+                    long[] percentiles = entry.getValue().percentiles(0.5, 0.95, 0.99);
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("requester", entry.getKey());
+                    row.put("queued", queued.getOrDefault(entry.getKey(), 0));
+                    row.put("samples", entry.getValue().count());
+                    row.put("p50Ms", percentiles[0]);
+                    row.put("p95Ms", percentiles[1]);
+                    row.put("p99Ms", percentiles[2]);
+                    return row;
+                })
+                .sorted(Comparator.comparingLong((Map<String, Object> row) -> (Long) row.get("p95Ms")).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    private Permit granted(Requester requester, long start) {
+        long waitedNanos = System.nanoTime() - start;
+        Timer.builder("diagram.inference.queue.wait")
+                .description("Time spent waiting for an inference permit")
+                .tag("requester", requester.authenticated() ? "authenticated" : "anonymous")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(waitedNanos, TimeUnit.NANOSECONDS);
+        requesterWaits.get(requester.key(), key -> new WaitWindow()).record(waitedNanos / 1_000_000);
+        return new Permit(System.nanoTime());
+    }
+
+    private InferenceRejectedException reject(Requester requester, String reason) {
+        Counter.builder("diagram.inference.rejected")
+                .description("Generations rejected by admission control")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        long retryAfter = retryAfterSeconds();
+        log.warn("Rejecting generation for {} ({}), queue depth {}, retry after {}s",
+                requester.key(), reason, waitingCount, retryAfter);
+        return new InferenceRejectedException(reason, retryAfter);
+    }
+
+    // Caller holds the lock
+    private boolean remove(Ticket ticket) {
+        RequesterQueue queue = ticket.queue;
+        if (!queue.tickets.remove(ticket)) {
+            return false;
+        }
+        waitingCount--;
+        if (queue.tickets.isEmpty()) {
+            rotation.remove(queue);
+            queues.remove(queue.key);
+        }
+        return true;
+    }
+
+    // Caller holds the lock; weighted round-robin: each requester gets up to `weight` grants per turn
+    private Ticket nextTicket() {
+        RequesterQueue queue = rotation.peekFirst();
+        if (queue == null) {
+            return null;
+        }
+
+        Ticket ticket = queue.tickets.pollFirst();
+        waitingCount--;
+        queue.servedThisTurn++;
+        if (queue.tickets.isEmpty()) {
+            rotation.pollFirst();
+            queues.remove(queue.key);
+        } else if (queue.servedThisTurn >= queue.weight) {
+            queue.servedThisTurn = 0;
+            rotation.addLast(rotation.pollFirst());
+        }
+        return ticket;
+    }
+
+    private void release(long heldNanos) {
+        averageHoldMillis = averageHoldMillis * 0.8 + (heldNanos / 1_000_000.0) * 0.2;
+
+        lock.lock();
+        try {
+            Ticket next = nextTicket();
+            if (next != null) {
+                next.granted.complete(null); // Hand the permit straight to the chosen waiter
+            } else {
+                available++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public class Permit implements AutoCloseable {
+
+        private final long acquiredAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long acquiredAt) {
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(System.nanoTime() - acquiredAt);
+            }
+        }
+    }
+
+    private static class RequesterQueue {
+
+        private final String key;
+        private final int weight;
+        private final Deque<Ticket> tickets = new ArrayDeque<>();
+        private int servedThisTurn;
+
+        private RequesterQueue(String key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    private static class Ticket {
+
+        private final RequesterQueue queue;
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+
+        private Ticket(RequesterQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    // Sliding window of the most recent queue waits for one requester
+    private static class WaitWindow {
+
+        private final long[] samples = new long[256];
+        private long recorded;
+
+        synchronized void record(long waitMillis) {
+            samples[(int) (recorded++ % samples.length)] = waitMillis;
+        }
+
+        synchronized long count() {
+            return recorded;
+        }
+
+        synchronized long[] percentiles(double... quantiles) {
+            int size = (int) Math.min(recorded, samples.length);
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            long[] result = new long[quantiles.length];
+            for (int i = 0; i < quantiles.length && size > 0; i++) {
+                result[i] = sorted[Math.min(size - 1, (int) Math.ceil(quantiles[i] * size) - 1)];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/inferencequeue}: current queue state plus per-requester wait percentiles,
+ * which are too high-cardinality to export as tagged meters. Requester identities are masked.
+ */
+@Component
+@Endpoint(id = "inferencequeue")
+@RequiredArgsConstructor
+public class InferenceQueueEndpoint {
+
+    private final InferenceLimiter inferenceLimiter;
+
+    @ReadOperation
+    public Map<String, Object> queue() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("active", inferenceLimiter.activeCount());
+        result.put("queueDepth", inferenceLimiter.queueDepth());
+        result.put("waitingRequesters", inferenceLimiter.waitingRequesters());
+        result.put("retryAfterSeconds", inferenceLimiter.retryAfterSeconds());
+        result.put("requesters", inferenceLimiter.requesterWaitPercentiles(50).stream()
+                .peek(row -> row.put("requester", mask((String) row.get("requester"))))
+                .toList());
+        return result;
+    }
+
+    // Only the management credential reads this, but its output ends up in dashboards and shared diagnostics,
+    // so never echo full emails or addresses
+    private String mask(String requesterKey) {
+        int at = requesterKey.indexOf('@');
+        if (at >= 0) {
+            int keep = Math.min(requesterKey.indexOf(':') + 3, at);
+            return requesterKey.substring(0, keep) + "***" + requesterKey.substring(at);
+        }
+        int lastSeparator = Math.max(requesterKey.lastIndexOf('.'), requesterKey.lastIndexOf(':'));
+        return requesterKey.substring(0, lastSeparator + 1) + "***";
+    }
+}
@@ -0,0 +1,26 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import lombok.Getter;
+
+/**
+ * Thrown when the inference limiter cannot admit a generation; carries a Retry-After hint.
+ */
+@Getter
+public class InferenceRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String reason;
+    private final long retryAfterSeconds;
+
+    public InferenceRejectedException(String reason, long retryAfterSeconds) {
+        super("Diagram generation is overloaded (" + reason + "), retry in " + retryAfterSeconds + "s");
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    // The caller exceeded its own share of the queue rather than the server being full
+    public boolean isPerRequester() {
+        return "requester_limit".equals(reason);
+    }
+}
@@ -0,0 +1,29 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+/**
+ * A problem found by {@link MermaidParser} on a 1-based line of the cleaned diagram.
+ */
+public record MermaidIssue(int line, Kind kind, String detail) {
+
+    public enum Kind {
+        HEADER,
+        PROSE,
+        UNBALANCED_BRACKETS,
+        BAD_ARROW,
+        UNQUOTED_LABEL,
+        MISSING_LABEL,
+        MISPLACED_LABEL,
+        INVALID_VALUE,
+        SYNTAX
+    }
+
+    // Everything except a plain syntax error has a local fix
+    public boolean isRepairable() {
+        return kind != Kind.SYNTAX;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + line + ": " + kind + " (" + detail + ")";
+    }
+}
@@ -0,0 +1,83 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental counterpart of {@link MermaidSanitizer#clean}: fed raw model chunks as they
+ * stream in, it emits each cleaned Mermaid line as soon as the line is complete. Lines are
+ * provisional; the batch cleaner still runs over the full response once the stream ends.
+ * Not thread-safe, one instance per generation.
+ */
+public class MermaidLineCleaner {
+
+    private final StringBuilder pending = new StringBuilder();
+    private boolean foundStart;
+    private boolean stopped;
+    private String diagramType;
+
+    public List<String> accept(String chunk) {
+        List<String> lines = new ArrayList<>();
+        if (chunk == null || stopped) {
+            return lines;
+        }
+
+        pending.append(chunk);
+        int newline;
+        while (!stopped && (newline = pending.indexOf("\n")) >= 0) {
+            String line = pending.substring(0, newline);
+            pending.delete(0, newline + 1);
+            String cleaned = cleanLine(line);
+            if (cleaned != null) {
+                lines.add(cleaned);
+            }
+        }
+        return lines;
+    }
+
+    public List<String> finish() {
+        List<String> lines = new ArrayList<>();
+        if (!stopped && !pending.isEmpty()) {
+            String cleaned = cleanLine(pending.toString());
+            if (cleaned != null) {
+                lines.add(cleaned);
+            }
+        }
+        pending.setLength(0);
+        return lines;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public String getDiagramType() {
+        return diagramType;
+    }
+
+    private String cleanLine(String rawLine) {
+        // Remove markdown code fences
+        String line = rawLine.replace("```mermaid", "").replace("```", "").stripTrailing();
+        String trimmedLine = line.trim();
+
+        if (trimmedLine.isEmpty()) {
+            return null;
+        }
+
+        if (!foundStart) {
+            if (!MermaidSyntax.isValidDiagramStart(trimmedLine)) {
+                return null; // Skip chatter before the diagram
+            }
+            foundStart = true;
+            diagramType = MermaidSyntax.extractDiagramType(trimmedLine);
+            return trimmedLine;
+        }
+
+        // Don't allow mixing diagram types
+        if (MermaidSyntax.isValidDiagramStart(trimmedLine) && !trimmedLine.startsWith(diagramType)) {
+            stopped = true;
+            return null;
+        }
+        return line;
+    }
+}
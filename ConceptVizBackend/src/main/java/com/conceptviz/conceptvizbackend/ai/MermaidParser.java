@@ -0,0 +1,695 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import com.conceptviz.conceptvizbackend.ai.MermaidIssue.Kind;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Line-oriented structural parser for the diagram types the generation prompt asks for. Every
+ * statement is checked against the grammar of its diagram type, block openers are matched with
+ * their closers, and each problem is reported with its line number.
+ * <p>
+ * The same pass writes a repaired copy: common model mistakes (unbalanced brackets and blocks,
+ * prose between statements, wrong arrows, labels that need quoting, missing or misplaced labels)
+ * are fixed in place and untouched lines are copied unchanged, so a clean diagram repairs to itself.
+ */
+public final class MermaidParser {
+
+    public record Result(List<MermaidIssue> issues, String repaired) {
+
+        public boolean isClean() {
+            return issues.isEmpty();
+        }
+
+        public boolean isRepairable() {
+            return issues.stream().allMatch(MermaidIssue::isRepairable);
+        }
+    }
+
+    // Flowchart links: plain, dotted, thick, invisible, with optional |label|, or with inline text
+    private static final Pattern FLOW_LINK = Pattern.compile(
+            "[<ox]?(?:-{2,}|={2,}|-\\.+-|~{3,})[>ox]?(?:\\s*\\|[^|]*\\|)?");
+    private static final Pattern FLOW_TEXT_LINK = Pattern.compile(
+            "(?:--|==|-\\.)\\s+[^-=.>|\\s][^>|]*?\\s+(?:-{2,}>|={2,}>|\\.-+>|-{3,}|={3,}|\\.-+)");
+    private static final Pattern FLOW_DOUBLE_HEAD = Pattern.compile("-{1,2}>>");
+    private static final Pattern FLOW_BAD_ARROW = Pattern.compile("->|=>|[\u2192\u21D2\u27F6]");
+
+    // Node shapes, longest opener first; a shape may accept more than one closer
+    private static final String[][] FLOW_SHAPES = {
+            {"(((", ")))"}, {"((", "))"}, {"([", "])"}, {"[[", "]]"}, {"[(", ")]"}, {"{{", "}}"},
+            {"[/", "/]", "\\]"}, {"[\\", "\\]", "/]"}, {"[", "]"}, {"(", ")"}, {"{", "}"}, {">", "]"}
+    };
+
+    private static final Set<String> FLOW_KEYWORDS = Set.of(
+            "direction", "classDef", "class", "style", "linkStyle", "click", "accTitle", "accDescr", "title");
+
+    private static final String SEQ_ARROW = "(<<)?(-{1,2}(?:>>|>|x|\\)))\\s*([+-]?)";
+    private static final Pattern SEQ_MESSAGE = Pattern.compile(
+            "^([^\\s:;,]+?)\\s*" + SEQ_ARROW + "\\s*([^\\s:;,]+)\\s*:(.*)$");
+    private static final Pattern SEQ_MESSAGE_WITHOUT_COLON = Pattern.compile(
+            "^([^\\s:;,]+?)\\s*" + SEQ_ARROW + "\\s*([^\\s:;,]+)\\s+(\\S.*)$");
+    private static final Pattern SEQ_BAD_ARROW = Pattern.compile(
+            "^([^\\s:;,=]+?)\\s*(=>>?|==>|-{1,2}>>>|[\u2192\u21D2\u27F6])\\s*([^\\s:;,]+)\\s*(:.*)?$");
+    private static final Pattern SEQ_NOTE = Pattern.compile(
+            "^[Nn]ote\\s+(?:left of|right of|over)\\s+[^:]+:.*$");
+    private static final Pattern SEQ_NOTE_WITHOUT_COLON = Pattern.compile(
+            "^([Nn]ote\\s+(?:left of|right of|over)\\s+[^\\s,:]+(?:\\s*,\\s*[^\\s,:]+)?)\\s+([^:]+)$");
+    private static final Set<String> SEQ_KEYWORDS = Set.of(
+            "participant", "actor", "autonumber", "activate", "deactivate", "title", "create", "destroy",
+            "link", "links", "properties", "details", "accTitle", "accDescr", "else", "and", "option");
+    private static final Set<String> SEQ_BLOCKS = Set.of(
+            "loop", "alt", "opt", "par", "critical", "break", "rect", "box");
+
+    private static final Pattern CLASS_RELATION = Pattern.compile(
+            "^(\\S+?)\\s*(?:\"[^\"]*\"\\s*)?((?:<\\||[<*o])?(?:--|\\.\\.)(?:\\|>|[>*o])?)\\s*(?:\"[^\"]*\"\\s*)?([^\\s:\"]+)(?:\\s*:.*)?$");
+    private static final Pattern CLASS_BAD_ARROW = Pattern.compile(
+            "^(\\S+?)\\s*(->|=>|\u2192|<\\|-|-\\|>)\\s*([^\\s:\"]+)(\\s*:.*)?$");
+    private static final Pattern CLASS_MEMBER = Pattern.compile("^[^\\s:]+\\s*:\\s*\\S.*$");
+    private static final Pattern CLASS_ANNOTATION = Pattern.compile("^<<[^>]+>>(?:\\s+\\S+)?$");
+    private static final Set<String> CLASS_KEYWORDS = Set.of(
+            "direction", "classDef", "cssClass", "style", "callback", "click", "link", "note", "title",
+            "accTitle", "accDescr");
+
+    private static final String STATE_ID = "(\\[\\*\\]|[\\w.-]+?)";
+    private static final Pattern STATE_TRANSITION = Pattern.compile(
+            "^" + STATE_ID + "\\s*-->\\s*(\\[\\*\\]|[\\w.-]+)(?:\\s*:.*)?$");
+    private static final Pattern STATE_BAD_ARROW = Pattern.compile(
+            "^" + STATE_ID + "\\s*(->|=>|==>|-{3,}>|[\u2192\u21D2\u27F6])\\s*(\\[\\*\\]|[\\w.-]+)(\\s*:.*)?$");
+    private static final Pattern STATE_DECLARATION = Pattern.compile("^[\\w.-]+(?:\\s*:\\s*\\S.*|:::\\S+)?$");
+    private static final Pattern STATE_NOTE = Pattern.compile("^note\\s+(?:left|right)\\s+of\\s+\\S+(\\s*:.*)?$");
+    private static final Set<String> STATE_KEYWORDS = Set.of(
+            "direction", "classDef", "class", "accTitle", "accDescr", "title", "--");
+
+    private static final String ER_ENTITY = "([A-Za-z_][\\w-]*|\"[^\"]+\")";
+    private static final String ER_CARDINALITIES = "(\\|o|\\|\\||\\}o|\\}\\|)(--|\\.\\.)(o\\||\\|\\||o\\{|\\|\\{)";
+    private static final Pattern ER_RELATION = Pattern.compile(
+            "^" + ER_ENTITY + "\\s*" + ER_CARDINALITIES + "\\s*" + ER_ENTITY + "\\s*:\\s*\\S.*$");
+    private static final Pattern ER_RELATION_WITHOUT_LABEL = Pattern.compile(
+            "^(" + ER_ENTITY + "\\s*" + ER_CARDINALITIES + "\\s*" + ER_ENTITY + ")\\s*:?\\s*$");
+    private static final Pattern ER_ENTITY_BLOCK = Pattern.compile("^" + ER_ENTITY + "(?:\\s*\\[[^\\]]*\\])?\\s*\\{$");
+    private static final Pattern ER_ENTITY_ALONE = Pattern.compile("^" + ER_ENTITY + "$");
+    private static final Pattern ER_ATTRIBUTE = Pattern.compile(
+            "^[\\w\\[\\]()<>,.-]+\\s+[\\w*-]+(?:\\s+(?:PK|FK|UK)(?:\\s*,\\s*(?:PK|FK|UK))*)?(?:\\s+\"[^\"]*\")?$");
+    private static final Set<String> ER_KEYWORDS = Set.of("title", "direction", "accTitle", "accDescr");
+
+    private static final Pattern JOURNEY_TASK = Pattern.compile("^([^:]+?)\\s*:\\s*(-?\\d+)\\s*(?::.*)?$");
+    private static final Set<String> JOURNEY_KEYWORDS = Set.of("title", "section", "accTitle", "accDescr");
+
+    private static final Pattern GANTT_TASK = Pattern.compile("^[^:]+:\\s*\\S.*$");
+    private static final Set<String> GANTT_KEYWORDS = Set.of(
+            "title", "dateFormat", "axisFormat", "tickInterval", "excludes", "includes", "todayMarker",
+            "weekday", "section", "inclusiveEndDates", "topAxis", "displayMode", "click", "accTitle", "accDescr");
+
+    private static final String[] DECLARATIONS = {
+            "flowchart", "graph", "sequenceDiagram", "classDiagram", "stateDiagram-v2", "erDiagram", "journey",
+            "gantt", "gitGraph"
+    };
+
+    private static final Set<String> GIT_COMMANDS = Set.of("commit", "branch", "checkout", "switch", "merge", "cherry-pick");
+
+    private MermaidParser() {
+    }
+
+    public static Result parse(String code) {
+        return new Parse(code).run();
+    }
+
+    private record Block(String closer, String kind, String indent, int line) {
+    }
+
+    private static final class Parse {
+
+        private final String[] lines;
+        private final List<MermaidIssue> issues = new ArrayList<>();
+        private final List<String> output;
+        private final Deque<Block> blocks = new ArrayDeque<>();
+        private String type;
+        private int lineNumber;
+        private String indent;
+
+        private Parse(String code) {
+            this.lines = code.split("\n", -1);
+            this.output = new ArrayList<>(lines.length + 4);
+        }
+
+        private Result run() {
+            String header = lines[0].trim();
+            if (!MermaidSyntax.isValidDiagramStart(header)) {
+                issues.add(new MermaidIssue(1, Kind.SYNTAX, "missing diagram declaration"));
+                return new Result(issues, String.join("\n", lines));
+            }
+            type = MermaidSyntax.extractDiagramType(header);
+            String keyword = declarationKeyword(header);
+            if (isDeclaration(header)) {
+                output.add(lines[0]);
+            } else {
+                // Prose that merely starts with a keyword, e.g. "graphs are useful"
+                issues.add(new MermaidIssue(1, Kind.HEADER, "'" + header + "' is not a diagram declaration"));
+                output.add(type.equals("graph") ? keyword + " TD" : keyword);
+            }
+
+            for (int i = 1; i < lines.length; i++) {
+                lineNumber = i + 1;
+                String raw = lines[i];
+                String statement = raw.trim();
+                if (statement.isEmpty() || statement.startsWith("%%")) {
+                    output.add(raw);
+                    continue;
+                }
+                indent = raw.substring(0, raw.indexOf(statement));
+                String repaired = statement(statement);
+                if (repaired == null) {
+                    continue;
+                }
+                output.add(repaired.equals(statement) ? raw : indent + repaired);
+            }
+
+            while (!blocks.isEmpty()) {
+                Block block = blocks.pop();
+                issues.add(new MermaidIssue(block.line(), Kind.UNBALANCED_BRACKETS, "unclosed " + block.kind()));
+                output.add(block.indent() + block.closer());
+            }
+            return new Result(issues, String.join("\n", output));
+        }
+
+        // Returns the (possibly repaired) statement, or null to drop the line
+        private String statement(String statement) {
+            if (isDeclaration(statement)) {
+                issue(Kind.HEADER, "repeated diagram declaration");
+                return null;
+            }
+            return switch (type) {
+                case "sequenceDiagram" -> sequence(statement);
+                case "classDiagram" -> classes(statement);
+                case "stateDiagram" -> state(statement);
+                case "erDiagram" -> entities(statement);
+                case "journey" -> journey(statement);
+                case "gantt" -> gantt(statement);
+                case "gitGraph" -> GIT_COMMANDS.contains(firstWord(statement)) ? statement
+                        : unknown(statement, "unknown gitGraph command");
+                default -> flowchart(statement);
+            };
+        }
+
+        private String flowchart(String line) {
+            String keyword = firstWord(line);
+            if (keyword.equals("subgraph")) {
+                open("end", "subgraph");
+                return line;
+            }
+            if (keyword.equals("end")) {
+                return close("end") ? line : null;
+            }
+            if (FLOW_KEYWORDS.contains(keyword)) {
+                return line;
+            }
+
+            // Statements may be chained with ';' outside labels
+            StringBuilder out = new StringBuilder(line.length() + 8);
+            int segmentStart = 0;
+            int depth = 0;
+            boolean quoted = false;
+            for (int i = 0; i <= line.length(); i++) {
+                char c = i < line.length() ? line.charAt(i) : ';';
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && "([{".indexOf(c) >= 0) {
+                    depth++;
+                } else if (!quoted && ")]}".indexOf(c) >= 0 && depth > 0) {
+                    depth--;
+                }
+                if (i < line.length() && (c != ';' || quoted || depth > 0)) {
+                    continue;
+                }
+
+                String segment = line.substring(segmentStart, i);
+                String trimmed = segment.trim();
+                if (!trimmed.isEmpty()) {
+                    int mark = issues.size();
+                    String parsed = flowchartStatement(trimmed);
+                    if (parsed == null) {
+                        issues.subList(mark, issues.size()).clear();
+                        return unknown(line, "not a flowchart statement");
+                    }
+                    int lead = segment.indexOf(trimmed);
+                    out.append(segment, 0, lead).append(parsed).append(segment, lead + trimmed.length(), segment.length());
+                } else {
+                    out.append(segment);
+                }
+                if (i < line.length()) {
+                    out.append(';');
+                }
+                segmentStart = i + 1;
+            }
+            return out.toString();
+        }
+
+        // node (link node | & node)*, returns null if the statement does not parse
+        private String flowchartStatement(String s) {
+            StringBuilder out = new StringBuilder(s.length() + 8);
+            int n = s.length();
+            int i = 0;
+            boolean expectNode = true;
+            int links = 0;
+            int lastLinkEnd = -1;
+            boolean lastLinkLabelled = false;
+
+            while (true) {
+                int whitespace = i;
+                while (i < n && Character.isWhitespace(s.charAt(i))) {
+                    i++;
+                }
+                if (i >= n) {
+                    break;
+                }
+                out.append(s, whitespace, i);
+
+                if (expectNode) {
+                    int idEnd = idEnd(s, i);
+                    if (idEnd == i) {
+                        return null;
+                    }
+                    out.append(s, i, idEnd);
+                    i = shape(s, idEnd, out);
+                    if (s.startsWith(":::", i)) {
+                        int classEnd = i + 3;
+                        while (classEnd < n && (isIdChar(s.charAt(classEnd)) || s.charAt(classEnd) == '-')) {
+                            classEnd++;
+                        }
+                        out.append(s, i, classEnd);
+                        i = classEnd;
+                    }
+                    expectNode = false;
+                    continue;
+                }
+
+                char c = s.charAt(i);
+                Matcher m;
+                if (c == '&') {
+                    out.append('&');
+                    i++;
+                    expectNode = true;
+                    continue;
+                } else if ((m = lookingAt(FLOW_DOUBLE_HEAD, s, i)) != null) {
+                    issue(Kind.BAD_ARROW, "'" + m.group() + "' is a sequence arrow");
+                    out.append("-->");
+                    lastLinkLabelled = false;
+                } else if ((m = lookingAt(FLOW_TEXT_LINK, s, i)) != null) {
+                    out.append(m.group());
+                    lastLinkLabelled = true;
+                } else if ((m = lookingAt(FLOW_LINK, s, i)) != null) {
+                    out.append(m.group());
+                    lastLinkLabelled = m.group().indexOf('|') >= 0;
+                } else if ((m = lookingAt(FLOW_BAD_ARROW, s, i)) != null) {
+                    issue(Kind.BAD_ARROW, "'" + m.group() + "' is not a flowchart link");
+                    out.append(m.group().equals("=>") ? "==>" : "-->");
+                    lastLinkLabelled = false;
+                } else if (c == ':' && links == 1 && !lastLinkLabelled && !s.substring(i + 1).isBlank()) {
+                    // "A --> B: label" written like a state transition
+                    issue(Kind.MISPLACED_LABEL, "link label after the target node");
+                    out.setLength(trimEnd(out));
+                    out.insert(lastLinkEnd, "|" + pipeLabel(s.substring(i + 1).trim()) + "|");
+                    break;
+                } else if (")]}".indexOf(c) >= 0) {
+                    issue(Kind.UNBALANCED_BRACKETS, "stray '" + c + "'");
+                    out.setLength(trimEnd(out));
+                    i++;
+                    continue;
+                } else {
+                    return null;
+                }
+                i = m.end();
+                links++;
+                lastLinkEnd = out.length();
+                expectNode = true;
+            }
+
+            if (expectNode && links > 0) {
+                return null;
+            }
+            return out.toString();
+        }
+
+        // Copies the node shape starting at i into out, closing and quoting its label if needed
+        private int shape(String s, int i, StringBuilder out) {
+            for (String[] shape : FLOW_SHAPES) {
+                String opener = shape[0];
+                if (!s.startsWith(opener, i)) {
+                    continue;
+                }
+
+                int contentStart = i + opener.length();
+                int contentEnd = -1;
+                String closer = shape[1];
+                int depth = 0;
+                boolean quoted = false;
+                for (int j = contentStart; j < s.length() && contentEnd < 0; j++) {
+                    char c = s.charAt(j);
+                    if (c == '"') {
+                        quoted = !quoted;
+                        continue;
+                    }
+                    if (quoted) {
+                        continue;
+                    }
+                    if (depth == 0) {
+                        for (int k = 1; k < shape.length; k++) {
+                            if (s.startsWith(shape[k], j)) {
+                                contentEnd = j;
+                                closer = shape[k];
+                                break;
+                            }
+                        }
+                        if (contentEnd >= 0) {
+                            break;
+                        }
+                    }
+                    if ("([{".indexOf(c) >= 0) {
+                        depth++;
+                    } else if (")]}".indexOf(c) >= 0 && depth > 0) {
+                        depth--;
+                    }
+                }
+
+                int next;
+                if (contentEnd >= 0) {
+                    next = contentEnd + closer.length();
+                } else {
+                    issue(Kind.UNBALANCED_BRACKETS, "unclosed '" + opener + "'");
+                    contentEnd = linkBoundary(s, contentStart);
+                    while (contentEnd > contentStart && Character.isWhitespace(s.charAt(contentEnd - 1))) {
+                        contentEnd--;
+                    }
+                    next = contentEnd;
+                }
+                out.append(opener).append(label(s.substring(contentStart, contentEnd))).append(closer);
+                return next;
+            }
+            return i;
+        }
+
+        private String label(String content) {
+            String trimmed = content.trim();
+            if (trimmed.length() >= 2 && trimmed.charAt(0) == '"' && trimmed.indexOf('"', 1) == trimmed.length() - 1) {
+                return content;
+            }
+            for (int i = 0; i < content.length(); i++) {
+                if ("()[]{}\";|".indexOf(content.charAt(i)) >= 0) {
+                    issue(Kind.UNQUOTED_LABEL, "label '" + trimmed + "' needs quotes");
+                    return "\"" + content.replace("\"", "#quot;") + "\"";
+                }
+            }
+            return content;
+        }
+
+        private String pipeLabel(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if ("()[]{}\";|".indexOf(text.charAt(i)) >= 0) {
+                    return "\"" + text.replace("\"", "#quot;").replace('|', '/') + "\"";
+                }
+            }
+            return text;
+        }
+
+        private String sequence(String line) {
+            String keyword = firstWord(line);
+            if (SEQ_BLOCKS.contains(keyword)) {
+                open("end", keyword);
+                return line;
+            }
+            if (keyword.equals("end")) {
+                return close("end") ? line : null;
+            }
+            if (SEQ_KEYWORDS.contains(keyword) || SEQ_NOTE.matcher(line).matches()
+                    || SEQ_MESSAGE.matcher(line).matches()) {
+                return line;
+            }
+
+            Matcher m = SEQ_MESSAGE_WITHOUT_COLON.matcher(line);
+            if (m.matches()) {
+                issue(Kind.MISSING_LABEL, "message text needs a ':'");
+                return line.substring(0, m.end(5)) + ": " + m.group(6);
+            }
+            m = SEQ_BAD_ARROW.matcher(line);
+            if (m.matches()) {
+                issue(Kind.BAD_ARROW, "'" + m.group(2) + "' is not a sequence arrow");
+                return m.group(1) + "->>" + m.group(3) + (m.group(4) != null ? m.group(4) : "");
+            }
+            m = SEQ_NOTE_WITHOUT_COLON.matcher(line);
+            if (m.matches()) {
+                issue(Kind.MISSING_LABEL, "note text needs a ':'");
+                return m.group(1) + ": " + m.group(2);
+            }
+            return unknown(line, "not a sequence statement");
+        }
+
+        private String classes(String line) {
+            Block current = blocks.peek();
+            if (current != null && current.kind().equals("class")) {
+                if (line.equals("}")) {
+                    close("}");
+                    return line;
+                }
+                if (!firstWord(line).equals("class") && !CLASS_RELATION.matcher(line).matches()) {
+                    return line; // member
+                }
+                issue(Kind.UNBALANCED_BRACKETS, "class body not closed before the next statement");
+                blocks.pop();
+                output.add(current.indent() + "}");
+            }
+
+            String keyword = firstWord(line);
+            if (keyword.equals("class")) {
+                if (line.endsWith("{")) {
+                    open("}", "class");
+                }
+                return line;
+            }
+            if (keyword.equals("namespace") && line.endsWith("{")) {
+                open("}", "namespace");
+                return line;
+            }
+            if (line.equals("}")) {
+                return close("}") ? line : null;
+            }
+            if (CLASS_KEYWORDS.contains(keyword) || CLASS_ANNOTATION.matcher(line).matches()
+                    || CLASS_RELATION.matcher(line).matches() || CLASS_MEMBER.matcher(line).matches()) {
+                return line;
+            }
+
+            Matcher m = CLASS_BAD_ARROW.matcher(line);
+            if (m.matches()) {
+                String arrow = switch (m.group(2)) {
+                    case "<|-" -> "<|--";
+                    case "-|>" -> "--|>";
+                    default -> "-->";
+                };
+                issue(Kind.BAD_ARROW, "'" + m.group(2) + "' is not a class relation");
+                return m.group(1) + " " + arrow + " " + m.group(3) + (m.group(4) != null ? m.group(4) : "");
+            }
+            return unknown(line, "not a class diagram statement");
+        }
+
+        private String state(String line) {
+            Block current = blocks.peek();
+            if (current != null && current.kind().equals("note")) {
+                if (line.equals("end note")) {
+                    close("end note");
+                }
+                return line;
+            }
+
+            String keyword = firstWord(line);
+            if (keyword.equals("state")) {
+                if (line.endsWith("{")) {
+                    open("}", "state");
+                }
+                return line;
+            }
+            if (line.equals("}")) {
+                return close("}") ? line : null;
+            }
+            Matcher note = STATE_NOTE.matcher(line);
+            if (note.matches()) {
+                if (note.group(1) == null) {
+                    open("end note", "note");
+                }
+                return line;
+            }
+            if (STATE_KEYWORDS.contains(keyword) || STATE_TRANSITION.matcher(line).matches()
+                    || STATE_DECLARATION.matcher(line).matches()) {
+                return line;
+            }
+
+            Matcher m = STATE_BAD_ARROW.matcher(line);
+            if (m.matches()) {
+                issue(Kind.BAD_ARROW, "'" + m.group(2) + "' is not a state transition");
+                return m.group(1) + " --> " + m.group(3) + (m.group(4) != null ? m.group(4) : "");
+            }
+            return unknown(line, "not a state diagram statement");
+        }
+
+        private String entities(String line) {
+            Block current = blocks.peek();
+            if (current != null) {
+                if (line.equals("}")) {
+                    close("}");
+                    return line;
+                }
+                if (!ER_RELATION.matcher(line).matches() && !ER_ENTITY_BLOCK.matcher(line).matches()) {
+                    return ER_ATTRIBUTE.matcher(line).matches() ? line : unknown(line, "not an entity attribute");
+                }
+                issue(Kind.UNBALANCED_BRACKETS, "entity body not closed before the next statement");
+                blocks.pop();
+                output.add(current.indent() + "}");
+            }
+
+            if (ER_ENTITY_BLOCK.matcher(line).matches()) {
+                open("}", "entity");
+                return line;
+            }
+            if (line.equals("}")) {
+                return close("}") ? line : null;
+            }
+            if (ER_KEYWORDS.contains(firstWord(line)) || ER_RELATION.matcher(line).matches()
+                    || ER_ENTITY_ALONE.matcher(line).matches()) {
+                return line;
+            }
+
+            Matcher m = ER_RELATION_WITHOUT_LABEL.matcher(line);
+            if (m.matches()) {
+                issue(Kind.MISSING_LABEL, "relationship needs a label");
+                return m.group(1) + " : \"\"";
+            }
+            return unknown(line, "not an entity relationship statement");
+        }
+
+        private String journey(String line) {
+            if (JOURNEY_KEYWORDS.contains(firstWord(line))) {
+                return line;
+            }
+            Matcher m = JOURNEY_TASK.matcher(line);
+            if (!m.matches()) {
+                return unknown(line, "not a journey task");
+            }
+            int score = Integer.parseInt(m.group(2));
+            if (score >= 1 && score <= 5) {
+                return line;
+            }
+            issue(Kind.INVALID_VALUE, "task score " + score + " outside 1-5");
+            return line.substring(0, m.start(2)) + Math.max(1, Math.min(5, score)) + line.substring(m.end(2));
+        }
+
+        private String gantt(String line) {
+            if (GANTT_KEYWORDS.contains(firstWord(line)) || GANTT_TASK.matcher(line).matches()) {
+                return line;
+            }
+            return unknown(line, "not a gantt task");
+        }
+
+        private String unknown(String line, String detail) {
+            if (MermaidSyntax.looksLikeProse(line)) {
+                issue(Kind.PROSE, "prose between statements");
+                return null;
+            }
+            issue(Kind.SYNTAX, detail);
+            return line;
+        }
+
+        private void open(String closer, String kind) {
+            blocks.push(new Block(closer, kind, indent, lineNumber));
+        }
+
+        private boolean close(String closer) {
+            Block current = blocks.peek();
+            if (current != null && current.closer().equals(closer)) {
+                blocks.pop();
+                return true;
+            }
+            issue(Kind.UNBALANCED_BRACKETS, "stray '" + closer + "'");
+            return false;
+        }
+
+        private void issue(Kind kind, String detail) {
+            issues.add(new MermaidIssue(lineNumber, kind, detail));
+        }
+    }
+
+    private static String declarationKeyword(String line) {
+        for (String keyword : DECLARATIONS) {
+            if (line.startsWith(keyword)) {
+                return keyword;
+            }
+        }
+        return null;
+    }
+
+    // A declaration keyword that is not just the start of a longer word
+    private static boolean isDeclaration(String line) {
+        String keyword = declarationKeyword(line);
+        return keyword != null && (line.length() == keyword.length() || !isIdChar(line.charAt(keyword.length())));
+    }
+
+    private static String firstWord(String line) {
+        int end = 0;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end)) && line.charAt(end) != ':') {
+            end++;
+        }
+        return line.substring(0, end);
+    }
+
+    private static boolean isIdChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    // Node ids may contain single '-' or '.' between id characters, never the start of a link
+    private static int idEnd(String s, int i) {
+        int j = i;
+        while (j < s.length()) {
+            char c = s.charAt(j);
+            if (isIdChar(c)) {
+                j++;
+            } else if ((c == '-' || c == '.') && j > i && j + 1 < s.length() && isIdChar(s.charAt(j + 1))) {
+                j++;
+            } else {
+                break;
+            }
+        }
+        return j;
+    }
+
+    // Where an unclosed label most likely ends: at the next link outside quotes, or the end of the statement
+    private static int linkBoundary(String s, int from) {
+        boolean quoted = false;
+        for (int j = from; j < s.length(); j++) {
+            char c = s.charAt(j);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && "-=~<\u2192\u21D2\u27F6".indexOf(c) >= 0
+                    && (lookingAt(FLOW_LINK, s, j) != null || lookingAt(FLOW_BAD_ARROW, s, j) != null)) {
+                return j;
+            }
+        }
+        return s.length();
+    }
+
+    private static Matcher lookingAt(Pattern pattern, String s, int from) {
+        Matcher m = pattern.matcher(s);
+        m.region(from, s.length());
+        return m.lookingAt() ? m : null;
+    }
+
+    private static int trimEnd(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && Character.isWhitespace(out.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,98 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last step before a generated diagram is cached or returned: parses the cleaned output and
+ * repairs it locally when possible instead of discarding the whole generation.
+ * <ul>
+ *     <li>{@code CLEAN}: parsed without issues and passed validation.</li>
+ *     <li>{@code REPAIRED}: every issue had a local fix and the repaired code parses clean.</li>
+ *     <li>{@code UNRESOLVED}: issues remain but the code passes the basic validation, so it is
+ *     served as before.</li>
+ *     <li>{@code FALLBACK}: unusable; the caller falls back to the canned diagram.</li>
+ * </ul>
+ * Outcomes are counted in {@code diagram.generate.outcome}, so repaired / (repaired + fallback)
+ * is the share of re-generations avoided.
+ */
+@Slf4j
+@Component
+public class MermaidRepairer {
+
+    public enum Outcome {
+        CLEAN,
+        REPAIRED,
+        UNRESOLVED,
+        FALLBACK
+    }
+
+    public record Result(Outcome outcome, String code, List<MermaidIssue> issues) {
+
+        public boolean isUsable() {
+            return outcome != Outcome.FALLBACK;
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Timer repairTimer;
+
+    public MermaidRepairer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.repairTimer = Timer.builder("diagram.repair.duration")
+                .description("Time spent parsing and repairing generated Mermaid")
+                .register(meterRegistry);
+    }
+
+    public Result review(String cleanedCode) {
+        long start = System.nanoTime();
+        Result result = evaluate(cleanedCode);
+        repairTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        Counter.builder("diagram.generate.outcome")
+                .description("Generated diagrams by outcome: clean, repaired locally, unresolved or fallback")
+                .tag("outcome", result.outcome().name().toLowerCase())
+                .tag("diagram_type", MermaidSyntax.detectDiagramType(cleanedCode))
+                .register(meterRegistry)
+                .increment();
+        for (MermaidIssue issue : result.issues()) {
+            Counter.builder("diagram.repair.issues")
+                    .description("Problems found in generated Mermaid by kind")
+                    .tag("kind", issue.kind().name().toLowerCase())
+                    .register(meterRegistry)
+                    .increment();
+        }
+        if (!result.issues().isEmpty()) {
+            log.info("Mermaid review {}: {}", result.outcome(), result.issues());
+        }
+        return result;
+    }
+
+    private Result evaluate(String code) {
+        if (code == null || code.isEmpty()) {
+            return new Result(Outcome.FALLBACK, null, List.of());
+        }
+
+        boolean valid = MermaidSanitizer.isValid(code);
+        MermaidParser.Result parsed = MermaidParser.parse(code);
+        if (parsed.isClean()) {
+            return valid ? new Result(Outcome.CLEAN, code, List.of()) : new Result(Outcome.FALLBACK, null, List.of());
+        }
+
+        if (parsed.isRepairable()) {
+            String repaired = parsed.repaired();
+            if (MermaidSanitizer.isValid(repaired) && MermaidParser.parse(repaired).isClean()) {
+                return new Result(Outcome.REPAIRED, repaired, parsed.issues());
+            }
+        }
+        return valid
+                ? new Result(Outcome.UNRESOLVED, code, parsed.issues())
+                : new Result(Outcome.FALLBACK, null, parsed.issues());
+    }
+}
@@ -0,0 +1,166 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+/**
+ * Single-pass cleaner and validator for raw model output. Produces exactly what the original
+ * {@code replaceAll("```mermaid\\s*", "").replaceAll("```\\s*", "")} / {@code split("\n")} /
+ * per-line regex implementation did, but walks the response once without regexes or
+ * intermediate strings: fence removal runs as two chained state machines feeding a reusable
+ * line buffer, and only the cleaned result is materialised.
+ */
+public final class MermaidSanitizer {
+
+    private static final String MERMAID_FENCE = "```mermaid";
+
+    private MermaidSanitizer() {
+    }
+
+    public static String clean(String response) {
+        if (response == null) {
+            return "";
+        }
+        return new Cleaner(response.length()).run(response);
+    }
+
+    public static boolean isValid(String code) {
+        if (code == null) {
+            return false;
+        }
+        int length = code.length();
+        if (MermaidSyntax.trimStart(code, 0, length) == length) {
+            return false;
+        }
+
+        int firstNewline = code.indexOf('\n');
+        int firstEnd = firstNewline < 0 ? length : firstNewline;
+        int from = MermaidSyntax.trimStart(code, 0, firstEnd);
+        int to = MermaidSyntax.trimEnd(code, from, firstEnd);
+        if (!MermaidSyntax.isValidDiagramStart(code, from, to)) {
+            return false;
+        }
+
+        // split("\n") drops trailing empty strings, so a second line exists only if
+        // something other than '\n' follows the first line break
+        if (firstNewline < 0 || !hasNonNewlineAfter(code, firstNewline + 1)) {
+            return false;
+        }
+
+        return !code.contains("```") && !code.contains("Here is") && !code.contains("Here's");
+    }
+
+    private static boolean hasNonNewlineAfter(String code, int from) {
+        for (int i = from; i < code.length(); i++) {
+            if (code.charAt(i) != '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Same character class as the regex \s
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private static final class Cleaner {
+
+        private final StringBuilder line = new StringBuilder(128);
+        private final StringBuilder result;
+        private String diagramType;
+        private boolean stopped;
+
+        // "```\s*" removal over the output of the "```mermaid\s*" removal
+        private int pendingBackticks;
+        private boolean skippingFenceWhitespace;
+
+        private Cleaner(int capacity) {
+            this.result = new StringBuilder(capacity);
+        }
+
+        private String run(String response) {
+            int length = response.length();
+            boolean skippingMermaidWhitespace = false;
+            int i = 0;
+            while (i < length && !stopped) {
+                char c = response.charAt(i);
+                if (skippingMermaidWhitespace) {
+                    if (isRegexWhitespace(c)) {
+                        i++;
+                        continue;
+                    }
+                    skippingMermaidWhitespace = false;
+                }
+                if (c == '`' && response.startsWith(MERMAID_FENCE, i)) {
+                    i += MERMAID_FENCE.length();
+                    skippingMermaidWhitespace = true;
+                    continue;
+                }
+                removeFences(c);
+                i++;
+            }
+            if (!stopped) {
+                flushBackticks();
+                if (!stopped) {
+                    endLine();
+                }
+            }
+            return result.toString().trim();
+        }
+
+        private void removeFences(char c) {
+            if (skippingFenceWhitespace) {
+                if (isRegexWhitespace(c)) {
+                    return;
+                }
+                skippingFenceWhitespace = false;
+            }
+            if (c == '`') {
+                if (++pendingBackticks == 3) {
+                    pendingBackticks = 0;
+                    skippingFenceWhitespace = true;
+                }
+                return;
+            }
+            flushBackticks();
+            emit(c);
+        }
+
+        private void flushBackticks() {
+            for (; pendingBackticks > 0; pendingBackticks--) {
+                emit('`');
+            }
+        }
+
+        private void emit(char c) {
+            if (stopped) {
+                return;
+            }
+            if (c == '\n') {
+                endLine();
+            } else {
+                line.append(c);
+            }
+        }
+
+        private void endLine() {
+            int from = MermaidSyntax.trimStart(line, 0, line.length());
+            int to = MermaidSyntax.trimEnd(line, from, line.length());
+            if (from == to) {
+                line.setLength(0);
+                return;
+            }
+
+            if (diagramType == null) {
+                if (MermaidSyntax.isValidDiagramStart(line, from, to)) {
+                    diagramType = MermaidSyntax.extractDiagramType(line, from, to);
+                    result.append(line, from, to).append('\n');
+                }
+            } else if (MermaidSyntax.isValidDiagramStart(line, from, to)
+                    && !MermaidSyntax.regionStartsWith(line, from, to, diagramType)) {
+                stopped = true;
+            } else {
+                result.append(line).append('\n');
+            }
+            line.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import java.util.regex.Pattern;
+
+/**
+ * Diagram-type rules shared by the batch and streaming Mermaid cleaners. Hand-rolled prefix
+ * checks with the same semantics as the original {@code line.matches("^(graph|...).*")}: a known
+ * header prefix followed by a rest that contains no regex line terminator.
+ */
+public final class MermaidSyntax {
+
+    private static final String[] DIAGRAM_STARTS = {
+            "graph", "flowchart", "sequenceDiagram", "classDiagram", "stateDiagram-v2",
+            "erDiagram", "journey", "gantt", "gitGraph"
+    };
+
+    private static final Pattern PROSE_MARKER = Pattern.compile(
+            "^(\\*\\*|#{1,6}\\s|(here is|here's|this diagram|this mermaid|this flowchart|the diagram|the above"
+                    + "|in this diagram|explanation|note that|i hope|let me know|feel free)\\b)",
+            Pattern.CASE_INSENSITIVE);
+
+    // A sentence, a markdown bullet or a numbered list item
+    private static final Pattern PROSE_SENTENCE = Pattern.compile(
+            "^(?:[A-Z][\\w'\u2019,-]*(?:\\s+\\S+){3,}[.!?:]|[-*+]\\s+\\w+(?:\\s+\\S+){2,}|\\d+[.)]\\s+\\w+(?:\\s+\\S+){2,})$");
+
+    private MermaidSyntax() {
+    }
+
+    public static boolean isValidDiagramStart(String line) {
+        return isValidDiagramStart(line, 0, line.length());
+    }
+
+    public static boolean isValidDiagramStart(CharSequence text, int from, int to) {
+        for (String start : DIAGRAM_STARTS) {
+            if (regionStartsWith(text, from, to, start)) {
+                return !containsLineTerminator(text, from + start.length(), to);
+            }
+        }
+        return false;
+    }
+
+    public static String extractDiagramType(String line) {
+        return extractDiagramType(line, 0, line.length());
+    }
+
+    public static String extractDiagramType(CharSequence text, int from, int to) {
+        if (regionStartsWith(text, from, to, "graph") || regionStartsWith(text, from, to, "flowchart")) {
+            return "graph";
+        } else if (regionStartsWith(text, from, to, "sequenceDiagram")) {
+            return "sequenceDiagram";
+        } else if (regionStartsWith(text, from, to, "classDiagram")) {
+            return "classDiagram";
+        } else if (regionStartsWith(text, from, to, "stateDiagram")) {
+            return "stateDiagram";
+        } else if (regionStartsWith(text, from, to, "erDiagram")) {
+            return "erDiagram";
+        } else if (regionStartsWith(text, from, to, "journey")) {
+            return "journey";
+        } else if (regionStartsWith(text, from, to, "gantt")) {
+            return "gantt";
+        } else if (regionStartsWith(text, from, to, "gitGraph")) {
+            return "gitGraph";
+        }
+        return "graph";
+    }
+
+    /**
+     * Diagram type of arbitrary stored Mermaid code, or {@code "unknown"} if it has no valid header.
+     */
+    public static String detectDiagramType(String code) {
+        if (code == null) {
+            return "unknown";
+        }
+        int lineStart = 0;
+        while (lineStart <= code.length()) {
+            int lineEnd = code.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = code.length();
+            }
+            int from = trimStart(code, lineStart, lineEnd);
+            int to = trimEnd(code, from, lineEnd);
+            if (from < to) {
+                return isValidDiagramStart(code, from, to) ? extractDiagramType(code, from, to) : "unknown";
+            }
+            lineStart = lineEnd + 1;
+        }
+        return "unknown";
+    }
+
+    /**
+     * Whether a trimmed line opens the kind of commentary models add around a diagram.
+     */
+    public static boolean startsLikeProse(String trimmedLine) {
+        return PROSE_MARKER.matcher(trimmedLine).find();
+    }
+
+    /**
+     * Broader check for a line that failed to parse as Mermaid: also treats plain sentences and
+     * markdown list items as prose.
+     */
+    public static boolean looksLikeProse(String trimmedLine) {
+        return startsLikeProse(trimmedLine) || PROSE_SENTENCE.matcher(trimmedLine).matches();
+    }
+
+    public static boolean regionStartsWith(CharSequence text, int from, int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(from + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // String.trim() semantics: everything up to U+0020 counts as whitespace
+    static int trimStart(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    static int trimEnd(CharSequence text, int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    // Characters that '.' refuses to match in a java.util.regex pattern without DOTALL
+    private static boolean containsLineTerminator(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == 0x0085 || c == 0x2028 || c == 0x2029) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.ollama.api.OllamaOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which models a generation tries, in order. With the {@code fast-first} policy a topic starts on a
+ * small model with a tight output budget and moves to the large model only when that output fails review;
+ * topics that look complex (long, or naming comparisons, architectures and the like) go straight to the
+ * large model. The default {@code large-only} policy keeps single-model serving.
+ * <p>
+ * Per-tier latency, the escalation count and the first-tier choice are exported so the policy can be
+ * compared against single-model serving; {@code diagram.generate.duration} in {@code AIService} has the
+ * end-to-end view.
+ */
+@Slf4j
+@Component
+public class ModelTierRouter {
+
+    public enum Policy {
+        LARGE_ONLY,
+        FAST_FIRST
+    }
+
+    public record ModelTier(String name, String model, int numPredict) {
+
+        /**
+         * Options for a call on this tier; a prompt's own output budget applies when it is lower.
+         */
+        public OllamaOptions options(int promptNumPredict) {
+            return OllamaOptions.create().withModel(model).withNumPredict(numPredictFor(promptNumPredict));
+        }
+
+        public int numPredictFor(int promptNumPredict) {
+            return Math.min(numPredict, promptNumPredict);
+        }
+    }
+
+    private final Policy policy;
+    private final ModelTier fast;
+    private final ModelTier large;
+    private final int complexMinWords;
+    private final Set<String> complexKeywords;
+    private final MeterRegistry meterRegistry;
+
+    public ModelTierRouter(@Value("${conceptviz.ai.tiers.policy:large-only}") String policy,
+                           @Value("${conceptviz.ai.tiers.fast.model:qwen2.5-coder:1.5b}") String fastModel,
+                           @Value("${conceptviz.ai.tiers.fast.num-predict:600}") int fastNumPredict,
+                           @Value("${conceptviz.ai.tiers.large.model:${spring.ai.ollama.chat.model:qwen2.5-coder:7b}}") String largeModel,
+                           @Value("${conceptviz.ai.tiers.large.num-predict:${spring.ai.ollama.chat.options.num-predict:2000}}") int largeNumPredict,
+                           @Value("${conceptviz.ai.tiers.complex.min-words:12}") int complexMinWords,
+                           @Value("${conceptviz.ai.tiers.complex.keywords:compare,comparison,versus,vs,architecture,end-to-end,lifecycle,distributed,microservices,internals}") List<String> complexKeywords,
+                           MeterRegistry meterRegistry) {
+        this.policy = Policy.valueOf(policy.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        this.fast = new ModelTier("fast", fastModel, fastNumPredict);
+        this.large = new ModelTier("large", largeModel, largeNumPredict);
+        this.complexMinWords = complexMinWords;
+        this.complexKeywords = complexKeywords.stream()
+                .map(keyword -> keyword.trim().toLowerCase(Locale.ROOT))
+                .filter(keyword -> !keyword.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.meterRegistry = meterRegistry;
+        log.info("Model tiers policy={} fast={} large={}", this.policy, fast, large);
+    }
+
+    /**
+     * Tiers to try for a topic, first choice first.
+     */
+    public List<ModelTier> plan(String topic) {
+        List<ModelTier> tiers = tiersFor(topic);
+        if (policy == Policy.FAST_FIRST) {
+            routed(tiers.get(0), tiers.size() == 1 ? "complex" : "default");
+        }
+        return tiers;
+    }
+
+    /**
+     * Models a generation for the topic may run on: the tiers of {@link #plan}, without counting a routing.
+     */
+    public List<String> models(String topic) {
+        return tiersFor(topic).stream().map(ModelTier::model).toList();
+    }
+
+    private List<ModelTier> tiersFor(String topic) {
+        if (policy == Policy.LARGE_ONLY || isComplex(topic)) {
+            return List.of(large);
+        }
+        return List.of(fast, large);
+    }
+
+    public void escalated(ModelTier from, ModelTier to) {
+        log.info("Escalating generation from {} to {} after unusable output", from.model(), to.model());
+        Counter.builder("diagram.tier.escalations")
+                .description("Generations retried on a larger model because the smaller one produced unusable output")
+                .tag("from", from.name())
+                .tag("to", to.name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void record(ModelTier tier, long nanos, boolean usable) {
+        Timer.builder("diagram.tier.duration")
+                .description("Generation time per model tier, including the wait for an inference permit")
+                .tag("tier", tier.name())
+                .tag("model", tier.model())
+                .tag("outcome", usable ? "usable" : "unusable")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    boolean isComplex(String topic) {
+        String[] words = topic.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}-]+");
+        if (words.length >= complexMinWords) {
+            return true;
+        }
+        for (String word : words) {
+            if (complexKeywords.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void routed(ModelTier tier, String reason) {
+        Counter.builder("diagram.tier.routed")
+                .description("First tier chosen for a generation and why")
+                .tag("tier", tier.name())
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
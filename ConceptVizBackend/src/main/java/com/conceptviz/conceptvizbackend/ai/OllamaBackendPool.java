@@ -0,0 +1,494 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads the streaming Ollama chat calls over a pool of Ollama hosts. Spring AI talks to the single
+ * {@code spring.ai.ollama.base-url}; this customizer adds a filter to the WebClient it uses that re-targets
+ * every request for that URL at a pool member, so the calls made by {@code AIService} are balanced without
+ * changing how it builds them.
+ * <p>
+ * Each request goes to the available backend with the fewest requests in flight, up to a per-backend limit;
+ * when every backend is at its limit the request waits for a slot. A backend is unavailable while its
+ * health probe fails or while it is ejected, either after consecutive failed calls or when its time to first
+ * byte is far above the rest of the pool. Ejections back off exponentially, and the last available backend
+ * is never ejected. If nothing is available the pool routes to every backend rather than failing outright.
+ * <p>
+ * With hedging on, a request that has not seen a response after the pool's recent p95 time to first byte is
+ * sent to a second backend as well. Whichever answers first is kept and the other is cancelled, which
+ * also stops its generation in Ollama. Hedges are capped at a share of all requests.
+ */
+@Slf4j
+@Component
+public class OllamaBackendPool implements WebClientCustomizer, DisposableBean {
+
+    // Latency samples kept for the hedge delay percentile
+    private static final int LATENCY_WINDOW = 512;
+    private static final int MIN_SLOW_SAMPLES = 10;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final Duration CAPACITY_POLL = Duration.ofMillis(20);
+
+    private final List<Backend> backends;
+    private final URI baseUrl;
+    private final int maxConcurrentPerBackend;
+    private final Duration maxWait;
+    private final int maxCapacityPolls;
+    private final int unhealthyThreshold;
+    private final int ejectAfterFailures;
+    private final double slowFactor;
+    private final Duration baseEjectionTime;
+    private final Duration maxEjectionTime;
+    private final boolean hedgeEnabled;
+    private final double hedgePercentile;
+    private final Duration hedgeMinDelay;
+    private final double hedgeMaxRatio;
+    private final Duration probeTimeout;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final Counter hedgeRequests;
+    private final Counter hedgeWins;
+    private final MeterRegistry meterRegistry;
+    private final HttpClient probeClient;
+    private final ScheduledExecutorService prober;
+
+    public OllamaBackendPool(@Value("${conceptviz.ai.ollama.backends:}") List<String> backendUrls,
+                             @Value("${spring.ai.ollama.base-url:http://localhost:11434}") String baseUrl,
+                             @Value("${conceptviz.ai.ollama.max-concurrent-per-backend:2}") int maxConcurrentPerBackend,
+                             @Value("${conceptviz.ai.ollama.max-wait:30s}") Duration maxWait,
+                             @Value("${conceptviz.ai.ollama.probe.interval:5s}") Duration probeInterval,
+                             @Value("${conceptviz.ai.ollama.probe.timeout:2s}") Duration probeTimeout,
+                             @Value("${conceptviz.ai.ollama.probe.unhealthy-threshold:2}") int unhealthyThreshold,
+                             @Value("${conceptviz.ai.ollama.eject.consecutive-failures:3}") int ejectAfterFailures,
+                             @Value("${conceptviz.ai.ollama.eject.slow-factor:3.0}") double slowFactor,
+                             @Value("${conceptviz.ai.ollama.eject.base-time:30s}") Duration baseEjectionTime,
+                             @Value("${conceptviz.ai.ollama.eject.max-time:5m}") Duration maxEjectionTime,
+                             @Value("${conceptviz.ai.ollama.hedge.enabled:false}") boolean hedgeEnabled,
+                             @Value("${conceptviz.ai.ollama.hedge.percentile:0.95}") double hedgePercentile,
+                             @Value("${conceptviz.ai.ollama.hedge.min-delay:250ms}") Duration hedgeMinDelay,
+                             @Value("${conceptviz.ai.ollama.hedge.max-ratio:0.1}") double hedgeMaxRatio,
+                             MeterRegistry meterRegistry) {
+        this.baseUrl = URI.create(stripTrailingSlash(baseUrl));
+        this.maxConcurrentPerBackend = Math.max(1, maxConcurrentPerBackend);
+        this.maxWait = maxWait;
+        this.maxCapacityPolls = (int) Math.max(1, maxWait.toMillis() / CAPACITY_POLL.toMillis());
+        this.unhealthyThreshold = Math.max(1, unhealthyThreshold);
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.slowFactor = slowFactor;
+        this.baseEjectionTime = baseEjectionTime;
+        this.maxEjectionTime = maxEjectionTime;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelay = hedgeMinDelay;
+        this.hedgeMaxRatio = hedgeMaxRatio;
+        this.probeTimeout = probeTimeout;
+        this.meterRegistry = meterRegistry;
+        this.backends = backendUrls.stream()
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .map(url -> new Backend(URI.create(stripTrailingSlash(url))))
+                .toList();
+        this.hedgeRequests = Counter.builder("ollama.hedge.requests")
+                .description("Requests also sent to a second Ollama backend because the first was slow to answer")
+                .register(meterRegistry);
+        this.hedgeWins = Counter.builder("ollama.hedge.wins")
+                .description("Hedged requests where the second backend answered first")
+                .register(meterRegistry);
+
+        if (backends.isEmpty()) {
+            this.probeClient = null;
+            this.prober = null;
+            return;
+        }
+        this.probeClient = HttpClient.newBuilder().connectTimeout(probeTimeout).build();
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ollama-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, 0, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Ollama pool of {} backends for {}: maxConcurrentPerBackend={} hedging={}",
+                backends.size(), this.baseUrl, this.maxConcurrentPerBackend, hedgeEnabled);
+    }
+
+    @Override
+    public void customize(WebClient.Builder builder) {
+        if (!backends.isEmpty()) {
+            builder.filter(this::route);
+        }
+    }
+
+    public boolean isEnabled() {
+        return !backends.isEmpty();
+    }
+
+    private Mono<ClientResponse> route(ClientRequest request, ExchangeFunction next) {
+        if (!targetsPool(request.url())) {
+            return next.exchange(request);
+        }
+        routed.incrementAndGet();
+        Set<Backend> tried = ConcurrentHashMap.newKeySet();
+        AtomicBoolean answered = new AtomicBoolean();
+
+        // Acquiring inside the subscription means a cancelled request can never strand a slot
+        Mono<ClientResponse> primary = Mono.defer(() -> {
+                    Backend backend = tryAcquire(tried);
+                    return backend == null ? Mono.<ClientResponse>empty() : attempt(request, next, backend, answered, false);
+                })
+                // Poll for a free slot; an empty result after a lost hedge race ends the polling
+                .repeatWhenEmpty(maxCapacityPolls, polls -> polls.takeWhile(poll -> !answered.get())
+                        .delayElements(CAPACITY_POLL))
+                .onErrorMap(e -> e instanceof IllegalStateException && e.getMessage().startsWith("Exceeded"),
+                        e -> new IllegalStateException("No Ollama backend had capacity within " + maxWait));
+        if (!hedgeEnabled || backends.size() < 2) {
+            return primary;
+        }
+        Mono<ClientResponse> hedge = Mono.delay(hedgeDelay()).flatMap(tick -> {
+            if (answered.get() || hedged.get() >= hedgeMaxRatio * routed.get()) {
+                return Mono.empty();
+            }
+            Backend backend = tryAcquire(tried);
+            if (backend == null) {
+                return Mono.empty();
+            }
+            hedged.incrementAndGet();
+            hedgeRequests.increment();
+            return attempt(request, next, backend, answered, true);
+        });
+        // When the primary fails before the hedge fires, the hedge doubles as a retry on another backend
+        return Mono.firstWithValue(primary, hedge)
+                .onErrorMap(NoSuchElementException.class,
+                        e -> e.getSuppressed().length > 0 ? e.getSuppressed()[0] : e);
+    }
+
+    private Mono<ClientResponse> attempt(ClientRequest request, ExchangeFunction next, Backend backend,
+                                         AtomicBoolean answered, boolean hedge) {
+        ClientRequest routedRequest = ClientRequest.from(request).url(backend.resolve(request.url(), baseUrl)).build();
+        Lease lease = new Lease(backend, System.nanoTime());
+        return next.exchange(routedRequest)
+                .doOnError(lease::failed)
+                .doOnCancel(() -> lease.close(SignalType.CANCEL))
+                .flatMap(response -> {
+                    lease.responded(response.statusCode().is5xxServerError());
+                    if (!answered.compareAndSet(false, true)) {
+                        // Lost the race; dropping the body closes the connection and stops the generation
+                        lease.close(SignalType.CANCEL);
+                        return response.bodyToFlux(DataBuffer.class).take(0).then(Mono.empty());
+                    }
+                    if (hedge) {
+                        hedgeWins.increment();
+                    }
+                    return Mono.just(response.mutate()
+                            .body(body -> body.doOnError(lease::failed).doFinally(lease::close))
+                            .build());
+                });
+    }
+
+    // Least outstanding requests among available backends, faster backend on ties
+    private synchronized Backend tryAcquire(Set<Backend> exclude) {
+        long now = System.nanoTime();
+        List<Backend> candidates = backends.stream().filter(backend -> backend.isAvailable(now)).toList();
+        if (candidates.isEmpty()) {
+            candidates = backends;
+        }
+        Backend best = candidates.stream()
+                .filter(backend -> !exclude.contains(backend))
+                .filter(backend -> backend.inFlight.get() < maxConcurrentPerBackend)
+                .min(Comparator.comparingInt((Backend backend) -> backend.inFlight.get())
+                        .thenComparingDouble(Backend::expectedFirstByteNanos))
+                .orElse(null);
+        if (best != null) {
+            best.inFlight.incrementAndGet();
+            exclude.add(best);
+        }
+        return best;
+    }
+
+    private Duration hedgeDelay() {
+        long[] window;
+        synchronized (latencies) {
+            window = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        if (window.length < MIN_SLOW_SAMPLES) {
+            return hedgeMinDelay;
+        }
+        Arrays.sort(window);
+        long percentile = window[(int) Math.min(window.length - 1, Math.floor(window.length * hedgePercentile))];
+        return Duration.ofNanos(Math.max(percentile, hedgeMinDelay.toNanos()));
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_WINDOW] = nanos;
+            latencyCount++;
+        }
+    }
+
+    private synchronized void recordFailure(Backend backend) {
+        if (backend.consecutiveFailures.incrementAndGet() >= ejectAfterFailures) {
+            eject(backend, "failures");
+        }
+    }
+
+    // Compares the backend's recent time to first byte with the median of the other available backends
+    private synchronized void observeFirstByte(Backend backend, long nanos) {
+        backend.ewmaFirstByteNanos = backend.samples == 0 ? nanos
+                : EWMA_WEIGHT * nanos + (1 - EWMA_WEIGHT) * backend.ewmaFirstByteNanos;
+        backend.samples++;
+        long now = System.nanoTime();
+        if (backend.samples < MIN_SLOW_SAMPLES || !backend.isAvailable(now)) {
+            return;
+        }
+        double[] others = backends.stream()
+                .filter(other -> other != backend && other.isAvailable(now) && other.samples >= MIN_SLOW_SAMPLES)
+                .mapToDouble(other -> other.ewmaFirstByteNanos)
+                .sorted()
+                .toArray();
+        if (others.length > 0 && backend.ewmaFirstByteNanos > slowFactor * others[others.length / 2]) {
+            eject(backend, "slow");
+        }
+    }
+
+    private void eject(Backend backend, String reason) {
+        long now = System.nanoTime();
+        if (!backend.isAvailable(now) || backends.stream().filter(other -> other.isAvailable(now)).count() <= 1) {
+            return;
+        }
+        long nanos = Math.min(maxEjectionTime.toNanos(), baseEjectionTime.toNanos() << Math.min(backend.ejections, 20));
+        backend.ejections++;
+        backend.ejectedUntil = now + nanos;
+        backend.consecutiveFailures.set(0);
+        // Judged on fresh samples once it is back
+        backend.samples = 0;
+        Counter.builder("ollama.backend.ejections")
+                .description("Times an Ollama backend was taken out of rotation")
+                .tag("backend", backend.id)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        log.warn("Ejected Ollama backend {} for {}s ({})", backend.id, TimeUnit.NANOSECONDS.toSeconds(nanos), reason);
+    }
+
+    private void probe() {
+        for (Backend backend : backends) {
+            HttpRequest request = HttpRequest.newBuilder(backend.uri.resolve("/")).timeout(probeTimeout).GET().build();
+            probeClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> backend.probed(error == null && response.statusCode() == 200));
+        }
+    }
+
+    private boolean targetsPool(URI url) {
+        return url.getScheme().equals(baseUrl.getScheme())
+                && url.getHost().equalsIgnoreCase(baseUrl.getHost())
+                && url.getPort() == baseUrl.getPort()
+                && url.getRawPath().startsWith(baseUrl.getRawPath());
+    }
+
+    /**
+     * Backend state for {@code /actuator/ollamabackends}.
+     */
+    public List<Map<String, Object>> backendStates() {
+        long now = System.nanoTime();
+        List<Map<String, Object>> states = new ArrayList<>();
+        for (Backend backend : backends) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("backend", backend.id);
+            state.put("available", backend.isAvailable(now));
+            state.put("healthy", backend.healthy);
+            state.put("ejectedForSeconds", Math.max(0, TimeUnit.NANOSECONDS.toSeconds(backend.ejectedUntil - now)));
+            state.put("ejections", backend.ejections);
+            state.put("inFlight", backend.inFlight.get());
+            state.put("firstByteMillis", backend.samples == 0 ? null
+                    : Math.round(backend.ewmaFirstByteNanos / 1_000_000));
+            states.add(state);
+        }
+        return states;
+    }
+
+    public long hedgeDelayMillis() {
+        return hedgeDelay().toMillis();
+    }
+
+    @Override
+    public void destroy() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private final class Backend {
+
+        final URI uri;
+        final String id;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        final Timer firstByteOk;
+        final Timer firstByteError;
+        volatile boolean healthy = true;
+        volatile long ejectedUntil = System.nanoTime();
+        int ejections;
+        int probeFailures;
+        volatile double ewmaFirstByteNanos;
+        volatile int samples;
+
+        Backend(URI uri) {
+            this.uri = uri;
+            this.id = uri.getHost() + ":" + uri.getPort();
+            this.firstByteOk = firstByteTimer("ok");
+            this.firstByteError = firstByteTimer("error");
+            Gauge.builder("ollama.backend.in.flight", inFlight, AtomicInteger::get)
+                    .description("Requests in flight on an Ollama backend")
+                    .tag("backend", id)
+                    .register(meterRegistry);
+            Gauge.builder("ollama.backend.available", this, backend -> backend.isAvailable(System.nanoTime()) ? 1 : 0)
+                    .description("1 while an Ollama backend is healthy and not ejected")
+                    .tag("backend", id)
+                    .register(meterRegistry);
+        }
+
+        boolean isAvailable(long now) {
+            return healthy && now - ejectedUntil >= 0;
+        }
+
+        // Unmeasured backends rank as fast so they get traffic to measure
+        double expectedFirstByteNanos() {
+            return samples == 0 ? 0 : ewmaFirstByteNanos;
+        }
+
+        URI resolve(URI url, URI base) {
+            return UriComponentsBuilder.fromUri(uri)
+                    .path(url.getRawPath().substring(base.getRawPath().length()))
+                    .query(url.getRawQuery())
+                    .build(true)
+                    .toUri();
+        }
+
+        void probed(boolean ok) {
+            synchronized (OllamaBackendPool.this) {
+                if (ok) {
+                    probeFailures = 0;
+                    if (!healthy) {
+                        log.info("Ollama backend {} is healthy again", id);
+                    }
+                    healthy = true;
+                } else if (++probeFailures >= unhealthyThreshold && healthy) {
+                    log.warn("Ollama backend {} failed {} health probes", id, probeFailures);
+                    healthy = false;
+                }
+            }
+        }
+
+        void firstByte(long nanos, boolean ok) {
+            (ok ? firstByteOk : firstByteError).record(nanos, TimeUnit.NANOSECONDS);
+            if (!ok) {
+                return;
+            }
+            recordLatency(nanos);
+            observeFirstByte(this, nanos);
+        }
+
+        private Timer firstByteTimer(String outcome) {
+            return Timer.builder("ollama.backend.first.byte")
+                    .description("Time from sending a request to an Ollama backend to its response headers")
+                    .tag("backend", id)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+    }
+
+    // One request on one backend: holds its slot until the response body ends, fails or is cancelled
+    private final class Lease {
+
+        private final Backend backend;
+        private final long start;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean failed;
+
+        Lease(Backend backend, long start) {
+            this.backend = backend;
+            this.start = start;
+        }
+
+        void responded(boolean serverError) {
+            backend.firstByte(System.nanoTime() - start, !serverError);
+            if (serverError) {
+                failed = true;
+            }
+        }
+
+        void failed(Throwable error) {
+            failed = true;
+            close(SignalType.ON_ERROR);
+        }
+
+        void close(SignalType signal) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            backend.inFlight.decrementAndGet();
+            String outcome;
+            if (failed || signal == SignalType.ON_ERROR) {
+                outcome = "error";
+                recordFailure(backend);
+            } else if (signal == SignalType.CANCEL) {
+                // Cancelled by the generation guard or a lost hedge race; says nothing about the backend
+                outcome = "cancelled";
+            } else {
+                outcome = "success";
+                backend.consecutiveFailures.set(0);
+            }
+            Timer.builder("ollama.backend.duration")
+                    .description("Ollama backend call duration until the end of the streamed response")
+                    .tag("backend", backend.id)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/ollamabackends}: routing state of each pooled Ollama backend and the current hedge delay.
+ */
+@Component
+@Endpoint(id = "ollamabackends")
+@RequiredArgsConstructor
+public class OllamaBackendsEndpoint {
+
+    private final OllamaBackendPool ollamaBackendPool;
+
+    @ReadOperation
+    public Map<String, Object> backends() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", ollamaBackendPool.isEnabled());
+        result.put("hedgeDelayMillis", ollamaBackendPool.hedgeDelayMillis());
+        result.put("backends", ollamaBackendPool.backendStates());
+        return result;
+    }
+}
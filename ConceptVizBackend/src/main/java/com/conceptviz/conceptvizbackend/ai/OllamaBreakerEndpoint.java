@@ -0,0 +1,25 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code /actuator/ollamabreaker}: circuit breaker state, current timeouts, short-circuited calls and the
+ * most recent state transitions.
+ */
+@Component
+@Endpoint(id = "ollamabreaker")
+@RequiredArgsConstructor
+public class OllamaBreakerEndpoint {
+
+    private final OllamaCircuitBreaker ollamaCircuitBreaker;
+
+    @ReadOperation
+    public Map<String, Object> breaker() {
+        return ollamaCircuitBreaker.snapshot();
+    }
+}
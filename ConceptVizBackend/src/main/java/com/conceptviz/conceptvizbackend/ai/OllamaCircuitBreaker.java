@@ -0,0 +1,345 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Circuit breaker around the streamed Ollama chat calls. While closed, the outcomes of the most recent calls
+ * are kept in a sliding window; once enough of them failed, the breaker opens and calls fail immediately with
+ * {@link CircuitOpenException} instead of waiting on a wedged or reloading Ollama. After the open period a
+ * limited number of probe calls are let through (half-open): a successful probe closes the breaker, a failed
+ * one opens it again for twice as long, up to a maximum. The pre-check claims a probe for its caller, so while
+ * the claimant waits for an inference permit everyone else takes the open-circuit fallback instead of queueing
+ * behind it for a call that would be refused.
+ * <p>
+ * Calls time out adaptively. The first token must arrive within a multiple of the recent time-to-first-token
+ * percentile, clamped to a configured range, and later tokens within the idle timeout. Timeouts count as
+ * failures. A call cancelled before its first token, e.g. by the generation guard, is not counted either way.
+ */
+@Slf4j
+@Component
+public class OllamaCircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Transition(Instant at, State from, State to, String reason) {
+    }
+
+    private enum Attempt {
+        CALL,
+        PROBE
+    }
+
+    private static final int LATENCY_WINDOW = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int TRANSITION_HISTORY = 20;
+
+    private final boolean enabled;
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final Duration baseOpenDuration;
+    private final Duration maxOpenDuration;
+    private final int halfOpenProbes;
+    private final long probeClaimNanos;
+    private final double timeoutPercentile;
+    private final double timeoutMultiplier;
+    private final Duration minTimeout;
+    private final Duration maxTimeout;
+    private final Duration idleTimeout;
+    private final MeterRegistry meterRegistry;
+    private final Counter shortCircuited;
+    private final Counter timeouts;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int outcomeCount;
+    private int failures;
+    private long openUntil;
+    private int reopenings;
+    private int probesInFlight;
+    // Expiry times of probes claimed by isCallPermitted but not started yet, oldest first
+    private final Deque<Long> probeClaims = new ArrayDeque<>();
+    private final Deque<Transition> transitions = new ArrayDeque<>();
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+
+    public OllamaCircuitBreaker(@Value("${conceptviz.ai.breaker.enabled:true}") boolean enabled,
+                                @Value("${conceptviz.ai.breaker.window:20}") int window,
+                                @Value("${conceptviz.ai.breaker.minimum-calls:10}") int minimumCalls,
+                                @Value("${conceptviz.ai.breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+                                @Value("${conceptviz.ai.breaker.open.base-time:15s}") Duration baseOpenDuration,
+                                @Value("${conceptviz.ai.breaker.open.max-time:5m}") Duration maxOpenDuration,
+                                @Value("${conceptviz.ai.breaker.half-open.probes:1}") int halfOpenProbes,
+                                @Value("${conceptviz.ai.breaker.half-open.claim-time:60s}") Duration probeClaimTime,
+                                @Value("${conceptviz.ai.breaker.timeout.percentile:0.99}") double timeoutPercentile,
+                                @Value("${conceptviz.ai.breaker.timeout.multiplier:2.0}") double timeoutMultiplier,
+                                @Value("${conceptviz.ai.breaker.timeout.min:5s}") Duration minTimeout,
+                                @Value("${conceptviz.ai.breaker.timeout.max:60s}") Duration maxTimeout,
+                                @Value("${conceptviz.ai.breaker.timeout.idle:15s}") Duration idleTimeout,
+                                MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.outcomes = new boolean[Math.max(1, window)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.baseOpenDuration = baseOpenDuration;
+        this.maxOpenDuration = maxOpenDuration;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.probeClaimNanos = probeClaimTime.toNanos();
+        this.timeoutPercentile = timeoutPercentile;
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout.compareTo(minTimeout) < 0 ? minTimeout : maxTimeout;
+        this.idleTimeout = idleTimeout;
+        this.meterRegistry = meterRegistry;
+        this.shortCircuited = Counter.builder("ollama.breaker.short.circuited")
+                .description("Ollama calls skipped because the circuit breaker was open")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("ollama.breaker.timeouts")
+                .description("Ollama calls abandoned by the adaptive first-token or idle timeout")
+                .register(meterRegistry);
+        for (State gaugeState : State.values()) {
+            Gauge.builder("ollama.breaker.state", this, breaker -> breaker.state() == gaugeState ? 1 : 0)
+                    .description("1 for the circuit breaker's current state, 0 for the others")
+                    .tag("state", gaugeState.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry);
+        }
+        Gauge.builder("ollama.breaker.first.token.timeout", this, breaker -> breaker.firstTokenTimeout().toMillis() / 1000.0)
+                .description("Current adaptive time-to-first-token timeout")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        log.info("Ollama circuit breaker enabled={} window={} failureRateThreshold={} openBaseTime={}",
+                enabled, outcomes.length, failureRateThreshold, baseOpenDuration);
+    }
+
+    /**
+     * Whether a call would currently be let through. A false answer is counted as a short-circuited call, so
+     * callers can take their fallback before queueing for an inference permit. Once the open period has elapsed
+     * a true answer claims one of the half-open probes for the caller, held for the claim time so a caller that
+     * never reaches Ollama does not keep the breaker from probing.
+     */
+    public boolean isCallPermitted() {
+        if (!enabled) {
+            return true;
+        }
+        boolean permitted;
+        synchronized (this) {
+            permitted = state == State.CLOSED || claimProbe();
+        }
+        if (!permitted) {
+            shortCircuited.increment();
+        }
+        return permitted;
+    }
+
+    /**
+     * Runs the call under the breaker: fails fast with {@link CircuitOpenException} while open, applies the
+     * adaptive timeouts and records the outcome.
+     */
+    public <T> Flux<T> protect(Flux<T> call) {
+        if (!enabled) {
+            return call;
+        }
+        return Flux.defer(() -> {
+            Attempt attempt = tryAcquire();
+            if (attempt == null) {
+                shortCircuited.increment();
+                return Flux.error(new CircuitOpenException(retryAfterSeconds()));
+            }
+            long start = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            AtomicBoolean failed = new AtomicBoolean();
+            return call
+                    .timeout(Mono.delay(firstTokenTimeout()), item -> Mono.delay(idleTimeout))
+                    .doOnNext(item -> {
+                        if (firstToken.compareAndSet(false, true)) {
+                            recordLatency(System.nanoTime() - start);
+                        }
+                    })
+                    .doOnError(e -> {
+                        failed.set(true);
+                        if (e instanceof TimeoutException) {
+                            timeouts.increment();
+                        }
+                    })
+                    .doFinally(signal -> finish(attempt, signal, failed.get(), firstToken.get()));
+        });
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public Duration firstTokenTimeout() {
+        long[] window;
+        synchronized (latencies) {
+            window = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        if (window.length < MIN_LATENCY_SAMPLES) {
+            return maxTimeout;
+        }
+        Arrays.sort(window);
+        long percentile = window[(int) Math.min(window.length - 1, Math.floor(window.length * timeoutPercentile))];
+        long nanos = (long) (percentile * timeoutMultiplier);
+        return Duration.ofNanos(Math.max(minTimeout.toNanos(), Math.min(maxTimeout.toNanos(), nanos)));
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("state", state);
+        result.put("callsInWindow", outcomeCount);
+        result.put("failureRate", outcomeCount == 0 ? 0.0 : (double) failures / outcomeCount);
+        if (state == State.OPEN) {
+            result.put("openForMillis", Math.max(0, (openUntil - System.nanoTime()) / 1_000_000));
+        }
+        result.put("firstTokenTimeoutMillis", firstTokenTimeout().toMillis());
+        result.put("idleTimeoutMillis", idleTimeout.toMillis());
+        result.put("shortCircuited", (long) shortCircuited.count());
+        result.put("timeouts", (long) timeouts.count());
+        List<Transition> recent = new ArrayList<>(transitions);
+        result.put("transitions", recent);
+        return result;
+    }
+
+    // Guarded by this
+    private boolean claimProbe() {
+        long now = System.nanoTime();
+        if (state == State.OPEN && now - openUntil < 0) {
+            return false;
+        }
+        while (!probeClaims.isEmpty() && now - probeClaims.peekFirst() >= 0) {
+            probeClaims.removeFirst();
+        }
+        if (probesInFlight + probeClaims.size() >= halfOpenProbes) {
+            return false;
+        }
+        probeClaims.addLast(now + probeClaimNanos);
+        return true;
+    }
+
+    private synchronized Attempt tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openUntil < 0) {
+                return null;
+            }
+            transition(State.HALF_OPEN, "open period elapsed");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                return null;
+            }
+            probesInFlight++;
+            probeClaims.pollFirst();
+            return Attempt.PROBE;
+        }
+        return Attempt.CALL;
+    }
+
+    private synchronized void finish(Attempt attempt, SignalType signal, boolean failed, boolean firstToken) {
+        // A call cancelled before Ollama answered says nothing about its health
+        boolean counted = failed || signal == SignalType.ON_COMPLETE || firstToken;
+        if (attempt == Attempt.PROBE) {
+            probesInFlight--;
+            if (state != State.HALF_OPEN || !counted) {
+                return;
+            }
+            if (failed) {
+                reopenings++;
+                open("probe failed");
+            } else {
+                reopenings = 0;
+                transition(State.CLOSED, "probe succeeded");
+            }
+            return;
+        }
+        // Calls started before the breaker opened finish into an empty window
+        if (state != State.CLOSED || !counted) {
+            return;
+        }
+        int slot = outcomeCount < outcomes.length ? outcomeCount++ : shiftWindow();
+        outcomes[slot] = failed;
+        if (failed) {
+            failures++;
+        }
+        if (outcomeCount >= minimumCalls && (double) failures / outcomeCount >= failureRateThreshold) {
+            open(String.format("%d of the last %d calls failed", failures, outcomeCount));
+        }
+    }
+
+    // Drops the oldest outcome and returns the freed last slot
+    private int shiftWindow() {
+        if (outcomes[0]) {
+            failures--;
+        }
+        System.arraycopy(outcomes, 1, outcomes, 0, outcomes.length - 1);
+        return outcomes.length - 1;
+    }
+
+    private void open(String reason) {
+        long nanos = Math.min(maxOpenDuration.toNanos(), baseOpenDuration.toNanos() << Math.min(reopenings, 20));
+        openUntil = System.nanoTime() + nanos;
+        transition(State.OPEN, reason + String.format(", open for %.1fs", nanos / 1e9));
+    }
+
+    private void transition(State to, String reason) {
+        State from = state;
+        state = to;
+        outcomeCount = 0;
+        failures = 0;
+        if (to != State.HALF_OPEN) {
+            probeClaims.clear();
+        }
+        if (transitions.size() == TRANSITION_HISTORY) {
+            transitions.removeFirst();
+        }
+        transitions.addLast(new Transition(Instant.now(), from, to, reason));
+        Counter.builder("ollama.breaker.transitions")
+                .description("Circuit breaker state changes")
+                .tag("from", from.name().toLowerCase(Locale.ROOT))
+                .tag("to", to.name().toLowerCase(Locale.ROOT))
+                .register(meterRegistry)
+                .increment();
+        if (to == State.CLOSED) {
+            log.info("Ollama circuit breaker {} -> {}: {}", from, to, reason);
+        } else {
+            log.warn("Ollama circuit breaker {} -> {}: {}", from, to, reason);
+        }
+    }
+
+    private synchronized long retryAfterSeconds() {
+        return Math.max(1, (openUntil - System.nanoTime() + 999_999_999L) / 1_000_000_000L);
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[latencyCount % LATENCY_WINDOW] = nanos;
+            latencyCount++;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+/**
+ * Identity an inference slot is scheduled for: the authenticated user, or the client IP for anonymous callers.
+ */
+public record Requester(String key, boolean authenticated) {
+
+    public static Requester user(String email) {
+        return new Requester("user:" + email, true);
+    }
+
+    public static Requester anonymous(String address) {
+        return new Requester("ip:" + address, false);
+    }
+}
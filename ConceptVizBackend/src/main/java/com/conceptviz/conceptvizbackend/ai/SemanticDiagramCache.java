@@ -0,0 +1,436 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Serves a previously generated diagram for a topic that is worded differently but means the same, e.g.
+ * "how TCP handshakes work" after "TCP three-way handshake". Topics are embedded with the configured Ollama
+ * embedding model and looked up in an {@link HnswIndex} of validated diagrams; a neighbour at or above the
+ * similarity threshold is a hit when it was generated with the same prompts by one of the models the topic
+ * would be generated on now, so a topic routed to the large model is not served a small model's diagram.
+ * <p>
+ * Entries are bounded by count and age. Evicted entries stay in the graph as deleted nodes until enough of
+ * them pile up, then the graph is rebuilt from the live entries. The entries are written to a snapshot file
+ * periodically and on shutdown and re-indexed in the background after a restart.
+ */
+@Slf4j
+@Component
+public class SemanticDiagramCache implements DisposableBean {
+
+    private static final int SNAPSHOT_MAGIC = 0x43565343; // "CVSC"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int NEIGHBOURS = 4;
+    // Rebuild once deleted nodes are this share of the graph
+    private static final double MAX_DELETED_RATIO = 0.25;
+
+    /**
+     * Outcome of a lookup. On a miss the embedding is kept so the generated diagram can be added without
+     * embedding the topic again; it is null when the cache is disabled or embedding failed. A miss also
+     * carries the closest entry below the threshold, if any, for {@link #degradedMatch}.
+     */
+    public record Lookup(float[] embedding, String mermaidCode, double similarity, boolean hit) {
+
+        static final Lookup SKIPPED = new Lookup(null, null, 0, false);
+
+        public boolean isHit() {
+            return hit;
+        }
+    }
+
+    private record Entry(long key, String scope, String topic, String mermaidCode, float[] embedding,
+                         long createdAt, HnswIndex index, int node) {
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final double threshold;
+    private final double degradedThreshold;
+    private final long ttlNanos;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final Path snapshotFile;
+    private final String embeddingModelName;
+    private final Cache<Long, Entry> entries;
+    private final AtomicLong nextKey = new AtomicLong();
+    // Serializes changes to the graph and the swap to a rebuilt one; searches read the volatile field
+    private final Object indexLock = new Object();
+    private volatile HnswIndex index;
+    private final ScheduledExecutorService maintenance;
+    private final Duration snapshotInterval;
+    private final Timer hits;
+    private final Timer misses;
+    private final Timer errors;
+    private final Timer searchTimer;
+    private final DistributionSummary bestSimilarity;
+
+    public SemanticDiagramCache(@Value("${conceptviz.cache.semantic.enabled:false}") boolean enabled,
+                                @Value("${conceptviz.cache.semantic.threshold:0.92}") double threshold,
+                                @Value("${conceptviz.cache.semantic.degraded-threshold:0.8}") double degradedThreshold,
+                                @Value("${conceptviz.cache.semantic.max-entries:10000}") long maxEntries,
+                                @Value("${conceptviz.cache.semantic.ttl:7d}") Duration ttl,
+                                @Value("${conceptviz.cache.semantic.hnsw.m:16}") int m,
+                                @Value("${conceptviz.cache.semantic.hnsw.ef-construction:100}") int efConstruction,
+                                @Value("${conceptviz.cache.semantic.hnsw.ef-search:64}") int efSearch,
+                                @Value("${conceptviz.cache.semantic.snapshot-file:data/semantic-cache.bin}") Path snapshotFile,
+                                @Value("${conceptviz.cache.semantic.snapshot-interval:10m}") Duration snapshotInterval,
+                                @Value("${spring.ai.ollama.embedding.model:unknown}") String embeddingModelName,
+                                ObjectProvider<EmbeddingModel> embeddingModel,
+                                MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel.getIfAvailable();
+        this.enabled = enabled && this.embeddingModel != null;
+        this.threshold = threshold;
+        this.degradedThreshold = degradedThreshold;
+        this.ttlNanos = ttl.toNanos();
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.snapshotFile = snapshotFile;
+        this.snapshotInterval = snapshotInterval;
+        this.embeddingModelName = embeddingModelName;
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<Long, Entry>() {
+                    // Entries restored from a snapshot keep their original age
+                    @Override
+                    public long expireAfterCreate(Long key, Entry entry, long currentTime) {
+                        return Math.max(0, ttlNanos - ageNanos(entry));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .removalListener((Long key, Entry entry, RemovalCause cause) -> {
+                    if (entry != null && cause != RemovalCause.REPLACED) {
+                        removeFromIndex(entry);
+                    }
+                })
+                .build();
+
+        this.hits = lookupTimer(meterRegistry, "hit");
+        this.misses = lookupTimer(meterRegistry, "miss");
+        this.errors = lookupTimer(meterRegistry, "error");
+        this.searchTimer = Timer.builder("diagram.cache.semantic.search")
+                .description("Nearest-neighbour search of the semantic cache, excluding the embedding call")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.bestSimilarity = DistributionSummary.builder("diagram.cache.semantic.similarity")
+                .description("Cosine similarity of the closest cached topic per lookup, for tuning the threshold")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("diagram.cache.semantic.entries", entries, Cache::estimatedSize)
+                .description("Diagrams in the semantic cache")
+                .register(meterRegistry);
+        Gauge.builder("diagram.cache.semantic.hit.ratio", this, SemanticDiagramCache::hitRatio)
+                .description("Share of semantic lookups served from the cache since startup")
+                .register(meterRegistry);
+
+        this.maintenance = this.enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "semantic-cache");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (enabled && this.embeddingModel == null) {
+            log.warn("Semantic diagram cache is enabled but no embedding model is configured, leaving it off");
+        }
+        log.info("Semantic diagram cache enabled={} threshold={} maxEntries={} ttl={} embeddingModel={}",
+                this.enabled, threshold, maxEntries, ttl, embeddingModelName);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        maintenance.execute(this::loadSnapshot);
+        maintenance.scheduleWithFixedDelay(this::writeSnapshot, snapshotInterval.toMillis(),
+                snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Embeds the topic and returns the cached diagram of the most similar topic when it clears the
+     * threshold. Embedding failures are logged and treated as a miss. Blocks on the embedding call.
+     */
+    public Lookup lookup(String topic, String promptVersion, Collection<String> models) {
+        if (!enabled) {
+            return Lookup.SKIPPED;
+        }
+        long start = System.nanoTime();
+        float[] embedding;
+        try {
+            embedding = HnswIndex.normalize(embeddingModel.embed(topic.strip()));
+        } catch (Exception e) {
+            log.warn("Embedding topic for the semantic cache failed: {}", e.getMessage());
+            errors.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return Lookup.SKIPPED;
+        }
+        if (embedding == null) {
+            errors.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return Lookup.SKIPPED;
+        }
+
+        HnswIndex current = index;
+        Entry nearest = null;
+        double nearestSimilarity = 0;
+        if (current != null && current.dimensions() == embedding.length) {
+            Set<String> scopes = models.stream().map(model -> scope(model, promptVersion)).collect(Collectors.toSet());
+            long searchStart = System.nanoTime();
+            List<HnswIndex.Match> matches = current.search(embedding, NEIGHBOURS, efSearch);
+            searchTimer.record(System.nanoTime() - searchStart, TimeUnit.NANOSECONDS);
+            for (HnswIndex.Match match : matches) {
+                // Reading through the cache refreshes the entry and skips ones evicted since the search
+                Entry entry = entries.getIfPresent(match.key());
+                if (entry == null || !scopes.contains(entry.scope())) {
+                    continue;
+                }
+                bestSimilarity.record(match.similarity());
+                if (match.similarity() >= threshold) {
+                    log.info("Semantic cache hit for topic '{}' via '{}' (similarity {})", topic, entry.topic(),
+                            String.format("%.3f", match.similarity()));
+                    hits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    return new Lookup(embedding, entry.mermaidCode(), match.similarity(), true);
+                }
+                nearest = entry;
+                nearestSimilarity = match.similarity();
+                break;
+            }
+        }
+        misses.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return new Lookup(embedding, nearest != null ? nearest.mermaidCode() : null, nearestSimilarity, false);
+    }
+
+    /**
+     * The closest cached diagram of a missed lookup when it clears the lower degraded threshold, or null.
+     * Only meant for when generation is unavailable and the alternative is a generic fallback.
+     */
+    public String degradedMatch(Lookup lookup) {
+        if (lookup.isHit() || lookup.mermaidCode() == null || lookup.similarity() < degradedThreshold) {
+            return null;
+        }
+        return lookup.mermaidCode();
+    }
+
+    /**
+     * Adds a validated diagram, generated by {@code model}, under the embedding computed by the preceding
+     * {@link #lookup}.
+     */
+    public void put(Lookup lookup, String topic, String promptVersion, String model, String mermaidCode) {
+        if (!enabled || lookup.embedding() == null || lookup.isHit()) {
+            return;
+        }
+        add(scope(model, promptVersion), topic, mermaidCode, lookup.embedding(), System.currentTimeMillis());
+    }
+
+    private void add(String scope, String topic, String mermaidCode, float[] embedding, long createdAt) {
+        long key = nextKey.incrementAndGet();
+        synchronized (indexLock) {
+            if (index == null) {
+                index = new HnswIndex(embedding.length, m, efConstruction);
+            } else if (index.dimensions() != embedding.length) {
+                // The embedding model changed under a running cache; start over with the new one
+                log.warn("Embedding size changed from {} to {}, clearing the semantic cache",
+                        index.dimensions(), embedding.length);
+                index = new HnswIndex(embedding.length, m, efConstruction);
+                entries.invalidateAll();
+            }
+            int node = index.add(key, embedding);
+            entries.put(key, new Entry(key, scope, topic, mermaidCode, embedding, createdAt, index, node));
+        }
+    }
+
+    private void removeFromIndex(Entry entry) {
+        boolean rebuild;
+        synchronized (indexLock) {
+            // Entries still pointing at a replaced graph were either re-added to the rebuilt one or dropped
+            HnswIndex current = index;
+            if (entry.index() != current) {
+                return;
+            }
+            current.remove(entry.node());
+            rebuild = current.deleted() > Math.max(64, current.nodes() * MAX_DELETED_RATIO);
+        }
+        if (rebuild && !maintenance.isShutdown()) {
+            maintenance.execute(this::rebuild);
+        }
+    }
+
+    // Searches keep using the old graph while the new one is built
+    private void rebuild() {
+        synchronized (indexLock) {
+            HnswIndex current = index;
+            if (current == null || current.deleted() <= Math.max(64, current.nodes() * MAX_DELETED_RATIO)) {
+                return;
+            }
+            long start = System.nanoTime();
+            HnswIndex rebuilt = new HnswIndex(current.dimensions(), m, efConstruction);
+            for (Entry entry : new ArrayList<>(entries.asMap().values())) {
+                int node = rebuilt.add(entry.key(), entry.embedding());
+                entries.asMap().computeIfPresent(entry.key(), (key, live) -> withNode(live, rebuilt, node));
+            }
+            index = rebuilt;
+            log.info("Rebuilt semantic cache index: {} live entries, dropped {} deleted nodes in {} ms",
+                    rebuilt.nodes(), current.deleted(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        long start = System.nanoTime();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                log.warn("Ignoring semantic cache snapshot {} with an unknown format", snapshotFile.toAbsolutePath());
+                return;
+            }
+            String snapshotModel = in.readUTF();
+            if (!snapshotModel.equals(embeddingModelName)) {
+                log.info("Ignoring semantic cache snapshot made with embedding model {}", snapshotModel);
+                return;
+            }
+            int count = in.readInt();
+            int dimensions = in.readInt();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                String scope = in.readUTF();
+                String topic = in.readUTF();
+                byte[] code = new byte[in.readInt()];
+                in.readFully(code);
+                long createdAt = in.readLong();
+                float[] embedding = new float[dimensions];
+                for (int d = 0; d < dimensions; d++) {
+                    embedding[d] = in.readFloat();
+                }
+                if (TimeUnit.MILLISECONDS.toNanos(now - createdAt) < ttlNanos) {
+                    add(scope, topic, new String(code, StandardCharsets.UTF_8), embedding, createdAt);
+                    loaded++;
+                }
+            }
+            log.info("Loaded {} semantic cache entries from {} in {} ms", loaded, snapshotFile.toAbsolutePath(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read semantic cache snapshot {} after {} entries: {}",
+                    snapshotFile.toAbsolutePath(), loaded, e.getMessage());
+        }
+    }
+
+    private void writeSnapshot() {
+        List<Entry> snapshot = new ArrayList<>(entries.asMap().values());
+        HnswIndex current = index;
+        if (current == null) {
+            return;
+        }
+        snapshot.removeIf(entry -> entry.embedding().length != current.dimensions());
+        try {
+            Path parent = snapshotFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, "semantic-cache", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeUTF(embeddingModelName);
+                out.writeInt(snapshot.size());
+                out.writeInt(current.dimensions());
+                for (Entry entry : snapshot) {
+                    out.writeUTF(entry.scope());
+                    out.writeUTF(entry.topic());
+                    byte[] code = entry.mermaidCode().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(code.length);
+                    out.write(code);
+                    out.writeLong(entry.createdAt());
+                    for (float value : entry.embedding()) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Wrote {} semantic cache entries to {}", snapshot.size(), snapshotFile.toAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Could not write semantic cache snapshot {}: {}", snapshotFile.toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (!enabled) {
+            return;
+        }
+        maintenance.shutdownNow();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSnapshot();
+    }
+
+    private static String scope(String model, String promptVersion) {
+        return model + "|" + promptVersion;
+    }
+
+    private double hitRatio() {
+        long hitCount = hits.count();
+        long total = hitCount + misses.count() + errors.count();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private static long ageNanos(Entry entry) {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - entry.createdAt());
+    }
+
+    private static Entry withNode(Entry entry, HnswIndex index, int node) {
+        return new Entry(entry.key(), entry.scope(), entry.topic(), entry.mermaidCode(), entry.embedding(),
+                entry.createdAt(), index, node);
+    }
+
+    private static Timer lookupTimer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder("diagram.cache.semantic.lookup")
+                .description("Semantic cache lookups including the embedding call, by result")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,83 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the diagram type for a topic from keyword rules, locally and in microseconds, so the prompt can ask
+ * for that type directly instead of having the model choose. Each matching keyword or phrase scores for its
+ * type, flowchart words half as much since they also describe most other topics; the highest score wins.
+ * Topics with no match or a tie are left unclassified.
+ */
+@Component
+public class TopicClassifier {
+
+    private static final Map<String, List<String>> KEYWORDS = Map.of(
+            "sequenceDiagram", List.of("api", "request", "response", "handshake", "oauth", "oauth2", "login",
+                    "authentication", "protocol", "http", "https", "rpc", "grpc", "websocket", "webhook", "sso",
+                    "tls", "ssl", "message", "messages", "interaction", "communication", "call", "calls",
+                    "dns resolution", "client server"),
+            "classDiagram", List.of("class", "classes", "inheritance", "polymorphism", "oop", "object-oriented",
+                    "object oriented", "interface", "interfaces", "design pattern", "singleton", "factory",
+                    "observer", "encapsulation", "abstraction", "data structure", "data structures"),
+            "stateDiagram", List.of("state", "states", "state machine", "lifecycle", "life cycle", "transition",
+                    "transitions", "status", "traffic light", "vending machine", "finite automaton"),
+            "erDiagram", List.of("database", "schema", "entity", "entities", "relationship", "relationships",
+                    "table", "tables", "relational", "foreign key", "normalization", "sql", "data model"),
+            "journey", List.of("user journey", "customer journey", "user experience", "customer experience",
+                    "onboarding", "ux"),
+            "gantt", List.of("timeline", "schedule", "roadmap", "project plan", "sprint", "milestone",
+                    "milestones", "phases", "history of"),
+            "graph", List.of("process", "workflow", "pipeline", "steps", "flow", "algorithm",
+                    "architecture", "overview", "hierarchy", "cycle")
+    );
+
+    private final MeterRegistry meterRegistry;
+
+    public TopicClassifier(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * The diagram type for the topic, as named by {@link MermaidSyntax#extractDiagramType}, or null when the
+     * rules cannot tell.
+     */
+    public String classify(String topic) {
+        String type = bestMatch(topic);
+        Counter.builder("diagram.topic.classified")
+                .description("Topics by the diagram type the classifier picked")
+                .tag("type", type != null ? type : "unclassified")
+                .register(meterRegistry)
+                .increment();
+        return type;
+    }
+
+    static String bestMatch(String topic) {
+        // Padded with spaces so phrases only match whole words
+        String text = " " + String.join(" ", topic.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}-]+")) + " ";
+        String best = null;
+        int bestScore = 0;
+        boolean tied = false;
+        for (Map.Entry<String, List<String>> rule : KEYWORDS.entrySet()) {
+            int score = 0;
+            for (String keyword : rule.getValue()) {
+                if (text.contains(" " + keyword + " ")) {
+                    score += rule.getKey().equals("graph") ? 1 : 2;
+                }
+            }
+            if (score > bestScore) {
+                best = rule.getKey();
+                bestScore = score;
+                tied = false;
+            } else if (score > 0 && score == bestScore) {
+                tied = true;
+            }
+        }
+        return tied ? null : best;
+    }
+}
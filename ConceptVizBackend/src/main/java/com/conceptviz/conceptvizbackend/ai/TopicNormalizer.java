@@ -0,0 +1,52 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Folds a user supplied topic into a canonical form so that
+ * "OAuth2 flow", "oauth 2 flow" and "OAuth2 Flow " map to the same key,
+ * while "C", "C++" and "C#" stay apart.
+ */
+public final class TopicNormalizer {
+
+    private TopicNormalizer() {
+    }
+
+    public static String normalize(String topic) {
+        if (topic == null) {
+            return "";
+        }
+
+        String folded = Normalizer.normalize(topic, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder result = new StringBuilder(folded.length());
+        int previousKind = 0; // 0 = separator, 1 = letter, 2 = digit, 3 = name suffix
+
+        for (int i = 0; i < folded.length(); ) {
+            int codePoint = folded.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            // "+" and "#" directly after a letter are part of the name ("c++", "f#")
+            if ((codePoint == '+' || codePoint == '#') && (previousKind == 1 || previousKind == 3)) {
+                result.appendCodePoint(codePoint);
+                previousKind = 3;
+                continue;
+            }
+
+            int kind = Character.isLetter(codePoint) ? 1 : Character.isDigit(codePoint) ? 2 : 0;
+            if (kind == 0) {
+                previousKind = 0;
+                continue;
+            }
+
+            // Split on separators and on letter/digit boundaries ("oauth2" -> "oauth 2")
+            if (kind != previousKind && !result.isEmpty()) {
+                result.append(' ');
+            }
+            result.appendCodePoint(codePoint);
+            previousKind = kind;
+        }
+
+        return result.toString();
+    }
+}
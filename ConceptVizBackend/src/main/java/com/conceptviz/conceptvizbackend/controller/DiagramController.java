@@ -1,38 +1,94 @@
 package com.conceptviz.conceptvizbackend.controller;
 
 
+import com.conceptviz.conceptvizbackend.ai.GenerationExecutor;
+import com.conceptviz.conceptvizbackend.ai.InferenceRejectedException;
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.dto.BatchGenerateEvent;
+import com.conceptviz.conceptvizbackend.dto.BatchGenerateRequest;
+import com.conceptviz.conceptvizbackend.dto.DiagramHistoryPage;
 import com.conceptviz.conceptvizbackend.dto.DiagramRequest;
 import com.conceptviz.conceptvizbackend.dto.DiagramResponse;
+import com.conceptviz.conceptvizbackend.dto.DiagramSearchPage;
+import com.conceptviz.conceptvizbackend.dto.DiagramStreamEvent;
+import com.conceptviz.conceptvizbackend.dto.SaveDiagramBatchRequest;
 import com.conceptviz.conceptvizbackend.dto.SaveDiagramRequest;
+import com.conceptviz.conceptvizbackend.search.DiagramSearchSchema;
+import com.conceptviz.conceptvizbackend.security.RequesterResolver;
+import com.conceptviz.conceptvizbackend.service.BatchGenerationService;
 import com.conceptviz.conceptvizbackend.service.DiagramService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/diagram")
 @RequiredArgsConstructor
 public class DiagramController {
 
+    private final BatchGenerationService batchGenerationService;
     private final DiagramService diagramService;
+    private final GenerationExecutor generationExecutor;
+    private final RequesterResolver requesterResolver;
+    private final DiagramSearchSchema diagramSearchSchema;
 
+    // Runs on the generation executor so the Tomcat thread is released while the model works
     @PostMapping("/generate")
-    public ResponseEntity<DiagramResponse> generateDiagram(@Valid @RequestBody DiagramRequest request) {
+    public CompletableFuture<ResponseEntity<DiagramResponse>> generateDiagram(@Valid @RequestBody DiagramRequest request,
+                                                                              HttpServletRequest httpRequest) {
+        // Resolve the caller here, the security context does not follow the task to the executor
+        Requester requester = requesterResolver.resolve(httpRequest);
+        return generationExecutor.submit(() -> diagramService.generateDiagram(request.getTopic(), requester))
+                .thenApply(ResponseEntity::ok)
+                .exceptionally(this::generationFailed);
+    }
+
+    @PostMapping(value = "/generate/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<DiagramStreamEvent>> streamDiagram(@Valid @RequestBody DiagramRequest request,
+                                                                   HttpServletRequest httpRequest) {
+        return diagramService.streamDiagram(request.getTopic(), requesterResolver.resolve(httpRequest))
+                .map(event -> ServerSentEvent.builder(event)
+                        .event(event.getType())
+                        .build());
+    }
+
+    // NDJSON streams are not subject to the async request timeout; a disconnect cancels the remaining topics
+    @PostMapping(value = "/generate/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchGenerateEvent> generateBatch(@Valid @RequestBody BatchGenerateRequest request,
+                                                  HttpServletRequest httpRequest) {
+        Requester requester = requesterResolver.resolve(httpRequest);
+        Long userId = request.isSave() ? diagramService.currentUserId() : null;
+        return batchGenerationService.generate(request.getTopics(), requester, userId);
+    }
+
+    @PostMapping("/save")
+    public ResponseEntity<DiagramResponse> saveDiagram(@Valid @RequestBody SaveDiagramRequest request) {
         try {
-            DiagramResponse response = diagramService.generateDiagram(request.getTopic());
+            DiagramResponse response = diagramService.saveDiagram(request);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            return ResponseEntity.internalServerError().build();
+            return ResponseEntity.badRequest().build();
         }
     }
 
-    @PostMapping("/save")
-    public ResponseEntity<DiagramResponse> saveDiagram(@Valid @RequestBody SaveDiagramRequest request) {
+    @PostMapping("/save/batch")
+    public ResponseEntity<List<DiagramResponse>> saveDiagrams(@Valid @RequestBody SaveDiagramBatchRequest request) {
         try {
-            DiagramResponse response = diagramService.saveDiagram(request);
+            List<DiagramResponse> response = diagramService.saveDiagrams(request.getDiagrams());
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
@@ -40,12 +96,76 @@ public class DiagramController {
     }
 
     @GetMapping("/my-history")
-    public ResponseEntity<List<DiagramResponse>> getMyHistory() {
+    public ResponseEntity<List<DiagramResponse>> getMyHistory(WebRequest webRequest) {
+        try {
+            return versionedHistory(webRequest, diagramService::getUserHistory);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/history")
+    public ResponseEntity<DiagramHistoryPage> getHistoryPage(@RequestParam(required = false) String cursor,
+                                                             @RequestParam(defaultValue = "20") int limit,
+                                                             WebRequest webRequest) {
         try {
-            List<DiagramResponse> history = diagramService.getUserHistory();
-            return ResponseEntity.ok(history);
+            return versionedHistory(webRequest, () -> diagramService.getUserHistoryPage(cursor, limit));
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/search")
+    public ResponseEntity<DiagramSearchPage> search(@RequestParam("q") String query,
+                                                    @RequestParam(defaultValue = "0") int page,
+                                                    @RequestParam(defaultValue = "20") int size) {
+        // The startup check logged why; the search schema has not been applied to this database
+        if (!diagramSearchSchema.isAvailable()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        try {
+            DiagramSearchPage results = diagramService.searchUserDiagrams(query, page, size);
+            return ResponseEntity.ok(results);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<DiagramResponse> getDiagram(@PathVariable Long id) {
+        try {
+            return diagramService.getDiagram(id)
+                    .map(ResponseEntity::ok)
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    // Unchanged history is answered with a 304 from the user's history version, without querying diagrams.
+    // no-cache makes the browser revalidate every time instead of serving a stale list. Only the ETag
+    // validates: Last-Modified has one-second precision, so a save in the same second would look unchanged.
+    private <T> ResponseEntity<T> versionedHistory(WebRequest webRequest, Supplier<T> history) {
+        DiagramService.HistoryState state = diagramService.getHistoryState();
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+        if (webRequest.checkNotModified(state.eTag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().cacheControl(cacheControl);
+        if (state.lastModified() >= 0) {
+            ok.lastModified(state.lastModified());
+        }
+        return ok.body(history.get());
+    }
+
+    private <T> ResponseEntity<T> generationFailed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof InferenceRejectedException rejected) {
+            HttpStatus status = rejected.isPerRequester() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+            return ResponseEntity.status(status)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rejected.getRetryAfterSeconds()))
+                    .build();
+        }
+        return ResponseEntity.internalServerError().build();
+    }
+}
@@ -0,0 +1,49 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * One NDJSON line of a batch generation: a result per distinct topic, in completion order and tagged with the
+ * positions the topic had in the request, then a closing summary.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchGenerateEvent {
+
+    public static final String RESULT = "result";
+    public static final String COMPLETE = "complete";
+
+    private String type;
+    private List<Integer> indexes;
+    private String topic;
+    private String mermaidCode;
+    private Boolean fallback;
+    private Long diagramId;
+    private String error;
+    private Integer total;
+    private Integer unique;
+    private Integer saved;
+    private Integer fallbacks;
+
+    public static BatchGenerateEvent result(List<Integer> indexes, String topic, String mermaidCode, boolean fallback) {
+        return new BatchGenerateEvent(RESULT, indexes, topic, mermaidCode, fallback, null, null,
+                null, null, null, null);
+    }
+
+    public static BatchGenerateEvent failed(List<Integer> indexes, String topic, String error) {
+        return new BatchGenerateEvent(RESULT, indexes, topic, null, null, null, error,
+                null, null, null, null);
+    }
+
+    public static BatchGenerateEvent complete(int total, int unique, int saved, int fallbacks) {
+        return new BatchGenerateEvent(COMPLETE, null, null, null, null, null, null,
+                total, unique, saved, fallbacks);
+    }
+}
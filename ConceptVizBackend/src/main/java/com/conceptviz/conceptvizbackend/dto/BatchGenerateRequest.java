@@ -0,0 +1,19 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchGenerateRequest {
+
+    @NotEmpty(message = "At least one topic is required")
+    @Size(max = 200, message = "At most 200 topics can be generated at once")
+    private List<@NotBlank(message = "Topic is required")
+            @Size(max = 500, message = "Topic must not exceed 500 characters") String> topics;
+
+    private boolean save;
+}
@@ -0,0 +1,15 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramHistoryPage {
+    private List<DiagramSummary> items;
+    private String nextCursor; // null on the last page
+}
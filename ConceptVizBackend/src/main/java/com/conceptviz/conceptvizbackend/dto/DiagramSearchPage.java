@@ -0,0 +1,16 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramSearchPage {
+    private List<DiagramSummary> items; // best match first
+    private int page;
+    private boolean hasNext;
+}
@@ -0,0 +1,38 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DiagramStreamEvent {
+
+    public static final String LINE = "line";
+    public static final String COMPLETE = "complete";
+    public static final String REJECTED = "rejected";
+
+    private String type;
+    private String line;
+    private String topic;
+    private String mermaidCode;
+    private Boolean fallback;
+    private String reason;
+    private Long retryAfterSeconds;
+
+    public static DiagramStreamEvent line(String line) {
+        return new DiagramStreamEvent(LINE, line, null, null, null, null, null);
+    }
+
+    public static DiagramStreamEvent complete(String topic, String mermaidCode, boolean fallback) {
+        return new DiagramStreamEvent(COMPLETE, null, topic, mermaidCode, fallback, null, null);
+    }
+
+    // Overload or a suspended Ollama, as opposed to a result: the client should retry after the hint
+    public static DiagramStreamEvent rejected(String topic, String reason, long retryAfterSeconds) {
+        return new DiagramStreamEvent(REJECTED, null, topic, null, null, reason, retryAfterSeconds);
+    }
+}
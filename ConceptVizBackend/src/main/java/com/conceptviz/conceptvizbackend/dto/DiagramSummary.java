@@ -0,0 +1,18 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramSummary {
+    private Long id;
+    private String topic;
+    private LocalDateTime createdAt;
+    private String diagramType;
+    private Integer codeSize;
+}
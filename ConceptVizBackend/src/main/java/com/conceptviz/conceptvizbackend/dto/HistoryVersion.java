@@ -0,0 +1,16 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistoryVersion {
+    private Long version;
+    private LocalDateTime updatedAt; // null until the first save
+    private LocalDateTime userCreatedAt;
+}
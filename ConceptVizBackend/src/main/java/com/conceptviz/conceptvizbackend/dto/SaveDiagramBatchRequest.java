@@ -0,0 +1,16 @@
+package com.conceptviz.conceptvizbackend.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class SaveDiagramBatchRequest {
+
+    @NotEmpty(message = "At least one diagram is required")
+    @Size(max = 500, message = "At most 500 diagrams can be saved at once")
+    private List<@Valid SaveDiagramRequest> diagrams;
+}
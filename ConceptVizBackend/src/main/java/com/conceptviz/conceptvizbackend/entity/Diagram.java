@@ -1,24 +1,44 @@
 package com.conceptviz.conceptvizbackend.entity;
 
+import com.conceptviz.conceptvizbackend.ai.MermaidSyntax;
+import com.conceptviz.conceptvizbackend.search.DiagramSearchText;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "diagrams")
-@Data
+@Table(name = "diagrams", indexes = {
+        // Serves keyset-paginated history: WHERE user_id = ? ORDER BY created_at DESC, id DESC
+        @Index(name = "idx_diagrams_user_created_id", columnList = "user_id, created_at desc, id desc"),
+        @Index(name = "idx_diagrams_blob_hash", columnList = "blob_hash")
+})
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class Diagram {
 
+    // Ids per diagrams_seq call; the write-behind queue reserves blocks of the same size
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @EqualsAndHashCode.Include
+    // Pooled sequence: one nextval per 50 rows, and unlike IDENTITY it lets Hibernate batch the inserts
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "diagrams_seq")
+    @SequenceGenerator(name = "diagrams_seq", sequenceName = "diagrams_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
+    @ToString.Exclude
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
@@ -26,10 +46,50 @@ public class Diagram {
     @Column(nullable = false, length = 500)
     private String topic;
 
-    @Column(name = "mermaid_code", nullable = false, columnDefinition = "TEXT")
+    // Inline body of rows saved before content-addressed storage, null once moved to a blob
+    @ToString.Exclude
+    @Column(name = "mermaid_code", columnDefinition = "TEXT")
+    private String legacyMermaidCode;
+
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_hash")
+    private DiagramBlob blob;
+
+    // Body as saved, or resolved from the blob (or the legacy column) on first read
+    @ToString.Exclude
+    @Transient
     private String mermaidCode;
 
+    @Column(name = "diagram_type", length = 32)
+    private String diagramType;
+
+    // UTF-8 size of mermaidCode in bytes, so history listings never need to read the body
+    @Column(name = "code_size")
+    private Integer codeSize;
+
+    // Searchable words of the body for full-text search; see DiagramSearchText
+    @ToString.Exclude
+    @Column(name = "search_text", columnDefinition = "TEXT")
+    private String searchText;
+
     @CreationTimestamp
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
+
+    public String getMermaidCode() {
+        if (mermaidCode == null) {
+            mermaidCode = blob != null ? blob.getMermaidCode() : legacyMermaidCode;
+        }
+        return mermaidCode;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void computeSummaryColumns() {
+        String code = getMermaidCode();
+        diagramType = MermaidSyntax.detectDiagramType(code);
+        codeSize = code == null ? 0 : code.getBytes(StandardCharsets.UTF_8).length;
+        searchText = DiagramSearchText.of(code);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.conceptviz.conceptvizbackend.entity;
+
+import com.conceptviz.conceptvizbackend.storage.MermaidBlobCodec;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.Immutable;
+
+import java.time.LocalDateTime;
+
+/**
+ * A unique Mermaid body, stored once and referenced by every {@link Diagram} that saved it.
+ * Keyed by the SHA-256 of the canonical text; see {@link MermaidBlobCodec}.
+ */
+@Entity
+@Immutable
+@Table(name = "diagram_blobs")
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramBlob {
+
+    @Id
+    @EqualsAndHashCode.Include
+    @Column(length = 64)
+    private String hash;
+
+    @ToString.Exclude
+    @Column(nullable = false, length = 1_000_000)
+    private byte[] content;
+
+    @Column(nullable = false, length = 16)
+    private String encoding;
+
+    // UTF-8 size of the canonical text
+    @Column(name = "original_size", nullable = false)
+    private Integer originalSize;
+
+    @Column(name = "stored_size", nullable = false)
+    private Integer storedSize;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    // Decoded once per loaded instance; diagrams sharing a blob in one request share the instance
+    @ToString.Exclude
+    @Transient
+    private String mermaidCode;
+
+    public String getMermaidCode() {
+        if (mermaidCode == null) {
+            mermaidCode = MermaidBlobCodec.decode(encoding, content, originalSize);
+        }
+        return mermaidCode;
+    }
+}
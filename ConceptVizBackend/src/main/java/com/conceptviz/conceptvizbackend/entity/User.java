@@ -2,8 +2,12 @@ package com.conceptviz.conceptvizbackend.entity;
 
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -13,13 +17,18 @@ import java.util.Set;
 
 @Entity
 @Table(name = "users")
-@Data
+@Getter
+@Setter
+@ToString
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class User {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @EqualsAndHashCode.Include
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false)
@@ -28,6 +37,7 @@ public class User {
     @Column(nullable = false)
     private String name;
 
+    @ToString.Exclude
     @Column
     private String password; // Nullable for OAuth users
 
@@ -38,9 +48,20 @@ public class User {
     @Column(name = "provider_id")
     private String providerId;
 
+    // Excluded from toString/equals so logging or comparing a user never initializes the lazy collection
+    @ToString.Exclude
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
     private Set<Diagram> diagrams = new HashSet<>();
 
+    // Bumped whenever the user's saved diagrams change, so history requests can be answered with a 304
+    // from this row alone
+    @ColumnDefault("0")
+    @Column(name = "history_version", nullable = false)
+    private Long historyVersion = 0L;
+
+    @Column(name = "history_updated_at")
+    private LocalDateTime historyUpdatedAt;
+
     @CreationTimestamp
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
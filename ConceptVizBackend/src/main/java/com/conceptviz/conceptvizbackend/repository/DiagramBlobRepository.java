@@ -0,0 +1,16 @@
+package com.conceptviz.conceptvizbackend.repository;
+
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DiagramBlobRepository extends JpaRepository<DiagramBlob, String> {
+
+    @Query("select coalesce(sum(b.originalSize), 0) from DiagramBlob b")
+    long sumOriginalSize();
+
+    @Query("select coalesce(sum(b.storedSize), 0) from DiagramBlob b")
+    long sumStoredSize();
+}
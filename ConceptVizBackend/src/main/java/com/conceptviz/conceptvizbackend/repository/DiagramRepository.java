@@ -1,13 +1,80 @@
 package com.conceptviz.conceptvizbackend.repository;
 
+import com.conceptviz.conceptvizbackend.dto.DiagramSummary;
 import com.conceptviz.conceptvizbackend.entity.Diagram;
-import com.conceptviz.conceptvizbackend.entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface DiagramRepository extends JpaRepository<Diagram, Long> {
-    List<Diagram> findByUserOrderByCreatedAtDesc(User user);
-}
\ No newline at end of file
+    // Bodies live in diagram_blobs; fetch them in the same query instead of one select per row
+    @EntityGraph(attributePaths = "blob")
+    List<Diagram> findByUserIdOrderByCreatedAtDesc(Long userId);
+
+    @Query("""
+            select new com.conceptviz.conceptvizbackend.dto.DiagramSummary(d.id, d.topic, d.createdAt, d.diagramType, d.codeSize)
+            from Diagram d
+            where d.user.id = :userId
+            order by d.createdAt desc, d.id desc
+            """)
+    List<DiagramSummary> findHistoryFirstPage(@Param("userId") Long userId, Pageable pageable);
+
+    @Query("""
+            select new com.conceptviz.conceptvizbackend.dto.DiagramSummary(d.id, d.topic, d.createdAt, d.diagramType, d.codeSize)
+            from Diagram d
+            where d.user.id = :userId
+              and (d.createdAt < :createdAt or (d.createdAt = :createdAt and d.id < :id))
+            order by d.createdAt desc, d.id desc
+            """)
+    List<DiagramSummary> findHistoryPageAfter(@Param("userId") Long userId,
+                                              @Param("createdAt") LocalDateTime createdAt,
+                                              @Param("id") Long id,
+                                              Pageable pageable);
+
+    @EntityGraph(attributePaths = "blob")
+    Optional<Diagram> findByIdAndUserId(Long id, Long userId);
+
+    // Ranked ids only, on the stored search_vector column (db/migration/004_diagram_search.sql)
+    @Query(value = """
+            select d.id
+            from diagrams d, to_tsquery('simple', :query) q
+            where d.user_id = :userId
+              and d.search_vector @@ q
+            order by ts_rank_cd(d.search_vector, q) desc, d.created_at desc, d.id desc
+            limit :limit offset :offset
+            """, nativeQuery = true)
+    List<Long> searchIds(@Param("userId") Long userId,
+                         @Param("query") String query,
+                         @Param("limit") int limit,
+                         @Param("offset") long offset);
+
+    @Query("""
+            select new com.conceptviz.conceptvizbackend.dto.DiagramSummary(d.id, d.topic, d.createdAt, d.diagramType, d.codeSize)
+            from Diagram d
+            where d.user.id = :userId and d.id in :ids
+            """)
+    List<DiagramSummary> findSummaries(@Param("userId") Long userId, @Param("ids") Collection<Long> ids);
+
+    @EntityGraph(attributePaths = "blob")
+    @Query("select d from Diagram d where d.searchText is null order by d.id")
+    List<Diagram> findSearchTextBackfillBatch(Pageable pageable);
+
+    @Query("select d from Diagram d where d.blob is null and d.legacyMermaidCode is not null order by d.id")
+    List<Diagram> findLegacyBatch(Pageable pageable);
+
+    long countByBlobIsNotNull();
+
+    long countByBlobIsNull();
+
+    @Query("select coalesce(sum(d.codeSize), 0) from Diagram d where d.blob is not null")
+    long sumBlobBackedCodeSize();
+}
@@ -1,14 +1,36 @@
 package com.conceptviz.conceptvizbackend.repository;
 
+import com.conceptviz.conceptvizbackend.dto.HistoryVersion;
 import com.conceptviz.conceptvizbackend.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
+
+    @Query("select u.id from User u where u.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
+
+    @Query("""
+            select new com.conceptviz.conceptvizbackend.dto.HistoryVersion(u.historyVersion, u.historyUpdatedAt, u.createdAt)
+            from User u
+            where u.id = :id
+            """)
+    Optional<HistoryVersion> findHistoryVersion(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.historyVersion = u.historyVersion + 1, u.historyUpdatedAt = :at where u.id = :id")
+    int bumpHistoryVersion(@Param("id") Long id, @Param("at") LocalDateTime at);
+
     Boolean existsByEmail(String email);
     Optional<User> findByProviderIdAndAuthProvider(String providerId, User.AuthProvider authProvider);
 }
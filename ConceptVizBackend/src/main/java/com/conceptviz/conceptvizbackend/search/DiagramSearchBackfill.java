@@ -0,0 +1,63 @@
+package com.conceptviz.conceptvizbackend.search;
+
+import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.conceptviz.conceptvizbackend.repository.DiagramRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Fills {@code search_text} for diagrams saved before search existed. Bodies live compressed in
+ * {@code diagram_blobs}, so this cannot be done in SQL; runs in batches at startup until none are left.
+ */
+@Slf4j
+@Component
+public class DiagramSearchBackfill {
+
+    private final DiagramRepository diagramRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public DiagramSearchBackfill(DiagramRepository diagramRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${conceptviz.search.backfill.enabled:true}") boolean enabled,
+                                 @Value("${conceptviz.search.backfill.batch-size:500}") int batchSize) {
+        this.diagramRepository = diagramRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        long indexed = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> backfillBatch());
+            indexed += batch;
+        } while (batch == batchSize);
+
+        if (indexed > 0) {
+            log.info("Indexed {} diagrams for search", indexed);
+        }
+    }
+
+    private int backfillBatch() {
+        List<Diagram> diagrams = diagramRepository.findSearchTextBackfillBatch(PageRequest.of(0, batchSize));
+        for (Diagram diagram : diagrams) {
+            diagram.setSearchText(DiagramSearchText.of(diagram.getMermaidCode()));
+        }
+        return diagrams.size();
+    }
+}
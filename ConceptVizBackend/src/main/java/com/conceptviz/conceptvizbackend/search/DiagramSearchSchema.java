@@ -0,0 +1,58 @@
+package com.conceptviz.conceptvizbackend.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Checks at startup that the database has what {@code DiagramRepository.searchIds} queries. Hibernate creates
+ * {@code search_text} but not the {@code search_vector} column or its index, which come from
+ * {@code db/migration/004_diagram_search.sql}. Without the column search is switched off with one clear log line,
+ * and {@code /diagram/search} answers 503 instead of failing with an SQL error on every call. Runs once all
+ * singletons, including the entity manager factory and its schema update, are created.
+ */
+@Slf4j
+@Component
+public class DiagramSearchSchema implements SmartInitializingSingleton {
+
+    static final String MIGRATION = "db/migration/004_diagram_search.sql";
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile boolean available;
+
+    public DiagramSearchSchema(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        available = hasSearchVector();
+        if (!available) {
+            log.error("diagrams.search_vector is missing, so /diagram/search is disabled; run {} against the database " +
+                    "(Postgres only) and restart", MIGRATION);
+        } else if (!hasSearchIndex()) {
+            log.warn("idx_diagrams_search_vector is missing, so every search scans the user's diagrams; run {}", MIGRATION);
+        }
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    private boolean hasSearchVector() {
+        Integer columns = jdbcTemplate.queryForObject("""
+                select count(*) from information_schema.columns
+                where table_name = 'diagrams' and column_name = 'search_vector'
+                """, Integer.class);
+        return columns != null && columns > 0;
+    }
+
+    // The column is a Postgres tsvector, so pg_indexes is there whenever it exists
+    private boolean hasSearchIndex() {
+        Integer indexes = jdbcTemplate.queryForObject(
+                "select count(*) from pg_indexes where tablename = 'diagrams' and indexname = 'idx_diagrams_search_vector'",
+                Integer.class);
+        return indexes != null && indexes > 0;
+    }
+}
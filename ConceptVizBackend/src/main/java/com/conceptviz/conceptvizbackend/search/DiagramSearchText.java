@@ -0,0 +1,107 @@
+package com.conceptviz.conceptvizbackend.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Searchable words of a diagram and the prefix tsquery for a user's search. Labels, node names and
+ * participants are kept and Mermaid keywords, directions and style attributes are dropped, so a search for
+ * "end" or "fill" does not match every diagram. Words are stored once each, in order of appearance.
+ */
+public final class DiagramSearchText {
+
+    // Bounds the column and the tsvector; diagrams rarely have more distinct words than this
+    static final int MAX_LENGTH = 4000;
+    private static final int MAX_QUERY_TERMS = 8;
+
+    private static final Set<String> KEYWORDS = Set.of(
+            "graph", "flowchart", "subgraph", "end", "direction", "td", "tb", "bt", "lr", "rl",
+            "sequencediagram", "participant", "actor", "activate", "deactivate", "note", "over", "left", "right",
+            "of", "alt", "else", "opt", "loop", "par", "and", "rect", "critical", "break", "autonumber",
+            "classdiagram", "class", "statediagram", "v2", "state", "erdiagram", "journey", "title", "section",
+            "gantt", "dateformat", "axisformat", "excludes", "after", "gitgraph", "commit", "branch", "checkout",
+            "merge", "classdef", "style", "linkstyle", "click", "fill", "stroke", "width", "color", "pk", "fk",
+            "uk", "id");
+
+    private DiagramSearchText() {
+    }
+
+    public static String of(String mermaidCode) {
+        if (mermaidCode == null || mermaidCode.isEmpty()) {
+            return "";
+        }
+        Set<String> seen = new LinkedHashSet<>();
+        StringBuilder text = new StringBuilder();
+        int length = mermaidCode.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(mermaidCode.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(mermaidCode.charAt(i))) {
+                i++;
+            }
+            if (i - start < 2 || isHexColor(mermaidCode, start, i)) {
+                continue;
+            }
+            String word = mermaidCode.substring(start, i);
+            String key = word.toLowerCase(Locale.ROOT);
+            if (KEYWORDS.contains(key) || isNumber(key) || !seen.add(key)) {
+                continue;
+            }
+            if (text.length() + word.length() + 1 > MAX_LENGTH) {
+                break;
+            }
+            if (!text.isEmpty()) {
+                text.append(' ');
+            }
+            text.append(word);
+        }
+        return text.toString();
+    }
+
+    /**
+     * A {@code to_tsquery} expression matching diagrams that contain every word of the search, each as a
+     * prefix so results show up while typing. Null when the search has no words. Only letters and digits
+     * reach the expression, so user input cannot inject tsquery operators.
+     */
+    public static String toPrefixQuery(String search) {
+        if (search == null) {
+            return null;
+        }
+        StringJoiner query = new StringJoiner(" & ");
+        int terms = 0;
+        for (String word : search.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && terms < MAX_QUERY_TERMS) {
+                query.add(word + ":*");
+                terms++;
+            }
+        }
+        return terms == 0 ? null : query.toString();
+    }
+
+    // Style values like #f9f or #333333 sit right after a '#'
+    private static boolean isHexColor(String code, int start, int end) {
+        if (start == 0 || code.charAt(start - 1) != '#') {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.digit(code.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumber(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isDigit(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
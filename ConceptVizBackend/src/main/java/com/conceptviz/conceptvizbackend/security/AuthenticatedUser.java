@@ -0,0 +1,16 @@
+package com.conceptviz.conceptvizbackend.security;
+
+import java.security.Principal;
+
+/**
+ * Principal placed in the security context by {@link JwtAuthenticationFilter}. Built from token
+ * claims, so downstream code can use the user id without loading the {@code User} entity.
+ * {@link #getName()} is the email, which keeps {@code Authentication.getName()} unchanged.
+ */
+public record AuthenticatedUser(Long id, String email, String displayName) implements Principal {
+
+    @Override
+    public String getName() {
+        return email;
+    }
+}
@@ -55,7 +55,7 @@ public class OAuth2AuthenticationSuccessHandler extends SimpleUrlAuthenticationS
                 return userRepository.save(newUser);
             });
 
-            String token = jwtUtil.generateToken(user.getEmail());
+            String token = jwtUtil.generateToken(user);
 
             // Use UriComponentsBuilder for safe URL construction
             String redirectUrl = UriComponentsBuilder
@@ -0,0 +1,42 @@
+package com.conceptviz.conceptvizbackend.security;
+
+import com.conceptviz.conceptvizbackend.repository.UserRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Short-lived cache of principals for tokens that do not carry the user id claim
+ * (issued before it existed), so those still cost at most one user lookup per TTL.
+ */
+@Component
+public class PrincipalCache {
+
+    private final UserRepository userRepository;
+    private final Cache<String, AuthenticatedUser> cache;
+
+    public PrincipalCache(UserRepository userRepository,
+                          @Value("${conceptviz.auth.principal-cache.ttl:60s}") Duration ttl,
+                          @Value("${conceptviz.auth.principal-cache.max-size:10000}") long maxSize,
+                          MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "principals");
+    }
+
+    // Returns null (and caches nothing) when the user no longer exists
+    public AuthenticatedUser getByEmail(String email) {
+        return cache.get(email, key -> userRepository.findByEmail(key)
+                .map(user -> new AuthenticatedUser(user.getId(), user.getEmail(), user.getName()))
+                .orElse(null));
+    }
+}
@@ -0,0 +1,30 @@
+package com.conceptviz.conceptvizbackend.security;
+
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RequesterResolver {
+
+    @Value("${conceptviz.ai.fairness.trust-forwarded-for:false}")
+    private boolean trustForwardedFor;
+
+    public Requester resolve(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return Requester.user(authentication.getName());
+        }
+
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (trustForwardedFor && forwardedFor != null && !forwardedFor.isBlank()) {
+            return Requester.anonymous(forwardedFor.split(",")[0].trim());
+        }
+        return Requester.anonymous(request.getRemoteAddr());
+    }
+}
@@ -1,20 +1,31 @@
 package com.conceptviz.conceptvizbackend.security;
 
 
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.info.InfoEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
@@ -24,6 +35,7 @@ import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import java.util.Arrays;
 import java.util.List;
 
+@Slf4j
 @Configuration
 @EnableWebSecurity
 @RequiredArgsConstructor
@@ -33,13 +45,57 @@ public class SecurityConfig {
     private final UserDetailsService userDetailsService;
     private final OAuth2AuthenticationSuccessHandler oAuth2AuthenticationSuccessHandler;
 
+    private static final String MANAGEMENT_ROLE = "ACTUATOR";
+
+    /**
+     * Actuator endpoints other than health and info answer only to the static management credential over HTTP
+     * Basic, which a scrape job can keep. User JWTs carry no authority here, so a registered user cannot read
+     * metrics or the queue, pool and breaker diagnostics. Without a configured password they are closed to all.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain managementSecurityFilterChain(HttpSecurity http,
+                                                             @Value("${conceptviz.management.username:actuator}") String username,
+                                                             @Value("${conceptviz.management.password:}") String password) throws Exception {
+        InMemoryUserDetailsManager managementUsers = new InMemoryUserDetailsManager();
+        if (password.isBlank()) {
+            log.info("No conceptviz.management.password set; actuator endpoints other than health and info are closed");
+        } else {
+            managementUsers.createUser(User.withUsername(username)
+                    .password(passwordEncoder().encode(password))
+                    .roles(MANAGEMENT_ROLE)
+                    .build());
+        }
+        DaoAuthenticationProvider managementProvider = new DaoAuthenticationProvider();
+        managementProvider.setUserDetailsService(managementUsers);
+        managementProvider.setPasswordEncoder(passwordEncoder());
+
+        http
+                .securityMatcher(EndpointRequest.toAnyEndpoint())
+                .csrf(AbstractHttpConfigurer::disable)
+                .authorizeHttpRequests(auth -> auth
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class, InfoEndpoint.class)).permitAll()
+                        .anyRequest().hasRole(MANAGEMENT_ROLE)
+                )
+                .sessionManagement(session -> session
+                        .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                )
+                .authenticationManager(new ProviderManager(managementProvider))
+                .httpBasic(Customizer.withDefaults());
+
+        return http.build();
+    }
+
     @Bean
+    @Order(2)
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                 .authorizeHttpRequests(auth -> auth
-                        .requestMatchers("/auth/**", "/diagram/generate", "/oauth2/**", "/login/oauth2/**", "/actuator/**", "/error").permitAll()
+                        // Streamed responses are written on an async dispatch, which carries no JWT; the request was authorized already
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                        .requestMatchers("/auth/**", "/diagram/generate", "/diagram/generate/stream", "/oauth2/**", "/login/oauth2/**", "/error").permitAll()
                         .anyRequest().authenticated()
                 )
                 .sessionManagement(session -> session
@@ -1,168 +1,296 @@
 package com.conceptviz.conceptvizbackend.service;
 
+import com.conceptviz.conceptvizbackend.ai.CircuitOpenException;
+import com.conceptviz.conceptvizbackend.ai.DiagramCache;
+import com.conceptviz.conceptvizbackend.ai.DiagramPrompts;
+import com.conceptviz.conceptvizbackend.ai.GenerationCoalescer;
+import com.conceptviz.conceptvizbackend.ai.GenerationGuard;
+import com.conceptviz.conceptvizbackend.ai.GenerationGuards;
+import com.conceptviz.conceptvizbackend.ai.GenerationMetrics;
+import com.conceptviz.conceptvizbackend.ai.InferenceLimiter;
+import com.conceptviz.conceptvizbackend.ai.InferenceRejectedException;
+import com.conceptviz.conceptvizbackend.ai.MermaidRepairer;
+import com.conceptviz.conceptvizbackend.ai.MermaidSanitizer;
+import com.conceptviz.conceptvizbackend.ai.ModelTierRouter;
+import com.conceptviz.conceptvizbackend.ai.OllamaCircuitBreaker;
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.ai.SemanticDiagramCache;
+import com.conceptviz.conceptvizbackend.dto.DiagramStreamEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class AIService {
 
-    private final ChatClient.Builder chatClientBuilder;
-
-    private static final String MERMAID_PROMPT_TEMPLATE = """
-            You are a Mermaid.js diagram expert. Generate ONLY valid Mermaid.js syntax for: {topic}
-            
-            CRITICAL RULES - FOLLOW EXACTLY:
-            1. Return ONLY Mermaid code - NO explanations, NO markdown backticks, NO extra text
-            2. Start with EXACTLY ONE diagram type declaration on the first line
-            3. Use ONLY ONE diagram type - never mix types
-            4. Follow strict Mermaid.js syntax for the chosen type
-            5. Keep it simple and clear and try to make it visually appealing
-            6. If unsure about the topic, create a simple flowchart
-            
-            Choose the BEST diagram type for this topic:
-            - graph TD or graph LR: For processes, workflows, hierarchies, general concepts
-            - sequenceDiagram: For API calls, interactions, communications between entities
-            - classDiagram: For OOP concepts, data structures, class relationships
-            - stateDiagram-v2: For state machines, lifecycles, state transitions
-            - erDiagram: For database schemas, entity relationships
-            - journey: For user journeys, customer experiences
-            - gantt: For timelines, project schedules, roadmaps
-            
-            Topic: {topic}
-            
-            IMPORTANT: Output ONLY the Mermaid code, nothing else. Start immediately with the diagram type.
-            """;
-
-    public String generateDiagram(String topic) {
-        try {
-            log.info("Generating diagram for topic: {}", topic);
+    // The tier that produced a reviewed generation, which scopes its semantic cache entry
+    private record TierResult(ModelTierRouter.ModelTier tier, MermaidRepairer.Result reviewed) {
+    }
+
+    private final ChatClient chatClient;
+    private final DiagramCache diagramCache;
+    private final DiagramPrompts diagramPrompts;
+    private final GenerationCoalescer generationCoalescer;
+    private final GenerationGuards generationGuards;
+    private final GenerationMetrics generationMetrics;
+    private final InferenceLimiter inferenceLimiter;
+    private final MermaidRepairer mermaidRepairer;
+    private final MeterRegistry meterRegistry;
+    private final ModelTierRouter modelTierRouter;
+    private final OllamaCircuitBreaker ollamaCircuitBreaker;
+    private final SemanticDiagramCache semanticDiagramCache;
 
-            PromptTemplate promptTemplate = new PromptTemplate(MERMAID_PROMPT_TEMPLATE);
-            Prompt prompt = promptTemplate.create(java.util.Map.of("topic", topic));
+    public String generateDiagram(String topic, Requester requester) {
+        long start = System.nanoTime();
+        String cacheKey = diagramCache.keyFor(topic, diagramPrompts.version());
+        String cached = diagramCache.get(cacheKey).orElse(null);
+        if (cached != null) {
+            log.info("Serving cached diagram for topic: {}", topic);
+            recordGeneration("exact_cache", start);
+            return cached;
+        }
+
+        // Identical concurrent topics share a single embedding and inference; only the leader sets the source
+        AtomicReference<String> source = new AtomicReference<>("coalesced");
+        String mermaidCode = generationCoalescer.execute(cacheKey, () -> {
+            SemanticDiagramCache.Lookup similar = semanticDiagramCache.lookup(topic, diagramPrompts.version(),
+                    modelTierRouter.models(topic));
+            if (similar.isHit()) {
+                source.set("semantic_cache");
+                diagramCache.put(cacheKey, similar.mermaidCode());
+                return similar.mermaidCode();
+            }
+            if (!ollamaCircuitBreaker.isCallPermitted()) {
+                // Ollama is failing: a close enough cached diagram beats the generic fallback
+                source.set("circuit_open");
+                return semanticDiagramCache.degradedMatch(similar);
+            }
+            source.set("model");
+            try {
+                return generateValidDiagram(topic, cacheKey, similar, requester);
+            } catch (CircuitOpenException e) {
+                // The breaker opened, or another call took the probe, while this one waited for a permit
+                log.warn("Skipped generation for topic '{}': {}", topic, e.getMessage());
+                source.set("circuit_open");
+                return semanticDiagramCache.degradedMatch(similar);
+            }
+        });
+        if (mermaidCode == null) {
+            recordGeneration("fallback", start);
+            return generateFallbackDiagram(topic);
+        }
+        recordGeneration(source.get(), start);
+        return mermaidCode;
+    }
 
-            ChatClient chatClient = chatClientBuilder.build();
-            String response = chatClient.prompt(prompt)
-                    .call()
-                    .content();
+    private void recordGeneration(String source, long start) {
+        Timer.builder("diagram.generate.duration")
+                .description("End-to-end time to produce a diagram, by where it came from")
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
 
-            // Clean and validate the response
-            String cleanedResponse = cleanMermaidCode(response);
+    // Returns null when the model output is unusable so each caller can build its own fallback
+    private String generateValidDiagram(String topic, String cacheKey, SemanticDiagramCache.Lookup similar,
+                                        Requester requester) {
+        try {
+            log.info("Generating diagram for topic: {}", topic);
 
-            // Validate it's proper Mermaid syntax
-            if (!isValidMermaidSyntax(cleanedResponse)) {
+            TierResult generated = generateOnTiers(topic, diagramPrompts.forTopic(topic),
+                    modelTierRouter.plan(topic), requester);
+            MermaidRepairer.Result reviewed = generated.reviewed();
+            if (!reviewed.isUsable()) {
                 log.warn("Generated invalid Mermaid syntax, using fallback");
-                return generateFallbackDiagram(topic);
+                return null;
             }
 
-            log.info("Generated Mermaid code: {}", cleanedResponse);
-            return cleanedResponse;
+            log.info("Generated Mermaid code: {}", reviewed.code());
+            diagramCache.put(cacheKey, reviewed.code());
+            semanticDiagramCache.put(similar, topic, diagramPrompts.version(), generated.tier().model(),
+                    reviewed.code());
+            return reviewed.code();
 
+        } catch (InferenceRejectedException | CircuitOpenException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error generating diagram: ", e);
-            return generateFallbackDiagram(topic);
+            return null;
         }
     }
 
-    private String cleanMermaidCode(String response) {
-        if (response == null || response.trim().isEmpty()) {
-            return "";
-        }
+    // Tries each tier in turn until one produces usable output; returns the last tier tried and its result
+    private TierResult generateOnTiers(String topic, DiagramPrompts.DiagramPrompt diagramPrompt,
+                                                   List<ModelTierRouter.ModelTier> tiers, Requester requester) {
+        TierResult result = null;
+        for (int i = 0; i < tiers.size(); i++) {
+            ModelTierRouter.ModelTier tier = tiers.get(i);
+            long start = System.nanoTime();
+            GenerationGuard guard = generationGuards.newGuard();
+            inferenceLimiter.withPermit(requester, () -> guardedLines(topic, diagramPrompt, tier, guard)).blockLast();
 
-        // Remove markdown code blocks
-        String cleaned = response.replaceAll("```mermaid\\s*", "")
-                .replaceAll("```\\s*", "")
-                .trim();
-
-        // Split into lines and find the diagram start
-        String[] lines = cleaned.split("\n");
-        StringBuilder result = new StringBuilder();
-        boolean foundStart = false;
-        String diagramType = null;
-
-        for (String line : lines) {
-            String trimmedLine = line.trim();
-
-            // Skip empty lines at the start
-            if (!foundStart && trimmedLine.isEmpty()) {
-                continue;
+            // Clean the response, then validate it and repair what can be fixed locally
+            MermaidRepairer.Result reviewed = mermaidRepairer.review(MermaidSanitizer.clean(guard.acceptedText()));
+            modelTierRouter.record(tier, System.nanoTime() - start, reviewed.isUsable());
+            result = new TierResult(tier, reviewed);
+            if (reviewed.isUsable()) {
+                break;
             }
-
-            // Check if this line starts a valid diagram
-            if (!foundStart && isValidDiagramStart(trimmedLine)) {
-                foundStart = true;
-                diagramType = extractDiagramType(trimmedLine);
-                result.append(trimmedLine).append("\n");
-                continue;
+            if (i + 1 < tiers.size()) {
+                modelTierRouter.escalated(tier, tiers.get(i + 1));
             }
+        }
+        return result;
+    }
 
-            // Once we've found the start, add all non-empty lines
-            if (foundStart && !trimmedLine.isEmpty()) {
-                // Don't allow mixing diagram types
-                if (isValidDiagramStart(trimmedLine) && !trimmedLine.startsWith(diagramType)) {
-                    break; // Stop if we encounter a different diagram type
-                }
-                result.append(line).append("\n");
-            }
+    public Flux<DiagramStreamEvent> streamDiagram(String topic, Requester requester) {
+        String cacheKey = diagramCache.keyFor(topic, diagramPrompts.version());
+        String cached = diagramCache.get(cacheKey).orElse(null);
+        if (cached != null) {
+            log.info("Streaming cached diagram for topic: {}", topic);
+            return cachedStream(topic, cached);
         }
 
-        return result.toString().trim();
+        // The embedding call blocks, so the lookup runs off the request thread like the permit wait
+        return Mono.fromCallable(() -> semanticDiagramCache.lookup(topic, diagramPrompts.version(),
+                        modelTierRouter.models(topic)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(similar -> {
+                    if (similar.isHit()) {
+                        diagramCache.put(cacheKey, similar.mermaidCode());
+                        return cachedStream(topic, similar.mermaidCode());
+                    }
+                    if (!ollamaCircuitBreaker.isCallPermitted()) {
+                        String degraded = semanticDiagramCache.degradedMatch(similar);
+                        log.warn("Ollama circuit open, streaming {} for topic: {}",
+                                degraded != null ? "a similar cached diagram" : "the fallback", topic);
+                        return degraded != null ? cachedStream(topic, degraded)
+                                : Mono.just(DiagramStreamEvent.complete(topic, generateFallbackDiagram(topic), true));
+                    }
+                    // As in the blocking path, a breaker that refuses the call after the pre-check degrades the
+                    // same way. Lines already sent are provisional, so the complete event alone carries the result.
+                    return generateStream(topic, cacheKey, similar, requester)
+                            .onErrorResume(CircuitOpenException.class, e -> {
+                                log.warn("Skipped streaming generation for topic '{}': {}", topic, e.getMessage());
+                                String degraded = semanticDiagramCache.degradedMatch(similar);
+                                return Mono.just(degraded != null ? DiagramStreamEvent.complete(topic, degraded, false)
+                                        : DiagramStreamEvent.complete(topic, generateFallbackDiagram(topic), true));
+                            });
+                })
+                .onErrorResume(e -> {
+                    // Overload is not a result: mirror the 503/429 of the blocking endpoint with an explicit event
+                    if (e instanceof InferenceRejectedException rejected) {
+                        log.warn("Streaming generation rejected: {}", e.getMessage());
+                        return Mono.just(DiagramStreamEvent.rejected(topic, rejected.getReason(),
+                                rejected.getRetryAfterSeconds()));
+                    }
+                    log.error("Error streaming diagram: ", e);
+                    return Mono.just(DiagramStreamEvent.complete(topic, generateFallbackDiagram(topic), true));
+                });
     }
 
-    private boolean isValidDiagramStart(String line) {
-        return line.matches("^(graph|flowchart|sequenceDiagram|classDiagram|stateDiagram-v2|erDiagram|journey|gantt|gitGraph).*");
+    private Flux<DiagramStreamEvent> cachedStream(String topic, String mermaidCode) {
+        return Flux.fromArray(mermaidCode.split("\n"))
+                .map(DiagramStreamEvent::line)
+                .concatWith(Mono.just(DiagramStreamEvent.complete(topic, mermaidCode, false)));
     }
 
-    private String extractDiagramType(String line) {
-        if (line.startsWith("graph") || line.startsWith("flowchart")) {
-            return "graph";
-        } else if (line.startsWith("sequenceDiagram")) {
-            return "sequenceDiagram";
-        } else if (line.startsWith("classDiagram")) {
-            return "classDiagram";
-        } else if (line.startsWith("stateDiagram")) {
-            return "stateDiagram";
-        } else if (line.startsWith("erDiagram")) {
-            return "erDiagram";
-        } else if (line.startsWith("journey")) {
-            return "journey";
-        } else if (line.startsWith("gantt")) {
-            return "gantt";
-        } else if (line.startsWith("gitGraph")) {
-            return "gitGraph";
-        }
-        return "graph";
-    }
+    private Flux<DiagramStreamEvent> generateStream(String topic, String cacheKey, SemanticDiagramCache.Lookup similar,
+                                                    Requester requester) {
+        return Flux.defer(() -> {
+            log.info("Streaming diagram for topic: {}", topic);
 
-    private boolean isValidMermaidSyntax(String code) {
-        if (code == null || code.trim().isEmpty()) {
-            return false;
-        }
+            // Only the first tier streams; an escalation replaces its lines in the complete event
+            DiagramPrompts.DiagramPrompt diagramPrompt = diagramPrompts.forTopic(topic);
+            List<ModelTierRouter.ModelTier> tiers = modelTierRouter.plan(topic);
 
-        String firstLine = code.split("\n")[0].trim();
+            GenerationGuard guard = generationGuards.newGuard();
+            Timer firstLineTimer = Timer.builder("diagram.stream.first.line")
+                    .description("Time from request to the first cleaned Mermaid line")
+                    .register(meterRegistry);
+            long start = System.nanoTime();
+            AtomicBoolean firstLineSent = new AtomicBoolean();
 
-        // Must start with a valid diagram type
-        if (!isValidDiagramStart(firstLine)) {
-            return false;
-        }
+            // Wait for an inference permit off the request thread
+            Flux<String> lines = inferenceLimiter.withPermit(requester,
+                            () -> guardedLines(topic, diagramPrompt, tiers.get(0), guard))
+                    .doOnNext(line -> {
+                        if (firstLineSent.compareAndSet(false, true)) {
+                            firstLineTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                    });
+
+            return lines.map(DiagramStreamEvent::line)
+                    .concatWith(Mono.defer(() -> completeStream(topic, cacheKey, similar, diagramPrompt,
+                            tiers, start, guard.acceptedText(), requester)));
+        });
+    }
 
-        // Must have at least 2 lines
-        String[] lines = code.split("\n");
-        if (lines.length < 2) {
-            return false;
+    // Cancels the Ollama request as soon as the guard decides the rest of the output is not worth generating
+    private Flux<String> guardedLines(String topic, DiagramPrompts.DiagramPrompt diagramPrompt,
+                                      ModelTierRouter.ModelTier tier, GenerationGuard guard) {
+        Prompt prompt = new Prompt(diagramPrompt.render(topic), tier.options(diagramPrompt.numPredict()));
+        return Flux.defer(() -> {
+            GenerationMetrics.Call call = generationMetrics.start(tier.model(), diagramPrompt.type());
+            return ollamaCircuitBreaker.protect(chatClient.prompt(prompt).stream().chatResponse())
+                    .mapNotNull(call::onResponse)
+                    .map(guard::accept)
+                    .takeUntil(lines -> guard.isAborted())
+                    .concatMapIterable(lines -> lines)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(guard.finish())))
+                    .doOnError(call::failed)
+                    .doFinally(signal -> {
+                        generationGuards.record(guard, tier.numPredictFor(diagramPrompt.numPredict()));
+                        call.finish(signal, guard);
+                    });
+        });
+    }
+
+    // The streamed lines are provisional; the batch cleaner has the final say
+    private Mono<DiagramStreamEvent> completeStream(String topic, String cacheKey, SemanticDiagramCache.Lookup similar,
+                                                    DiagramPrompts.DiagramPrompt diagramPrompt,
+                                                    List<ModelTierRouter.ModelTier> tiers, long start, String response,
+                                                    Requester requester) {
+        MermaidRepairer.Result reviewed = mermaidRepairer.review(MermaidSanitizer.clean(response));
+        modelTierRouter.record(tiers.get(0), System.nanoTime() - start, reviewed.isUsable());
+
+        if (!reviewed.isUsable() && tiers.size() > 1) {
+            // The larger tiers run as a blocking generation, off the stream's thread
+            modelTierRouter.escalated(tiers.get(0), tiers.get(1));
+            return Mono.fromCallable(() -> generateOnTiers(topic, diagramPrompt, tiers.subList(1, tiers.size()),
+                            requester))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(escalated -> completeEvent(topic, cacheKey, similar, escalated.tier().model(),
+                            escalated.reviewed()));
         }
+        return Mono.just(completeEvent(topic, cacheKey, similar, tiers.get(0).model(), reviewed));
+    }
 
-        // Should not contain obvious errors
-        if (code.contains("```") || code.contains("Here is") || code.contains("Here's")) {
-            return false;
+    private DiagramStreamEvent completeEvent(String topic, String cacheKey, SemanticDiagramCache.Lookup similar,
+                                             String model, MermaidRepairer.Result reviewed) {
+        if (!reviewed.isUsable()) {
+            log.warn("Streamed invalid Mermaid syntax, using fallback");
+            return DiagramStreamEvent.complete(topic, generateFallbackDiagram(topic), true);
         }
 
-        return true;
+        diagramCache.put(cacheKey, reviewed.code());
+        semanticDiagramCache.put(similar, topic, diagramPrompts.version(), model, reviewed.code());
+        return DiagramStreamEvent.complete(topic, reviewed.code(), false);
     }
 
     private String generateFallbackDiagram(String topic) {
@@ -34,7 +34,7 @@ public class AuthService {
 
         userRepository.save(user);
 
-        String token = jwtUtil.generateToken(user.getEmail());
+        String token = jwtUtil.generateToken(user);
 
         return new AuthResponse(token, user.getEmail(), user.getName(), "User registered successfully");
     }
@@ -47,7 +47,7 @@ public class AuthService {
         User user = userRepository.findByEmail(request.getEmail())
                 .orElseThrow(() -> new RuntimeException("User not found"));
 
-        String token = jwtUtil.generateToken(user.getEmail());
+        String token = jwtUtil.generateToken(user);
 
         return new AuthResponse(token, user.getEmail(), user.getName(), "Login successful");
     }
@@ -0,0 +1,165 @@
+package com.conceptviz.conceptvizbackend.service;
+
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.ai.TopicNormalizer;
+import com.conceptviz.conceptvizbackend.dto.BatchGenerateEvent;
+import com.conceptviz.conceptvizbackend.dto.DiagramResponse;
+import com.conceptviz.conceptvizbackend.dto.DiagramStreamEvent;
+import com.conceptviz.conceptvizbackend.dto.SaveDiagramRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Generates diagrams for a list of topics. Topics that normalise to the same text are generated once, and at
+ * most {@code parallelism} of the distinct ones are in flight at a time, each going through
+ * {@link AIService#streamDiagram} so a batch shares the caches, the breaker and its caller's fair share of the
+ * inference limiter with single requests. Results are emitted in completion order.
+ * <p>
+ * With a user id, generated diagrams are added to that user's history in bulk inserts of up to
+ * {@code save-batch-size} rows, holding a result back for at most {@code save-max-delay} so it carries its
+ * diagram id. Fallback diagrams are not saved.
+ * <p>
+ * All work is driven by the returned flux: cancelling it, as a client disconnect does, cancels the generations
+ * in flight and the topics not yet started.
+ */
+@Slf4j
+@Service
+public class BatchGenerationService {
+
+    private record Item(String topic, List<Integer> indexes) {
+    }
+
+    private final AIService aiService;
+    private final DiagramService diagramService;
+    private final MeterRegistry meterRegistry;
+    private final int parallelism;
+    private final int saveBatchSize;
+    private final Duration saveMaxDelay;
+
+    public BatchGenerationService(AIService aiService,
+                                  DiagramService diagramService,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${conceptviz.ai.batch.parallelism:2}") int parallelism,
+                                  @Value("${conceptviz.ai.batch.save-batch-size:20}") int saveBatchSize,
+                                  @Value("${conceptviz.ai.batch.save-max-delay:1s}") Duration saveMaxDelay) {
+        this.aiService = aiService;
+        this.diagramService = diagramService;
+        this.meterRegistry = meterRegistry;
+        this.parallelism = Math.max(1, parallelism);
+        this.saveBatchSize = Math.max(1, saveBatchSize);
+        this.saveMaxDelay = saveMaxDelay;
+    }
+
+    /**
+     * Streams one result per distinct topic and then a summary. The user id, resolved by the caller on the
+     * request thread, is null when nothing should be saved.
+     */
+    public Flux<BatchGenerateEvent> generate(List<String> topics, Requester requester, Long userId) {
+        List<Item> items = distinct(topics);
+        DistributionSummary.builder("diagram.batch.topics")
+                .description("Distinct topics per batch generation request")
+                .register(meterRegistry)
+                .record(items.size());
+        log.info("Batch generation of {} topics ({} distinct), save={}", topics.size(), items.size(), userId != null);
+
+        Flux<BatchGenerateEvent> results = Flux.fromIterable(items)
+                .flatMap(item -> generate(item, requester), parallelism);
+        if (userId != null) {
+            results = results.bufferTimeout(saveBatchSize, saveMaxDelay)
+                    .concatMap(chunk -> Mono.fromCallable(() -> save(userId, chunk))
+                            .subscribeOn(Schedulers.boundedElastic()))
+                    .flatMapIterable(Function.identity());
+        }
+
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger fallbacks = new AtomicInteger();
+        return results
+                .doOnNext(event -> {
+                    if (event.getDiagramId() != null) {
+                        saved.incrementAndGet();
+                    }
+                    if (Boolean.TRUE.equals(event.getFallback())) {
+                        fallbacks.incrementAndGet();
+                    }
+                })
+                .concatWith(Mono.fromSupplier(() ->
+                        BatchGenerateEvent.complete(topics.size(), items.size(), saved.get(), fallbacks.get())))
+                .doOnCancel(() -> {
+                    log.info("Batch generation cancelled by the client");
+                    Counter.builder("diagram.batch.cancelled")
+                            .description("Batch generations stopped because the client went away")
+                            .register(meterRegistry)
+                            .increment();
+                });
+    }
+
+    private Mono<BatchGenerateEvent> generate(Item item, Requester requester) {
+        return aiService.streamDiagram(item.topic(), requester)
+                .filter(event -> !DiagramStreamEvent.LINE.equals(event.getType()))
+                .next()
+                .map(event -> DiagramStreamEvent.REJECTED.equals(event.getType())
+                        ? BatchGenerateEvent.failed(item.indexes(), item.topic(), "rejected_" + event.getReason())
+                        : BatchGenerateEvent.result(item.indexes(), item.topic(), event.getMermaidCode(),
+                                Boolean.TRUE.equals(event.getFallback())))
+                .switchIfEmpty(Mono.fromSupplier(() ->
+                        BatchGenerateEvent.failed(item.indexes(), item.topic(), "generation_failed")))
+                .onErrorResume(e -> {
+                    log.warn("Batch generation failed for topic: {}", item.topic(), e);
+                    return Mono.just(BatchGenerateEvent.failed(item.indexes(), item.topic(), "generation_failed"));
+                });
+    }
+
+    private List<BatchGenerateEvent> save(Long userId, List<BatchGenerateEvent> chunk) {
+        List<BatchGenerateEvent> generated = chunk.stream()
+                .filter(event -> event.getError() == null && !Boolean.TRUE.equals(event.getFallback()))
+                .toList();
+        if (generated.isEmpty()) {
+            return chunk;
+        }
+
+        List<SaveDiagramRequest> requests = new ArrayList<>(generated.size());
+        for (BatchGenerateEvent event : generated) {
+            SaveDiagramRequest request = new SaveDiagramRequest();
+            request.setTopic(event.getTopic());
+            request.setMermaidCode(event.getMermaidCode());
+            requests.add(request);
+        }
+        try {
+            List<DiagramResponse> responses = diagramService.saveDiagrams(userId, requests);
+            for (int i = 0; i < generated.size(); i++) {
+                generated.get(i).setDiagramId(responses.get(i).getId());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Saving {} batch generated diagrams failed", generated.size(), e);
+            generated.forEach(event -> event.setError("save_failed"));
+        }
+        return chunk;
+    }
+
+    // Keeps the first spelling of each topic and every position it was requested at
+    private static List<Item> distinct(List<String> topics) {
+        Map<String, Item> items = new LinkedHashMap<>();
+        for (int i = 0; i < topics.size(); i++) {
+            String topic = topics.get(i).trim();
+            items.computeIfAbsent(TopicNormalizer.normalize(topic), key -> new Item(topic, new ArrayList<>()))
+                    .indexes()
+                    .add(i);
+        }
+        return new ArrayList<>(items.values());
+    }
+}
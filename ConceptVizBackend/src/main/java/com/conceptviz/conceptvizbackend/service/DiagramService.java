@@ -1,17 +1,50 @@
 package com.conceptviz.conceptvizbackend.service;
 
 
+import com.conceptviz.conceptvizbackend.ai.MermaidSyntax;
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.dto.DiagramHistoryPage;
 import com.conceptviz.conceptvizbackend.dto.DiagramResponse;
+import com.conceptviz.conceptvizbackend.dto.DiagramSearchPage;
+import com.conceptviz.conceptvizbackend.dto.DiagramStreamEvent;
+import com.conceptviz.conceptvizbackend.dto.DiagramSummary;
+import com.conceptviz.conceptvizbackend.dto.HistoryVersion;
 import com.conceptviz.conceptvizbackend.dto.SaveDiagramRequest;
 import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
 import com.conceptviz.conceptvizbackend.entity.User;
 import com.conceptviz.conceptvizbackend.repository.DiagramRepository;
 import com.conceptviz.conceptvizbackend.repository.UserRepository;
+import com.conceptviz.conceptvizbackend.search.DiagramSearchText;
+import com.conceptviz.conceptvizbackend.security.AuthenticatedUser;
+import com.conceptviz.conceptvizbackend.storage.DiagramBlobStore;
+import com.conceptviz.conceptvizbackend.storage.MermaidBlobCodec;
+import com.conceptviz.conceptvizbackend.storage.PendingSave;
+import com.conceptviz.conceptvizbackend.storage.WriteBehindSaveQueue;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -21,9 +54,15 @@ public class DiagramService {
     private final DiagramRepository diagramRepository;
     private final UserRepository userRepository;
     private final AIService aiService;
+    private final DiagramBlobStore diagramBlobStore;
+    private final WriteBehindSaveQueue writeBehindSaveQueue;
+    private final MeterRegistry meterRegistry;
+    private final TransactionTemplate transactionTemplate;
 
-    public DiagramResponse generateDiagram(String topic) {
-        String mermaidCode = aiService.generateDiagram(topic);
+    private static final int MAX_HISTORY_PAGE_SIZE = 100;
+
+    public DiagramResponse generateDiagram(String topic, Requester requester) {
+        String mermaidCode = aiService.generateDiagram(topic, requester);
 
         DiagramResponse response = new DiagramResponse();
         response.setTopic(topic);
@@ -32,34 +71,203 @@ public class DiagramService {
         return response;
     }
 
+    public Flux<DiagramStreamEvent> streamDiagram(String topic, Requester requester) {
+        return aiService.streamDiagram(topic, requester);
+    }
+
     public DiagramResponse saveDiagram(SaveDiagramRequest request) {
-        String userEmail = SecurityContextHolder.getContext().getAuthentication().getName();
-        User user = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"));
+        Long userId = currentUserId();
+        String code = MermaidBlobCodec.canonicalize(request.getMermaidCode());
+        if (writeBehindSaveQueue.accepts()) {
+            return mapToResponse(writeBehindSaveQueue.save(userId, request.getTopic(), code));
+        }
 
+        // Reference proxy: the insert only needs the foreign key, not a SELECT of the user row
+        User user = userRepository.getReferenceById(userId);
         Diagram diagram = new Diagram();
         diagram.setUser(user);
         diagram.setTopic(request.getTopic());
-        diagram.setMermaidCode(request.getMermaidCode());
+        diagram.setMermaidCode(code);
 
-        Diagram savedDiagram = diagramRepository.save(diagram);
+        // One transaction for the body, the row and the version bump, without holding a connection on the
+        // write-behind path above
+        Diagram savedDiagram = timed("save", () -> transactionTemplate.execute(status -> {
+            diagram.setBlob(diagramBlobStore.store(code));
+            Diagram saved = diagramRepository.save(diagram);
+            // After the insert: a reader never pairs the new version with the old history
+            userRepository.bumpHistoryVersion(userId, LocalDateTime.now());
+            return saved;
+        }));
 
         return mapToResponse(savedDiagram);
     }
 
-    public List<DiagramResponse> getUserHistory() {
-        String userEmail = SecurityContextHolder.getContext().getAuthentication().getName();
-        User user = userRepository.findByEmail(userEmail)
+    // One transaction: bodies go out in a single batched upsert, diagram rows as JDBC batches on flush
+    @Transactional
+    public List<DiagramResponse> saveDiagrams(List<SaveDiagramRequest> requests) {
+        return saveDiagrams(currentUserId(), requests);
+    }
+
+    // For callers off the request thread, which resolve the user up front with currentUserId()
+    @Transactional
+    public List<DiagramResponse> saveDiagrams(Long userId, List<SaveDiagramRequest> requests) {
+        User user = userRepository.getReferenceById(userId);
+
+        List<Diagram> diagrams = new ArrayList<>(requests.size());
+        for (SaveDiagramRequest request : requests) {
+            Diagram diagram = new Diagram();
+            diagram.setUser(user);
+            diagram.setTopic(request.getTopic());
+            diagram.setMermaidCode(MermaidBlobCodec.canonicalize(request.getMermaidCode()));
+            diagrams.add(diagram);
+        }
+
+        List<Diagram> savedDiagrams = timed("save_batch", () -> {
+            Map<String, DiagramBlob> blobs = diagramBlobStore.storeAll(diagrams.stream().map(Diagram::getMermaidCode).toList());
+            diagrams.forEach(diagram -> diagram.setBlob(blobs.get(diagram.getMermaidCode())));
+            List<Diagram> saved = diagramRepository.saveAll(diagrams);
+            diagramRepository.flush();
+            userRepository.bumpHistoryVersion(user.getId(), LocalDateTime.now());
+            return saved;
+        });
+
+        return savedDiagrams.stream()
+                .map(this::mapToResponse)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Validators for the caller's history: a strong ETag, which changes with every save, and the last-modified
+     * time, which is only informational since HTTP dates have one-second precision. Costs one primary-key read
+     * of the user row. Read it before the history itself, so a concurrent save can only make the validators
+     * older than the body, never newer.
+     */
+    public HistoryState getHistoryState() {
+        Long userId = currentUserId();
+        List<PendingSave> pending = writeBehindSaveQueue.pendingFor(userId);
+        HistoryVersion version = timed("history_version", () -> userRepository.findHistoryVersion(userId))
                 .orElseThrow(() -> new RuntimeException("User not found"));
 
-        List<Diagram> diagrams = diagramRepository.findByUserOrderByCreatedAtDesc(user);
+        LocalDateTime lastModified = version.getUpdatedAt() != null ? version.getUpdatedAt() : version.getUserCreatedAt();
+        StringBuilder eTag = new StringBuilder("u").append(userId).append(".v").append(version.getVersion());
+        // Write-behind saves are in the history before their flush bumps the version
+        if (!pending.isEmpty()) {
+            eTag.append(".p").append(pending.size()).append('.').append(pending.get(0).id());
+            LocalDateTime newestPending = pending.get(0).createdAt();
+            if (lastModified == null || newestPending.isAfter(lastModified)) {
+                lastModified = newestPending;
+            }
+        }
+        long lastModifiedMillis = lastModified == null ? -1
+                : lastModified.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return new HistoryState("\"" + eTag + "\"", lastModifiedMillis);
+    }
+
+    public List<DiagramResponse> getUserHistory() {
+        Long userId = currentUserId();
+        List<PendingSave> pending = writeBehindSaveQueue.pendingFor(userId);
+        List<Diagram> diagrams = timed("history", () -> diagramRepository.findByUserIdOrderByCreatedAtDesc(userId));
 
-        return diagrams.stream()
+        List<DiagramResponse> history = diagrams.stream()
                 .map(this::mapToResponse)
                 .collect(Collectors.toList());
+        return withPending(history, pending, this::mapToResponse, DiagramResponse::getId,
+                Comparator.comparing(DiagramResponse::getCreatedAt).thenComparing(DiagramResponse::getId).reversed());
     }
 
-    private DiagramResponse mapToResponse(Diagram diagram) {
+    public DiagramHistoryPage getUserHistoryPage(String cursor, int limit) {
+        Long userId = currentUserId();
+        int pageSize = Math.min(Math.max(limit, 1), MAX_HISTORY_PAGE_SIZE);
+
+        // Fetch one extra row to know whether another page follows
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+        List<DiagramSummary> rows;
+        if (cursor == null || cursor.isBlank()) {
+            // Saves still in the write-behind queue are the newest, so only the first page can contain them
+            List<PendingSave> pending = writeBehindSaveQueue.pendingFor(userId);
+            List<DiagramSummary> stored = timed("history_page", () -> diagramRepository.findHistoryFirstPage(userId, page));
+            rows = withPending(stored, pending, this::toSummary, DiagramSummary::getId,
+                    Comparator.comparing(DiagramSummary::getCreatedAt).thenComparing(DiagramSummary::getId).reversed());
+        } else {
+            HistoryCursor after = HistoryCursor.decode(cursor);
+            rows = timed("history_page", () ->
+                    diagramRepository.findHistoryPageAfter(userId, after.createdAt(), after.id(), page));
+        }
+
+        if (rows.size() <= pageSize) {
+            return new DiagramHistoryPage(rows, null);
+        }
+        List<DiagramSummary> items = rows.subList(0, pageSize);
+        DiagramSummary last = items.get(pageSize - 1);
+        return new DiagramHistoryPage(items, new HistoryCursor(last.getCreatedAt(), last.getId()).encode());
+    }
+
+    public DiagramSearchPage searchUserDiagrams(String search, int page, int size) {
+        Long userId = currentUserId();
+        int pageNumber = Math.max(page, 0);
+        int pageSize = Math.min(Math.max(size, 1), MAX_HISTORY_PAGE_SIZE);
+        String query = DiagramSearchText.toPrefixQuery(search);
+        if (query == null) {
+            return new DiagramSearchPage(List.of(), pageNumber, false);
+        }
+
+        // Rank on ids through the index, then load summaries for just the page
+        List<Long> ids = timed("search", () ->
+                diagramRepository.searchIds(userId, query, pageSize + 1, (long) pageNumber * pageSize));
+        boolean hasNext = ids.size() > pageSize;
+        List<Long> pageIds = hasNext ? ids.subList(0, pageSize) : ids;
+        if (pageIds.isEmpty()) {
+            return new DiagramSearchPage(List.of(), pageNumber, false);
+        }
+        Map<Long, DiagramSummary> summaries = diagramRepository.findSummaries(userId, pageIds).stream()
+                .collect(Collectors.toMap(DiagramSummary::getId, Function.identity()));
+        List<DiagramSummary> items = pageIds.stream()
+                .map(summaries::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return new DiagramSearchPage(items, pageNumber, hasNext);
+    }
+
+    public Optional<DiagramResponse> getDiagram(Long id) {
+        Long userId = currentUserId();
+        Optional<PendingSave> pending = writeBehindSaveQueue.pending(id).filter(save -> save.userId() == userId);
+        if (pending.isPresent()) {
+            return pending.map(this::mapToResponse);
+        }
+        return timed("get", () -> diagramRepository.findByIdAndUserId(id, userId))
+                .map(this::mapToResponse);
+    }
+
+    // The JWT filter already put the user id in the principal; only other authentication types need a lookup
+    public Long currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication.getPrincipal() instanceof AuthenticatedUser principal && principal.id() != null) {
+            return principal.id();
+        }
+        return userRepository.findIdByEmail(authentication.getName())
+                .orElseThrow(() -> new RuntimeException("User not found"));
+    }
+
+    // Repository time per operation; per-query timings are in spring.data.repository.invocations
+    private <T> T timed(String operation, Supplier<T> work) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = work.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("diagram.db.duration")
+                    .description("Database time per diagram operation")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    // Package-private for the history benchmarks
+    DiagramResponse mapToResponse(Diagram diagram) {
         DiagramResponse response = new DiagramResponse();
         response.setId(diagram.getId());
         response.setTopic(diagram.getTopic());
@@ -67,4 +275,53 @@ public class DiagramService {
         response.setCreatedAt(diagram.getCreatedAt());
         return response;
     }
-}
\ No newline at end of file
+
+    private DiagramResponse mapToResponse(PendingSave save) {
+        return new DiagramResponse(save.id(), save.topic(), save.mermaidCode(), save.createdAt());
+    }
+
+    private DiagramSummary toSummary(PendingSave save) {
+        return new DiagramSummary(save.id(), save.topic(), save.createdAt(),
+                MermaidSyntax.detectDiagramType(save.mermaidCode()),
+                save.mermaidCode().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    // Read-your-writes for write-behind saves; a save flushed between the two reads is listed once
+    private static <T> List<T> withPending(List<T> stored, List<PendingSave> pending, Function<PendingSave, T> mapper,
+                                           Function<T, Long> id, Comparator<T> newestFirst) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        Set<Long> storedIds = stored.stream().map(id).collect(Collectors.toSet());
+        List<T> merged = new ArrayList<>(stored);
+        pending.stream()
+                .filter(save -> !storedIds.contains(save.id()))
+                .map(mapper)
+                .forEach(merged::add);
+        merged.sort(newestFirst);
+        return merged;
+    }
+
+    public record HistoryState(String eTag, long lastModified) {
+    }
+
+    // Opaque keyset position (created_at, id) of the last row on a history page
+    private record HistoryCursor(LocalDateTime createdAt, Long id) {
+
+        String encode() {
+            String raw = createdAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static HistoryCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new HistoryCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid history cursor", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
+import com.conceptviz.conceptvizbackend.repository.DiagramRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves diagrams saved before content-addressed storage from the inline {@code mermaid_code} column
+ * into {@code diagram_blobs}, one batch per transaction. Reads keep working on unmigrated rows, so this
+ * can run alongside traffic and resume after a restart.
+ */
+@Slf4j
+@Component
+public class DiagramBlobMigration {
+
+    private final DiagramRepository diagramRepository;
+    private final DiagramBlobStore blobStore;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public DiagramBlobMigration(DiagramRepository diagramRepository,
+                                DiagramBlobStore blobStore,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${conceptviz.storage.blob-migration.enabled:true}") boolean enabled,
+                                @Value("${conceptviz.storage.blob-migration.batch-size:500}") int batchSize) {
+        this.diagramRepository = diagramRepository;
+        this.blobStore = blobStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrate() {
+        if (!enabled) {
+            return;
+        }
+        long migrated = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> migrateBatch());
+            migrated += batch;
+        } while (batch == batchSize);
+
+        if (migrated > 0) {
+            log.info("Moved {} diagrams to content-addressed storage", migrated);
+        }
+    }
+
+    private int migrateBatch() {
+        List<Diagram> diagrams = diagramRepository.findLegacyBatch(PageRequest.of(0, batchSize));
+        for (Diagram diagram : diagrams) {
+            diagram.setMermaidCode(MermaidBlobCodec.canonicalize(diagram.getLegacyMermaidCode()));
+        }
+        Map<String, DiagramBlob> blobs = blobStore.storeAll(diagrams.stream().map(Diagram::getMermaidCode).toList());
+        for (Diagram diagram : diagrams) {
+            diagram.setBlob(blobs.get(diagram.getMermaidCode()));
+            diagram.setLegacyMermaidCode(null);
+        }
+        return diagrams.size();
+    }
+}
@@ -0,0 +1,116 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
+import com.conceptviz.conceptvizbackend.repository.DiagramBlobRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upserts Mermaid bodies into {@code diagram_blobs} by content hash. Hashes known to be stored are
+ * remembered, so re-saving a popular diagram costs neither the compression nor the insert.
+ */
+@Service
+public class DiagramBlobStore {
+
+    // Single round trip per batch whether or not the bodies are new; concurrent saves of one body cannot collide
+    private static final String INSERT_IF_ABSENT = """
+            insert into diagram_blobs (hash, content, encoding, original_size, stored_size, created_at)
+            values (?, ?, ?, ?, ?, current_timestamp)
+            on conflict do nothing
+            """;
+
+    private final DiagramBlobRepository blobRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<String, Boolean> knownHashes;
+    private final Counter newBlobs;
+    private final Counter existingBlobs;
+
+    public DiagramBlobStore(DiagramBlobRepository blobRepository,
+                            JdbcTemplate jdbcTemplate,
+                            @Value("${conceptviz.storage.known-blobs.max-size:10000}") long maxKnown,
+                            MeterRegistry meterRegistry) {
+        this.blobRepository = blobRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.knownHashes = Caffeine.newBuilder()
+                .maximumSize(maxKnown)
+                .build();
+        this.newBlobs = savesCounter(meterRegistry, "new");
+        this.existingBlobs = savesCounter(meterRegistry, "existing");
+    }
+
+    /**
+     * Makes sure the canonical body is stored and returns a reference to its blob for the diagram row.
+     */
+    public DiagramBlob store(String canonicalCode) {
+        return storeAll(List.of(canonicalCode)).get(canonicalCode);
+    }
+
+    /**
+     * Stores every distinct body in one batched statement and returns blob references keyed by body.
+     */
+    public Map<String, DiagramBlob> storeAll(Collection<String> canonicalCodes) {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        for (String code : canonicalCodes) {
+            hashes.computeIfAbsent(code, MermaidBlobCodec::hash);
+        }
+
+        List<String> unknown = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        for (Map.Entry<String, String> body : hashes.entrySet()) {
+            String hash = body.getValue();
+            if (knownHashes.getIfPresent(hash) != null) {
+                existingBlobs.increment();
+            } else {
+                MermaidBlobCodec.Encoded encoded = MermaidBlobCodec.encode(body.getKey());
+                unknown.add(hash);
+                rows.add(new Object[]{hash, encoded.content(), encoded.encoding(), encoded.originalSize(),
+                        encoded.content().length});
+            }
+        }
+        if (!rows.isEmpty()) {
+            for (int count : jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, rows)) {
+                // Rewritten batches (reWriteBatchedInserts) only report SUCCESS_NO_INFO; counted as new
+                (count == 0 ? existingBlobs : newBlobs).increment();
+            }
+            unknown.forEach(this::remember);
+        }
+
+        Map<String, DiagramBlob> blobs = new LinkedHashMap<>();
+        hashes.forEach((code, hash) -> blobs.put(code, blobRepository.getReferenceById(hash)));
+        return blobs;
+    }
+
+    // Inside a transaction the row only exists once it commits; a rollback must not leave a stale entry
+    private void remember(String hash) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    knownHashes.put(hash, Boolean.TRUE);
+                }
+            });
+        } else {
+            knownHashes.put(hash, Boolean.TRUE);
+        }
+    }
+
+    private static Counter savesCounter(MeterRegistry meterRegistry, String blob) {
+        return Counter.builder("diagram.storage.saves")
+                .description("Saved diagrams by whether their body was new or already stored")
+                .tag("blob", blob)
+                .register(meterRegistry);
+    }
+}
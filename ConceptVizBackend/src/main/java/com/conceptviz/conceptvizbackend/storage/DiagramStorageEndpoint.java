@@ -0,0 +1,48 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.conceptviz.conceptvizbackend.repository.DiagramBlobRepository;
+import com.conceptviz.conceptvizbackend.repository.DiagramRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/diagramstorage}: how much content-addressed storage saves. Logical bytes are the
+ * canonical bodies as every diagram references them, unique bytes count each body once and stored
+ * bytes are what the blobs take after compression.
+ */
+@Component
+@Endpoint(id = "diagramstorage")
+@RequiredArgsConstructor
+public class DiagramStorageEndpoint {
+
+    private final DiagramRepository diagramRepository;
+    private final DiagramBlobRepository blobRepository;
+
+    @ReadOperation
+    public Map<String, Object> storage() {
+        long logicalBytes = diagramRepository.sumBlobBackedCodeSize();
+        long uniqueBytes = blobRepository.sumOriginalSize();
+        long storedBytes = blobRepository.sumStoredSize();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("diagrams", diagramRepository.countByBlobIsNotNull());
+        result.put("legacyDiagrams", diagramRepository.countByBlobIsNull());
+        result.put("blobs", blobRepository.count());
+        result.put("logicalBytes", logicalBytes);
+        result.put("uniqueBytes", uniqueBytes);
+        result.put("storedBytes", storedBytes);
+        result.put("dedupRatio", ratio(logicalBytes, uniqueBytes));
+        result.put("compressionRatio", ratio(uniqueBytes, storedBytes));
+        result.put("bytesSaved", logicalBytes - storedBytes);
+        return result;
+    }
+
+    private static double ratio(long numerator, long denominator) {
+        return denominator == 0 ? 1.0 : Math.round(numerator * 100.0 / denominator) / 100.0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Refuses to start when a pooled id sequence would hand out ids that are already taken. Upgrading a database
+ * that used IDENTITY columns without {@code db/migration/003_pooled_id_sequences.sql} leaves Hibernate to create
+ * {@code users_seq} and {@code diagrams_seq} at 1, and every insert would then fail on a duplicate key. Runs once
+ * all singletons, including the entity manager factory and its schema update, are created. Postgres only; the
+ * load test's in-memory H2 database starts empty.
+ */
+@Slf4j
+@Component
+public class IdSequenceCheck implements SmartInitializingSingleton {
+
+    static final String MIGRATION = "db/migration/003_pooled_id_sequences.sql";
+
+    private static final List<String> TABLES = List.of("users", "diagrams");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdSequenceCheck(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        String database = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        if (!"PostgreSQL".equals(database)) {
+            return;
+        }
+        for (String table : TABLES) {
+            check(table, table + "_seq");
+        }
+    }
+
+    private void check(String table, String sequence) {
+        List<Long> firstIds = jdbcTemplate.query(
+                "select last_value, start_value, increment_by from pg_sequences where sequencename = ?",
+                (row, rowNum) -> firstIdOfNextBlock(row.getObject("last_value", Long.class),
+                        row.getLong("start_value"), row.getLong("increment_by")),
+                sequence);
+        if (firstIds.isEmpty()) {
+            throw new IllegalStateException("Sequence " + sequence + " does not exist; run " + MIGRATION);
+        }
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + table, Long.class);
+        long firstId = firstIds.get(0);
+        if (maxId != null && firstId <= maxId) {
+            throw new IllegalStateException("Sequence " + sequence + " would hand out id " + firstId + " but " + table
+                    + " already holds ids up to " + maxId + "; run " + MIGRATION + " before starting this version");
+        }
+        log.debug("{} hands out ids from {}, above max({}.id) = {}", sequence, firstId, table, maxId);
+    }
+
+    /**
+     * The lowest id the pooled optimizer can take from the next {@code nextval}: the block below that value, or
+     * the value itself when it is still below one increment, which Hibernate reads as a fresh sequence.
+     * {@code last_value} is null until the sequence is first used.
+     */
+    static long firstIdOfNextBlock(Long lastValue, long startValue, long incrementBy) {
+        long next = lastValue == null ? startValue : lastValue + incrementBy;
+        return next < incrementBy ? next : next - incrementBy + 1;
+    }
+}
@@ -0,0 +1,200 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Canonical form, content address and compressed encoding of saved Mermaid code.
+ * <p>
+ * Canonicalization only removes differences that never change the rendered diagram: line endings,
+ * trailing whitespace and blank lines around the body. The hash is taken over the canonical text, so
+ * the address does not depend on how the body is encoded. Bodies are raw deflate with a preset
+ * dictionary of common Mermaid syntax, which matters for inputs this small; when that does not
+ * shrink a body it is stored as plain UTF-8.
+ */
+public final class MermaidBlobCodec {
+
+    public static final String IDENTITY = "identity";
+    public static final String DEFLATE_MERMAID_V1 = "deflate-mmd1";
+
+    // zlib favours matches near the end of the dictionary, so the most common fragments come last
+    private static final byte[] DICTIONARY_V1 = ("""
+            gitGraph
+                commit
+                branch develop
+                checkout main
+                merge develop
+            gantt
+                title Project Timeline
+                dateFormat YYYY-MM-DD
+                section Planning
+                Task :a1, 2024-01-01, 7d
+                Next :after a1, 5d
+            journey
+                title User Journey
+                section Discover
+                  Visit site: 5: User
+            erDiagram
+                CUSTOMER ||--o{ ORDER : places
+                ORDER ||--|{ LINE-ITEM : contains
+                }|..|{ string id PK
+            stateDiagram-v2
+                [*] --> Idle
+                Idle --> Processing
+                Processing --> [*]
+                state
+            classDiagram
+                class Animal {
+                    +String name
+                    +int id
+                    +void method()
+                }
+                Animal <|-- Dog
+                *-- o--
+            sequenceDiagram
+                participant Client
+                participant Server
+                Client->>Server: Request
+                Server-->>Client: Response
+                activate deactivate
+                Note over Client,Server:
+                alt else opt loop end
+            flowchart LR
+                subgraph
+                end
+                classDef style fill:#f9f,stroke:#333
+                -->|Yes| -->|No|
+                A{Decision}
+                B(Process)
+                C((Circle))
+            graph TD
+                A[Start] --> B[Process]
+                B --> C[Decision]
+                C --> D[Result]
+                D --> E[End]
+                E --> F[
+            """).getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public record Encoded(String encoding, byte[] content, int originalSize) {
+    }
+
+    private MermaidBlobCodec() {
+    }
+
+    /**
+     * Normalizes line endings to {@code \n}, strips trailing whitespace from every line and drops
+     * blank lines before and after the body. Indentation is kept.
+     */
+    public static String canonicalize(String code) {
+        if (code == null) {
+            return "";
+        }
+        StringBuilder canonical = new StringBuilder(code.length());
+        int pendingBlankLines = 0;
+        int lineStart = 0;
+        int length = code.length();
+        while (lineStart <= length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && code.charAt(lineEnd) != '\n' && code.charAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            while (contentEnd > lineStart && Character.isWhitespace(code.charAt(contentEnd - 1))) {
+                contentEnd--;
+            }
+
+            if (contentEnd == lineStart) {
+                pendingBlankLines++;
+            } else {
+                if (!canonical.isEmpty()) {
+                    canonical.append('\n');
+                    canonical.append("\n".repeat(pendingBlankLines));
+                }
+                pendingBlankLines = 0;
+                canonical.append(code, lineStart, contentEnd);
+            }
+
+            if (lineEnd < length && code.charAt(lineEnd) == '\r' && lineEnd + 1 < length && code.charAt(lineEnd + 1) == '\n') {
+                lineEnd++;
+            }
+            lineStart = lineEnd + 1;
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Hex SHA-256 of the UTF-8 bytes of an already canonical body.
+     */
+    public static String hash(String canonicalCode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonicalCode.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static Encoded encode(String canonicalCode) {
+        byte[] raw = canonicalCode.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY_V1);
+        deflater.setInput(raw);
+        deflater.finish();
+
+        // Anything not smaller than the raw bytes is stored as is
+        byte[] buffer = new byte[raw.length];
+        int compressed = 0;
+        while (!deflater.finished() && compressed < buffer.length) {
+            compressed += deflater.deflate(buffer, compressed, buffer.length - compressed);
+        }
+        if (!deflater.finished() || compressed >= raw.length) {
+            return new Encoded(IDENTITY, raw, raw.length);
+        }
+        byte[] content = new byte[compressed];
+        System.arraycopy(buffer, 0, content, 0, compressed);
+        return new Encoded(DEFLATE_MERMAID_V1, content, raw.length);
+    }
+
+    public static String decode(String encoding, byte[] content, int originalSize) {
+        if (IDENTITY.equals(encoding)) {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+        if (!DEFLATE_MERMAID_V1.equals(encoding)) {
+            throw new IllegalArgumentException("Unknown diagram blob encoding: " + encoding);
+        }
+
+        // Raw deflate has no header to ask for the dictionary, it has to be set up front
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY_V1);
+        inflater.setInput(content);
+        // One spare byte so the end of the stream is consumed without an early full-buffer stop
+        byte[] decoded = new byte[originalSize + 1];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(decoded, length, decoded.length - length);
+                if (inflated == 0 && (length == decoded.length || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Corrupt diagram blob: inflated size does not match " + originalSize);
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt diagram blob", e);
+        }
+        if (length != originalSize) {
+            throw new IllegalStateException("Corrupt diagram blob: inflated size does not match " + originalSize);
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+}
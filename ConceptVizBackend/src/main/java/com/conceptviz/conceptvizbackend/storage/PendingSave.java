@@ -0,0 +1,10 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import java.time.LocalDateTime;
+
+/**
+ * A save acknowledged from the write-behind journal and not yet written to the database. The id is
+ * reserved from {@code diagrams_seq} up front, so it stays the same once the row is inserted.
+ */
+public record PendingSave(long id, long userId, String topic, String mermaidCode, LocalDateTime createdAt) {
+}
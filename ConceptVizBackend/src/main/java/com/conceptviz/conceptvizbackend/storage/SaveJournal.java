@@ -0,0 +1,214 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of write-behind saves, one JSON line per save. Each flush closes the current
+ * segment file and opens the next, so a segment can be deleted as soon as its saves are in the database;
+ * segments left over from a previous run are read back by {@link #recover()}.
+ * <p>
+ * With {@link FsyncPolicy#ALWAYS} an append returns once it is on disk. Concurrent appenders share one
+ * {@code force} (group commit), so the cost per save drops as load rises.
+ */
+@Slf4j
+class SaveJournal implements Closeable {
+
+    enum FsyncPolicy {
+        // fsync before acknowledging every save
+        ALWAYS,
+        // fsync on a timer; a crash loses at most one interval of saves
+        INTERVAL,
+        // leave it to the OS; survives a process crash, not a machine crash
+        NEVER
+    }
+
+    record Segment(Path path, List<PendingSave> saves) {
+    }
+
+    private static final String PREFIX = "saves-";
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final ObjectMapper objectMapper;
+    private final List<Segment> recovered;
+
+    // Lock order: syncLock, then writeLock
+    private final Object syncLock = new Object();
+    private final Object writeLock = new Object();
+    private FileChannel channel;
+    private Segment current;
+    private long segmentNumber;
+    // Bytes across all segments of this run, so a sync can tell whether an append is already covered
+    private long appendedBytes;
+    private long syncedBytes;
+
+    SaveJournal(Path directory, FsyncPolicy fsyncPolicy, ObjectMapper objectMapper) throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.objectMapper = objectMapper;
+        Files.createDirectories(directory);
+
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(directory)) {
+            existing = files.filter(file -> file.getFileName().toString().startsWith(PREFIX)
+                            && file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)))
+                    .toList();
+        }
+        this.recovered = new ArrayList<>();
+        for (Path path : existing) {
+            segmentNumber = Math.max(segmentNumber, segmentNumber(path));
+            List<PendingSave> saves = read(path);
+            if (saves.isEmpty()) {
+                Files.delete(path);
+            } else {
+                recovered.add(new Segment(path, saves));
+            }
+        }
+        openNextSegment();
+    }
+
+    FsyncPolicy fsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * Segments written by a previous run whose saves may not have reached the database, oldest first.
+     */
+    List<Segment> recover() {
+        return recovered;
+    }
+
+    void append(PendingSave save) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(save);
+        ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+        long end;
+        synchronized (writeLock) {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            current.saves().add(save);
+            appendedBytes += line.limit();
+            end = appendedBytes;
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            sync(end);
+        }
+    }
+
+    /**
+     * Forces everything appended so far to disk, unless a concurrent sync already covered it.
+     */
+    void sync() throws IOException {
+        long end;
+        synchronized (writeLock) {
+            end = appendedBytes;
+        }
+        sync(end);
+    }
+
+    private void sync(long upTo) throws IOException {
+        synchronized (syncLock) {
+            if (syncedBytes >= upTo) {
+                return;
+            }
+            long end;
+            FileChannel target;
+            synchronized (writeLock) {
+                end = appendedBytes;
+                target = channel;
+            }
+            // Appends continue while the force runs; they are covered by the next one
+            target.force(false);
+            syncedBytes = end;
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one. Returns the closed segment, or null when it was empty.
+     */
+    Segment roll() throws IOException {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                if (current.saves().isEmpty()) {
+                    return null;
+                }
+                if (fsyncPolicy != FsyncPolicy.NEVER) {
+                    channel.force(false);
+                    syncedBytes = appendedBytes;
+                }
+                channel.close();
+                Segment closed = current;
+                openNextSegment();
+                return closed;
+            }
+        }
+    }
+
+    void delete(Segment segment) throws IOException {
+        Files.deleteIfExists(segment.path());
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                if (fsyncPolicy != FsyncPolicy.NEVER) {
+                    channel.force(false);
+                }
+                channel.close();
+                if (current.saves().isEmpty()) {
+                    Files.deleteIfExists(current.path());
+                }
+            }
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentNumber++;
+        Path path = directory.resolve(PREFIX + String.format("%019d", segmentNumber) + SUFFIX);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        current = new Segment(path, new ArrayList<>());
+    }
+
+    // A crash can leave the last line half written; that save was never acknowledged.
+    // The decoding reader replaces a torn multi-byte character instead of failing.
+    private List<PendingSave> read(Path path) throws IOException {
+        List<PendingSave> saves = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    saves.add(objectMapper.readValue(line, PendingSave.class));
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable entry in save journal {}: {}", path.getFileName(), e.getMessage());
+                }
+            }
+        }
+        return saves;
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
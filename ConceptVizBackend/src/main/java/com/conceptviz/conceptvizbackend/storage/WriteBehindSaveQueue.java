@@ -0,0 +1,288 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.conceptviz.conceptvizbackend.ai.MermaidSyntax;
+import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
+import com.conceptviz.conceptvizbackend.search.DiagramSearchText;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional write-behind mode for single diagram saves: a save is acknowledged once it is in the local
+ * {@link SaveJournal}, and a background writer moves journaled saves to the database in batches. Until
+ * then they are served from memory to the saving user, and after a restart the journal is replayed.
+ * Inserts use the id reserved at save time and skip rows that already exist, so a replay after a crash
+ * between commit and journal cleanup does not duplicate diagrams.
+ */
+@Slf4j
+@Component
+public class WriteBehindSaveQueue implements DisposableBean {
+
+    private static final String INSERT_DIAGRAM = """
+            insert into diagrams (id, user_id, topic, blob_hash, diagram_type, code_size, search_text, created_at)
+            values (?, ?, ?, ?, ?, ?, ?, ?)
+            on conflict do nothing
+            """;
+
+    private static final String BUMP_HISTORY_VERSION = """
+            update users set history_version = history_version + 1, history_updated_at = ? where id = ?
+            """;
+
+    private final boolean enabled;
+    private final DiagramBlobStore blobStore;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxPending;
+    private final Duration flushInterval;
+    private final Duration fsyncInterval;
+    private final SaveJournal journal;
+    private final Map<Long, PendingSave> pending = new ConcurrentHashMap<>();
+    // Closed segments not yet in the database, oldest first; only touched by the writer thread
+    private final Deque<SaveJournal.Segment> unflushed = new ArrayDeque<>();
+    private final ScheduledExecutorService writer;
+    private final Counter flushed;
+    private final Counter dropped;
+
+    private long nextId;
+    private long maxId = -1;
+
+    public WriteBehindSaveQueue(@Value("${conceptviz.storage.write-behind.enabled:false}") boolean enabled,
+                                @Value("${conceptviz.storage.write-behind.journal-dir:data/save-journal}") Path journalDir,
+                                @Value("${conceptviz.storage.write-behind.fsync:interval}") String fsync,
+                                @Value("${conceptviz.storage.write-behind.fsync-interval:100ms}") Duration fsyncInterval,
+                                @Value("${conceptviz.storage.write-behind.flush-interval:200ms}") Duration flushInterval,
+                                @Value("${conceptviz.storage.write-behind.batch-size:500}") int batchSize,
+                                @Value("${conceptviz.storage.write-behind.max-pending:50000}") int maxPending,
+                                DiagramBlobStore blobStore,
+                                JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.blobStore = blobStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.flushInterval = flushInterval;
+        this.fsyncInterval = fsyncInterval;
+        this.flushed = Counter.builder("diagram.save.write.behind.flushed")
+                .description("Journaled saves written to the database")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("diagram.save.write.behind.dropped")
+                .description("Journaled saves the database rejected, e.g. because the user was deleted")
+                .register(meterRegistry);
+        Gauge.builder("diagram.save.write.behind.pending", pending, Map::size)
+                .description("Acknowledged saves not yet in the database")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            this.journal = null;
+            this.writer = null;
+            return;
+        }
+        try {
+            this.journal = new SaveJournal(journalDir, SaveJournal.FsyncPolicy.valueOf(fsync.toUpperCase()), objectMapper);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open save journal in " + journalDir.toAbsolutePath(), e);
+        }
+        for (SaveJournal.Segment segment : journal.recover()) {
+            unflushed.add(segment);
+            segment.saves().forEach(save -> pending.put(save.id(), save));
+        }
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "save-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Write-behind saves enabled: journal={} fsync={} flushInterval={} replaying={}",
+                journalDir.toAbsolutePath(), journal.fsyncPolicy(), flushInterval, pending.size());
+    }
+
+    /**
+     * False when disabled or when the backlog is over its limit; callers then save synchronously.
+     */
+    public boolean accepts() {
+        return enabled && pending.size() < maxPending;
+    }
+
+    public PendingSave save(long userId, String topic, String canonicalCode) {
+        PendingSave save = new PendingSave(nextId(), userId, topic, canonicalCode, LocalDateTime.now());
+        // Registered first: the writer can flush the save while the append still waits for its fsync
+        pending.put(save.id(), save);
+        try {
+            journal.append(save);
+        } catch (IOException e) {
+            pending.remove(save.id());
+            throw new UncheckedIOException("Could not journal diagram save", e);
+        }
+        return save;
+    }
+
+    /**
+     * The user's saves that may not be visible in the database yet, newest first. Read this before
+     * querying the database: a save flushed in between then shows up twice rather than not at all.
+     */
+    public List<PendingSave> pendingFor(long userId) {
+        if (pending.isEmpty()) {
+            return List.of();
+        }
+        // The backlog is a few flush intervals of saves, a scan is cheaper than maintaining a per-user index
+        return pending.values().stream()
+                .filter(save -> save.userId() == userId)
+                .sorted(Comparator.comparing(PendingSave::createdAt).thenComparing(PendingSave::id).reversed())
+                .toList();
+    }
+
+    public Optional<PendingSave> pending(long id) {
+        return Optional.ofNullable(pending.get(id));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        writer.scheduleWithFixedDelay(this::flush, 0, flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        if (journal.fsyncPolicy() == SaveJournal.FsyncPolicy.INTERVAL) {
+            writer.scheduleWithFixedDelay(this::sync, fsyncInterval.toMillis(), fsyncInterval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Ids come in diagrams_seq blocks exactly like Hibernate's pooled optimizer hands them out: (hi - size, hi]
+    private synchronized long nextId() {
+        if (nextId > maxId) {
+            long hi = jdbcTemplate.queryForObject("select nextval('diagrams_seq')", Long.class);
+            // The pooled optimizer serves a fresh sequence's first block as 1..size+1; never share it
+            while (hi <= Diagram.ID_ALLOCATION_SIZE + 1) {
+                hi = jdbcTemplate.queryForObject("select nextval('diagrams_seq')", Long.class);
+            }
+            nextId = hi - Diagram.ID_ALLOCATION_SIZE + 1;
+            maxId = hi;
+        }
+        return nextId++;
+    }
+
+    private void sync() {
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            log.error("Save journal fsync failed", e);
+        }
+    }
+
+    private void flush() {
+        try {
+            SaveJournal.Segment rolled = journal.roll();
+            if (rolled != null) {
+                unflushed.add(rolled);
+            }
+            while (!unflushed.isEmpty()) {
+                SaveJournal.Segment segment = unflushed.peek();
+                List<PendingSave> saves = segment.saves();
+                for (int from = 0; from < saves.size(); from += batchSize) {
+                    write(saves.subList(from, Math.min(from + batchSize, saves.size())));
+                }
+                journal.delete(segment);
+                unflushed.poll();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Kept in the journal and in memory; the next run retries from the oldest unflushed segment
+            log.warn("Write-behind flush failed with {} saves pending: {}", pending.size(), e.toString());
+        }
+    }
+
+    private void write(List<PendingSave> saves) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> insert(saves));
+            written(saves);
+        } catch (DataIntegrityViolationException e) {
+            // One bad row must not hold back the rest; retry one by one and drop what still fails
+            for (PendingSave save : saves) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> insert(List.of(save)));
+                    written(List.of(save));
+                } catch (DataIntegrityViolationException rejected) {
+                    log.warn("Dropping journaled save {} of user {}: {}", save.id(), save.userId(),
+                            rejected.getMostSpecificCause().getMessage());
+                    pending.remove(save.id());
+                    dropped.increment();
+                }
+            }
+        }
+    }
+
+    private void written(List<PendingSave> saves) {
+        saves.forEach(save -> pending.remove(save.id()));
+        flushed.increment(saves.size());
+    }
+
+    private void insert(List<PendingSave> saves) {
+        Map<String, DiagramBlob> blobs = blobStore.storeAll(saves.stream().map(PendingSave::mermaidCode).toList());
+        List<Object[]> rows = new ArrayList<>(saves.size());
+        for (PendingSave save : saves) {
+            rows.add(new Object[]{save.id(), save.userId(), save.topic(), blobs.get(save.mermaidCode()).getHash(),
+                    MermaidSyntax.detectDiagramType(save.mermaidCode()),
+                    save.mermaidCode().getBytes(StandardCharsets.UTF_8).length, DiagramSearchText.of(save.mermaidCode()),
+                    Timestamp.valueOf(save.createdAt())});
+        }
+        jdbcTemplate.batchUpdate(INSERT_DIAGRAM, rows);
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> users = saves.stream()
+                .map(PendingSave::userId)
+                .distinct()
+                .map(userId -> new Object[]{now, userId})
+                .toList();
+        jdbcTemplate.batchUpdate(BUMP_HISTORY_VERSION, users);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        writer.shutdown();
+        // Last attempt on the caller's thread; whatever does not make it is replayed on the next start
+        if (writer.awaitTermination(10, TimeUnit.SECONDS)) {
+            flush();
+        }
+        journal.close();
+        if (!pending.isEmpty()) {
+            log.warn("{} journaled saves not yet in the database, they will be replayed on restart", pending.size());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+-- Keyset-paginated diagram history (GET /diagram/history).
+-- New installs get the columns and index from Hibernate (ddl-auto=update); run this once on
+-- existing databases to backfill summary columns for rows saved before they existed.
+
+ALTER TABLE diagrams ADD COLUMN IF NOT EXISTS diagram_type VARCHAR(32);
+ALTER TABLE diagrams ADD COLUMN IF NOT EXISTS code_size INTEGER;
+
+UPDATE diagrams
+SET code_size    = octet_length(mermaid_code),
+    diagram_type = CASE
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^(graph|flowchart)' THEN 'graph'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^sequenceDiagram' THEN 'sequenceDiagram'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^classDiagram' THEN 'classDiagram'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^stateDiagram-v2' THEN 'stateDiagram'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^erDiagram' THEN 'erDiagram'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^journey' THEN 'journey'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^gantt' THEN 'gantt'
+        WHEN btrim(mermaid_code, E' \t\r\n') ~ '^gitGraph' THEN 'gitGraph'
+        ELSE 'unknown'
+    END
+WHERE code_size IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_diagrams_user_created_id
+    ON diagrams (user_id, created_at DESC, id DESC);
@@ -0,0 +1,21 @@
+-- Content-addressed diagram storage: each unique canonical Mermaid body is stored once, compressed,
+-- in diagram_blobs and referenced from diagrams.blob_hash. New installs get the table from Hibernate;
+-- run this once on existing databases before deploying. Existing rows keep their inline mermaid_code
+-- until DiagramBlobMigration moves them at startup (conceptviz.storage.blob-migration.enabled).
+
+CREATE TABLE IF NOT EXISTS diagram_blobs (
+    hash          VARCHAR(64) PRIMARY KEY,
+    content       BYTEA       NOT NULL,
+    encoding      VARCHAR(16) NOT NULL,
+    original_size INTEGER     NOT NULL,
+    stored_size   INTEGER     NOT NULL,
+    created_at    TIMESTAMP(6)
+);
+
+-- Compressed bodies gain nothing from TOAST compression
+ALTER TABLE diagram_blobs ALTER COLUMN content SET STORAGE EXTERNAL;
+
+ALTER TABLE diagrams ADD COLUMN IF NOT EXISTS blob_hash VARCHAR(64) REFERENCES diagram_blobs (hash);
+ALTER TABLE diagrams ALTER COLUMN mermaid_code DROP NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_diagrams_blob_hash ON diagrams (blob_hash);
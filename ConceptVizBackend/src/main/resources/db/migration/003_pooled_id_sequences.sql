@@ -0,0 +1,11 @@
+-- Pooled sequence ids for users and diagrams, so Hibernate can batch inserts (IDENTITY cannot).
+-- New installs get the sequences from Hibernate; run this once on existing databases before deploying,
+-- otherwise Hibernate creates them starting at 1 and the first inserts collide with existing ids. IdSequenceCheck
+-- refuses to start while a sequence is behind max(id), with an error naming this script.
+-- The increment must match allocationSize on the entities (50), Hibernate refuses to start otherwise.
+
+CREATE SEQUENCE IF NOT EXISTS users_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS diagrams_seq INCREMENT BY 50;
+
+SELECT setval('users_seq', (SELECT COALESCE(MAX(id), 0) FROM users) + 50);
+SELECT setval('diagrams_seq', (SELECT COALESCE(MAX(id), 0) FROM diagrams) + 50);
@@ -0,0 +1,23 @@
+-- Full-text search over a user's diagrams (GET /diagram/search).
+-- search_text holds the words of the Mermaid body (labels, node names), filled by the application since
+-- bodies are stored compressed; DiagramSearchBackfill indexes existing rows at startup. Hibernate creates
+-- search_text but not the search_vector column or the index, so run this on new installs too. DiagramSearchSchema
+-- checks for the column at startup and disables search (503) with an error naming this script until it is applied.
+-- search_vector is computed once per write and stored, so DiagramRepository.searchIds matches and ranks on
+-- the column instead of rebuilding the tsvector for every candidate row.
+-- btree_gin lets one GIN index cover user_id as well, so a search only touches that user's entries and
+-- stays flat as other users' histories grow.
+
+ALTER TABLE diagrams ADD COLUMN IF NOT EXISTS search_text TEXT;
+
+ALTER TABLE diagrams ADD COLUMN IF NOT EXISTS search_vector tsvector GENERATED ALWAYS AS (
+    setweight(to_tsvector('simple', coalesce(topic, '')), 'A')
+        || setweight(to_tsvector('simple', coalesce(search_text, '')), 'B')
+) STORED;
+
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+-- Replaces the expression index of earlier versions of this script
+DROP INDEX IF EXISTS idx_diagrams_search;
+
+CREATE INDEX IF NOT EXISTS idx_diagrams_search_vector ON diagrams USING GIN (user_id, search_vector);
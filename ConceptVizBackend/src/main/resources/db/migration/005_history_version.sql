@@ -0,0 +1,5 @@
+-- Per-user history version behind the ETag / Last-Modified of GET /diagram/my-history and /diagram/history.
+-- Hibernate adds the columns on update as well; this is for databases managed without ddl-auto.
+
+ALTER TABLE users ADD COLUMN IF NOT EXISTS history_version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE users ADD COLUMN IF NOT EXISTS history_updated_at TIMESTAMP(6);
@@ -0,0 +1,125 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GenerationCoalescerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stopThreads() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    void followersShareTheLeadersResult() throws Exception {
+        GenerationCoalescer coalescer = new GenerationCoalescer(Duration.ofSeconds(5), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger generations = new AtomicInteger();
+
+        Future<String> leader = threads.submit(() -> coalescer.execute("k", blockingUntil(release, () -> {
+            generations.incrementAndGet();
+            return "graph TD";
+        })));
+        Future<String> follower = joinOnce(coalescer, "k", () -> "follower ran");
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("graph TD");
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("graph TD");
+        assertThat(generations).hasValue(1);
+        assertThat(inFlight()).isZero();
+    }
+
+    @Test
+    void followerGivesUpWithNullAfterMaxWait() throws Exception {
+        GenerationCoalescer coalescer = new GenerationCoalescer(Duration.ofMillis(100), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        threads.submit(() -> coalescer.execute("k", blockingUntil(release, () -> "late")));
+
+        Future<String> follower = joinOnce(coalescer, "k", () -> "follower ran");
+
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(registry.counter("diagram.generate.coalescing.timeouts").count()).isEqualTo(1);
+        release.countDown();
+    }
+
+    @Test
+    void serverWideRejectionReachesFollowersAndClearsTheKey() throws Exception {
+        GenerationCoalescer coalescer = new GenerationCoalescer(Duration.ofSeconds(5), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = threads.submit(() -> coalescer.execute("k", blockingUntil(release, () -> {
+            throw new InferenceRejectedException("queue_full", 3);
+        })));
+        Future<String> follower = joinOnce(coalescer, "k", () -> "follower ran");
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(InferenceRejectedException.class);
+        assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(InferenceRejectedException.class);
+        assertThat(inFlight()).isZero();
+        // Nothing is left behind for the key: the next caller leads a fresh generation
+        assertThat(coalescer.execute("k", () -> "retried")).isEqualTo("retried");
+    }
+
+    @Test
+    void leadersPerRequesterRejectionMakesFollowersGenerateThemselves() throws Exception {
+        GenerationCoalescer coalescer = new GenerationCoalescer(Duration.ofSeconds(5), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = threads.submit(() -> coalescer.execute("k", blockingUntil(release, () -> {
+            throw new InferenceRejectedException("requester_limit", 1);
+        })));
+        Future<String> follower = joinOnce(coalescer, "k", () -> "follower ran");
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(InferenceRejectedException.class);
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("follower ran");
+        assertThat(registry.counter("diagram.generate.coalescing", "role", "leader").count()).isEqualTo(2);
+    }
+
+    // Once the leader is in flight, starts a caller for the key and waits until it has joined as a follower
+    private Future<String> joinOnce(GenerationCoalescer coalescer, String key, Supplier<String> generation)
+            throws InterruptedException {
+        awaitTrue(() -> inFlight() == 1);
+        Future<String> follower = threads.submit(() -> coalescer.execute(key, generation));
+        awaitTrue(() -> registry.counter("diagram.generate.coalescing", "role", "follower").count() == 1);
+        return follower;
+    }
+
+    private static void awaitTrue(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.get()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static Supplier<String> blockingUntil(CountDownLatch release, Supplier<String> generation) {
+        return () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return generation.get();
+        };
+    }
+
+    private double inFlight() {
+        return registry.get("diagram.generate.inflight").gauge().value();
+    }
+}
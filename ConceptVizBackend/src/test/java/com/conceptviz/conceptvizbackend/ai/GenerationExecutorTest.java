@@ -0,0 +1,42 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GenerationExecutorTest {
+
+    @Test
+    void aSaturatedPlatformPoolRejectsInsteadOfQueueing() throws Exception {
+        GenerationExecutor executor = new GenerationExecutor(false, 1, new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<String> running = executor.submit(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "done";
+            });
+
+            assertThatThrownBy(() -> executor.submit(() -> "second").get(5, TimeUnit.SECONDS))
+                    .cause()
+                    .isInstanceOfSatisfying(InferenceRejectedException.class, rejected -> {
+                        assertThat(rejected.getReason()).isEqualTo("executor_saturated");
+                        assertThat(rejected.isPerRequester()).isFalse();
+                    });
+
+            release.countDown();
+            assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+        } finally {
+            executor.destroy();
+        }
+    }
+}
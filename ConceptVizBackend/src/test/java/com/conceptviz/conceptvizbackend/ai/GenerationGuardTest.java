@@ -0,0 +1,78 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GenerationGuardTest {
+
+    @Test
+    void nodeIdsThatOpenLikeCommentaryAreKept() {
+        GenerationGuard guard = new GenerationGuard(type -> 100);
+        List<String> lines = stream(guard, """
+                graph TD
+                    Start[Start] --> Explanation[Explain results]
+                    Explanation[Explain results] --> Summary
+                    Explanation --> Done
+                """);
+
+        assertThat(guard.isAborted()).isFalse();
+        assertThat(lines).hasSize(4);
+        assertThat(guard.acceptedText()).contains("Explanation --> Done");
+    }
+
+    @Test
+    void stopsAtCommentaryAfterTheBody() {
+        GenerationGuard guard = new GenerationGuard(type -> 100);
+        List<String> lines = stream(guard, """
+                graph TD
+                    A[Request] --> B[Response]
+                Explanation: the flowchart shows how a request is answered.
+                    C --> D
+                """);
+
+        assertThat(guard.getAbortReason()).isEqualTo(GenerationGuard.AbortReason.PROSE_AFTER_BODY);
+        assertThat(lines).hasSize(2);
+        assertThat(guard.acceptedText()).doesNotContain("Explanation");
+    }
+
+    @Test
+    void stopsAtASecondDiagramAndAtTheLineBudget() {
+        GenerationGuard second = new GenerationGuard(type -> 100);
+        stream(second, "graph TD\n    A --> B\nsequenceDiagram\n    A->>B: hi\n");
+        assertThat(second.getAbortReason()).isEqualTo(GenerationGuard.AbortReason.SECOND_DIAGRAM);
+
+        GenerationGuard budget = new GenerationGuard(type -> 2);
+        List<String> lines = stream(budget, "graph TD\n    A --> B\n    B --> C\n    C --> D\n");
+        assertThat(budget.getAbortReason()).isEqualTo(GenerationGuard.AbortReason.LINE_BUDGET);
+        assertThat(lines).hasSize(3);
+    }
+
+    @Test
+    void savedTokensAreMeasuredAgainstTheBudgetTheCallRanWith() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GenerationGuards guards = new GenerationGuards(new MockEnvironment(), registry);
+        GenerationGuard guard = guards.newGuard();
+        stream(guard, "graph TD\n    A --> B\nsequenceDiagram\n");
+
+        guards.record(guard, 350);
+
+        assertThat(registry.get("diagram.generate.tokens.saved").summary().totalAmount())
+                .isEqualTo(350 - guard.getChunks());
+    }
+
+    // Feeds the text a few characters at a time, the way tokens arrive
+    private static List<String> stream(GenerationGuard guard, String text) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < text.length() && !guard.isAborted(); i += 3) {
+            lines.addAll(guard.accept(text.substring(i, Math.min(text.length(), i + 3))));
+        }
+        lines.addAll(guard.finish());
+        return lines;
+    }
+}
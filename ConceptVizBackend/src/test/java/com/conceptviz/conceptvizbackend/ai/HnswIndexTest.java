@@ -0,0 +1,77 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+
+    @Test
+    void findsTheExactNeighboursOfAlmostEveryQuery() {
+        Random random = new Random(42);
+        List<float[]> vectors = new ArrayList<>();
+        HnswIndex index = new HnswIndex(DIMENSIONS, 8, 64);
+        for (int i = 0; i < 2000; i++) {
+            float[] vector = randomVector(random);
+            vectors.add(vector);
+            index.add(i, vector);
+        }
+
+        int found = 0;
+        int queries = 200;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            long exact = IntStream.range(0, vectors.size()).boxed()
+                    .max(Comparator.comparingDouble(i -> HnswIndex.similarity(query, vectors.get(i))))
+                    .orElseThrow();
+            List<HnswIndex.Match> matches = index.search(query, 1, 64);
+            if (!matches.isEmpty() && matches.get(0).key() == exact) {
+                found++;
+            }
+        }
+        assertThat(found).isGreaterThanOrEqualTo(queries * 95 / 100);
+    }
+
+    @Test
+    void removedEntriesAreNeverReturned() {
+        Random random = new Random(7);
+        HnswIndex index = new HnswIndex(DIMENSIONS, 4, 32);
+        float[] target = randomVector(random);
+        int targetNode = index.add(0, target);
+        for (int i = 1; i < 200; i++) {
+            index.add(i, randomVector(random));
+        }
+
+        assertThat(index.search(target, 1, 32)).extracting(HnswIndex.Match::key).containsExactly(0L);
+        assertThat(index.search(target, 1, 32).get(0).similarity()).isCloseTo(1.0, offset(1e-5));
+
+        index.remove(targetNode);
+        assertThat(index.deleted()).isEqualTo(1);
+        assertThat(index.search(target, 10, 32)).hasSize(10).extracting(HnswIndex.Match::key).doesNotContain(0L);
+    }
+
+    @Test
+    void normalizesToUnitLengthAndRejectsZeroVectors() {
+        float[] vector = HnswIndex.normalize(new float[]{3, 4});
+
+        assertThat(vector).containsExactly(0.6f, 0.8f);
+        assertThat(HnswIndex.normalize(new float[]{0, 0})).isNull();
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return HnswIndex.normalize(vector);
+    }
+}
@@ -0,0 +1,233 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InferenceLimiterTest {
+
+    private static final Requester FLOODER = Requester.anonymous("10.0.0.1");
+    private static final Requester VISITOR = Requester.anonymous("10.0.0.2");
+    private static final Requester USER = Requester.user("user@example.com");
+
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final BlockingQueue<InferenceLimiter.Permit> grants = new LinkedBlockingQueue<>();
+    private final List<String> grantOrder = new ArrayList<>();
+
+    @AfterEach
+    void stopThreads() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    void aFloodingRequesterCannotStarveAnother() throws Exception {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofSeconds(10));
+        InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+        queue(limiter, FLOODER, 8);
+        queue(limiter, VISITOR, 2);
+
+        running.close();
+        List<String> order = drain(6);
+
+        assertThat(order).containsExactly(FLOODER.key(), VISITOR.key(), FLOODER.key(), VISITOR.key(),
+                FLOODER.key(), FLOODER.key());
+    }
+
+    @Test
+    void authenticatedUsersGetTheirWeightPerTurn() throws Exception {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofSeconds(10));
+        InferenceLimiter.Permit running = limiter.acquire(USER);
+        queue(limiter, USER, 4);
+        queue(limiter, VISITOR, 4);
+
+        running.close();
+        List<String> order = drain(6);
+
+        assertThat(order).containsExactly(USER.key(), USER.key(), VISITOR.key(), USER.key(), USER.key(),
+                VISITOR.key());
+    }
+
+    @Test
+    void aNonPositivePerRequesterCapStillQueuesOneAndLeavesNoEmptyQueueBehind() throws Exception {
+        InferenceLimiter limiter = new InferenceLimiter(1, 10, 0, 2, 1, Duration.ofSeconds(10),
+                new SimpleMeterRegistry());
+        InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+        queue(limiter, VISITOR, 1);
+
+        assertThatThrownBy(() -> limiter.acquire(VISITOR))
+                .isInstanceOfSatisfying(InferenceRejectedException.class,
+                        rejected -> assertThat(rejected.isPerRequester()).isTrue());
+        assertThat(limiter.waitingRequesters()).isEqualTo(1);
+
+        running.close();
+        drain(1).forEach(key -> assertThat(key).isEqualTo(VISITOR.key()));
+        assertThat(limiter.waitingRequesters()).isZero();
+        assertThat(limiter.activeCount()).isZero();
+    }
+
+    @Test
+    void waitingPastMaxWaitIsRejectedAndLeavesNoTicketBehind() {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofMillis(100));
+        InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+
+        assertThatThrownBy(() -> limiter.acquire(VISITOR))
+                .isInstanceOfSatisfying(InferenceRejectedException.class,
+                        rejected -> assertThat(rejected.getReason()).isEqualTo("timeout"));
+        assertThat(limiter.queueDepth()).isZero();
+        assertThat(limiter.waitingRequesters()).isZero();
+
+        running.close();
+        assertThat(limiter.activeCount()).isZero();
+    }
+
+    @Test
+    void aGrantRacingTheWaitTimeoutIsNeverLost() throws Exception {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofMillis(2));
+        for (int i = 0; i < 200; i++) {
+            InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+            var waiter = threads.submit(() -> {
+                try {
+                    limiter.acquire(VISITOR).close();
+                } catch (InferenceRejectedException e) {
+                    assertThat(e.getReason()).isEqualTo("timeout");
+                }
+                return null;
+            });
+            TimeUnit.MICROSECONDS.sleep(1500 + i * 5L % 1000);
+            running.close();
+            waiter.get(5, TimeUnit.SECONDS);
+
+            assertThat(limiter.activeCount()).isZero();
+            assertThat(limiter.queueDepth()).isZero();
+        }
+    }
+
+    @Test
+    void aWaiterInterruptedAfterItsGrantKeepsThePermit() throws Exception {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofSeconds(10));
+        InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+        BlockingQueue<Object> outcome = new LinkedBlockingQueue<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                outcome.add(limiter.acquire(VISITOR));
+            } catch (RuntimeException e) {
+                outcome.add(e);
+            }
+        });
+        waiter.start();
+        awaitTrue(() -> limiter.queueDepth() == 1);
+
+        running.close();
+        waiter.interrupt();
+
+        Object result = outcome.poll(5, TimeUnit.SECONDS);
+        assertThat(result).isInstanceOf(InferenceLimiter.Permit.class);
+        assertThat(limiter.activeCount()).isEqualTo(1);
+        ((InferenceLimiter.Permit) result).close();
+        assertThat(limiter.activeCount()).isZero();
+    }
+
+    @Test
+    void aFullQueueIsAServerRejectionAndAFullRequesterQueueIsPerRequester() throws Exception {
+        InferenceLimiter limiter = new InferenceLimiter(1, 2, 1, 2, 1, Duration.ofSeconds(10),
+                new SimpleMeterRegistry());
+        InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+        queue(limiter, FLOODER, 1);
+
+        assertThatThrownBy(() -> limiter.acquire(FLOODER))
+                .isInstanceOfSatisfying(InferenceRejectedException.class, rejected -> {
+                    assertThat(rejected.getReason()).isEqualTo("requester_limit");
+                    assertThat(rejected.isPerRequester()).isTrue();
+                });
+
+        queue(limiter, VISITOR, 1);
+        assertThatThrownBy(() -> limiter.acquire(USER))
+                .isInstanceOfSatisfying(InferenceRejectedException.class, rejected -> {
+                    assertThat(rejected.getReason()).isEqualTo("queue_full");
+                    assertThat(rejected.isPerRequester()).isFalse();
+                    assertThat(rejected.getRetryAfterSeconds()).isPositive();
+                });
+        running.close();
+        drain(2);
+    }
+
+    @Test
+    void cancellingAfterTheGrantBeforeTheFirstElementReturnsThePermit() throws Exception {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofSeconds(10));
+        Disposable stream = limiter.withPermit(VISITOR, Flux::<String>never).subscribe();
+        awaitTrue(() -> limiter.activeCount() == 1);
+
+        stream.dispose();
+
+        awaitTrue(() -> limiter.activeCount() == 0);
+        limiter.acquire(VISITOR).close();
+    }
+
+    @Test
+    void cancellingWhileQueuedLeavesNoPermitOrTicketBehind() throws Exception {
+        InferenceLimiter limiter = limiter(1, 10, Duration.ofSeconds(10));
+        InferenceLimiter.Permit running = limiter.acquire(FLOODER);
+        Disposable stream = limiter.withPermit(VISITOR, Flux::<String>never).subscribe();
+        awaitTrue(() -> limiter.queueDepth() == 1);
+
+        stream.dispose();
+        running.close();
+
+        awaitTrue(() -> limiter.activeCount() == 0 && limiter.queueDepth() == 0);
+    }
+
+    private InferenceLimiter limiter(int maxConcurrent, int maxQueuedPerRequester, Duration maxWait) {
+        return new InferenceLimiter(maxConcurrent, 50, maxQueuedPerRequester, 2, 1, maxWait, new SimpleMeterRegistry());
+    }
+
+    // Queues the waiters one at a time so their order in the requester's queue is known
+    private void queue(InferenceLimiter limiter, Requester requester, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            int depth = limiter.queueDepth();
+            threads.submit(() -> {
+                InferenceLimiter.Permit permit = limiter.acquire(requester);
+                synchronized (grantOrder) {
+                    grantOrder.add(requester.key());
+                }
+                grants.add(permit);
+                return null;
+            });
+            awaitTrue(() -> limiter.queueDepth() == depth + 1);
+        }
+    }
+
+    // Lets the waiters through one grant at a time and returns who got each
+    private List<String> drain(int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            InferenceLimiter.Permit permit = grants.poll(5, TimeUnit.SECONDS);
+            assertThat(permit).isNotNull();
+            permit.close();
+        }
+        synchronized (grantOrder) {
+            return new ArrayList<>(grantOrder.subList(0, count));
+        }
+    }
+
+    static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+}
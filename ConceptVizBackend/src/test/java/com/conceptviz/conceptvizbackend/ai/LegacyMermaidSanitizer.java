@@ -0,0 +1,107 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+/**
+ * The regex/split based cleaner and validator that {@link MermaidSanitizer} replaced, kept
+ * verbatim as the reference for the equivalence test and the benchmark baseline.
+ */
+public final class LegacyMermaidSanitizer {
+
+    private LegacyMermaidSanitizer() {
+    }
+
+    public static String cleanMermaidCode(String response) {
+        if (response == null || response.trim().isEmpty()) {
+            return "";
+        }
+
+        // Remove markdown code blocks
+        String cleaned = response.replaceAll("```mermaid\\s*", "")
+                .replaceAll("```\\s*", "")
+                .trim();
+
+        // Split into lines and find the diagram start
+        String[] lines = cleaned.split("\n");
+        StringBuilder result = new StringBuilder();
+        boolean foundStart = false;
+        String diagramType = null;
+
+        for (String line : lines) {
+            String trimmedLine = line.trim();
+
+            // Skip empty lines at the start
+            if (!foundStart && trimmedLine.isEmpty()) {
+                continue;
+            }
+
+            // Check if this line starts a valid diagram
+            if (!foundStart && isValidDiagramStart(trimmedLine)) {
+                foundStart = true;
+                diagramType = extractDiagramType(trimmedLine);
+                result.append(trimmedLine).append("\n");
+                continue;
+            }
+
+            // Once we've found the start, add all non-empty lines
+            if (foundStart && !trimmedLine.isEmpty()) {
+                // Don't allow mixing diagram types
+                if (isValidDiagramStart(trimmedLine) && !trimmedLine.startsWith(diagramType)) {
+                    break; // Stop if we encounter a different diagram type
+                }
+                result.append(line).append("\n");
+            }
+        }
+
+        return result.toString().trim();
+    }
+
+    public static boolean isValidMermaidSyntax(String code) {
+        if (code == null || code.trim().isEmpty()) {
+            return false;
+        }
+
+        String firstLine = code.split("\n")[0].trim();
+
+        // Must start with a valid diagram type
+        if (!isValidDiagramStart(firstLine)) {
+            return false;
+        }
+
+        // Must have at least 2 lines
+        String[] lines = code.split("\n");
+        if (lines.length < 2) {
+            return false;
+        }
+
+        // Should not contain obvious errors
+        if (code.contains("```") || code.contains("Here is") || code.contains("Here's")) {
+            return false;
+        }
+
+        return true;
+    }
+
+    static boolean isValidDiagramStart(String line) {
+        return line.matches("^(graph|flowchart|sequenceDiagram|classDiagram|stateDiagram-v2|erDiagram|journey|gantt|gitGraph).*");
+    }
+
+    static String extractDiagramType(String line) {
+        if (line.startsWith("graph") || line.startsWith("flowchart")) {
+            return "graph";
+        } else if (line.startsWith("sequenceDiagram")) {
+            return "sequenceDiagram";
+        } else if (line.startsWith("classDiagram")) {
+            return "classDiagram";
+        } else if (line.startsWith("stateDiagram")) {
+            return "stateDiagram";
+        } else if (line.startsWith("erDiagram")) {
+            return "erDiagram";
+        } else if (line.startsWith("journey")) {
+            return "journey";
+        } else if (line.startsWith("gantt")) {
+            return "gantt";
+        } else if (line.startsWith("gitGraph")) {
+            return "gitGraph";
+        }
+        return "graph";
+    }
+}
@@ -0,0 +1,44 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Raw model outputs collected from the generate endpoint, keyed by sample name.
+ * Samples in {@code mermaid/model-outputs.txt} are introduced by a {@code ##### name} line.
+ */
+public final class MermaidCorpus {
+
+    private MermaidCorpus() {
+    }
+
+    public static Map<String, String> load() {
+        try (InputStream in = MermaidCorpus.class.getResourceAsStream("/mermaid/model-outputs.txt")) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            Map<String, String> samples = new LinkedHashMap<>();
+            String name = null;
+            StringBuilder body = new StringBuilder();
+            for (String line : text.split("\n", -1)) {
+                if (line.startsWith("##### ")) {
+                    if (name != null) {
+                        samples.put(name, body.toString());
+                    }
+                    name = line.substring(6).trim();
+                    body.setLength(0);
+                } else if (name != null) {
+                    body.append(line).append('\n');
+                }
+            }
+            if (name != null) {
+                samples.put(name, body.toString());
+            }
+            return samples;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
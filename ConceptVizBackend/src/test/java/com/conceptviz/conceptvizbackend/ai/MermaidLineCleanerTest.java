@@ -0,0 +1,82 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MermaidLineCleanerTest {
+
+    private static final String RESPONSE = """
+            Sure! Here is a diagram of the TLS handshake:
+
+            ```mermaid
+            sequenceDiagram
+                Client->>Server: ClientHello
+                Server-->>Client: ServerHello
+            ```
+            """;
+
+    @Test
+    void dropsLeadingProseAndCodeFences() {
+        List<String> lines = streamInChunks(new MermaidLineCleaner(), RESPONSE, RESPONSE.length());
+
+        assertThat(lines).containsExactly(
+                "sequenceDiagram",
+                "    Client->>Server: ClientHello",
+                "    Server-->>Client: ServerHello");
+    }
+
+    @Test
+    void emitsTheSameLinesWhateverTheChunkBoundaries() {
+        List<String> whole = streamInChunks(new MermaidLineCleaner(), RESPONSE, RESPONSE.length());
+
+        for (int size : new int[]{1, 2, 3, 7, 16}) {
+            assertThat(streamInChunks(new MermaidLineCleaner(), RESPONSE, size)).as("chunks of %d", size).isEqualTo(whole);
+        }
+        // The provisional lines agree with the batch cleaner that has the final say
+        assertThat(String.join("\n", whole)).isEqualTo(MermaidSanitizer.clean(RESPONSE));
+    }
+
+    @Test
+    void holdsAPartialLineUntilItsNewlineOrTheEndOfTheStream() {
+        MermaidLineCleaner cleaner = new MermaidLineCleaner();
+
+        assertThat(cleaner.accept("graph TD\n    A --")).containsExactly("graph TD");
+        assertThat(cleaner.accept("> B")).isEmpty();
+        assertThat(cleaner.finish()).containsExactly("    A --> B");
+        assertThat(cleaner.getDiagramType()).isEqualTo("graph");
+    }
+
+    @Test
+    void stopsAtTheStartOfASecondDiagramType() {
+        MermaidLineCleaner cleaner = new MermaidLineCleaner();
+
+        List<String> lines = cleaner.accept("graph TD\n    A --> B\n```\n```mermaid\nsequenceDiagram\n    A->>B: hi\n");
+
+        assertThat(lines).containsExactly("graph TD", "    A --> B");
+        assertThat(cleaner.isStopped()).isTrue();
+        assertThat(cleaner.accept("    B->>A: bye\n")).isEmpty();
+        assertThat(cleaner.finish()).isEmpty();
+    }
+
+    @Test
+    void proseWithoutADiagramEmitsNothing() {
+        MermaidLineCleaner cleaner = new MermaidLineCleaner();
+
+        assertThat(cleaner.accept("I cannot draw that, but here is an explanation.\n")).isEmpty();
+        assertThat(cleaner.finish()).isEmpty();
+        assertThat(cleaner.getDiagramType()).isNull();
+    }
+
+    private static List<String> streamInChunks(MermaidLineCleaner cleaner, String response, int chunkSize) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < response.length(); i += chunkSize) {
+            lines.addAll(cleaner.accept(response.substring(i, Math.min(response.length(), i + chunkSize))));
+        }
+        lines.addAll(cleaner.finish());
+        return lines;
+    }
+}
@@ -0,0 +1,112 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MermaidRepairerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MermaidRepairer repairer = new MermaidRepairer(meterRegistry);
+
+    @Test
+    void wellFormedCorpusDiagramsParseClean() {
+        Map<String, String> corpus = MermaidCorpus.load();
+        for (String name : List.of("fenced-flowchart", "bare-flowchart", "flowchart-keyword", "class-diagram",
+                "state-diagram-v2", "er-diagram", "journey", "gantt", "git-graph", "tabs-indent", "unicode-labels",
+                "blank-lines-inside", "fence-without-language")) {
+            String cleaned = MermaidSanitizer.clean(corpus.get(name));
+            MermaidParser.Result parsed = MermaidParser.parse(cleaned);
+            assertThat(parsed.issues()).as(name).isEmpty();
+            assertThat(parsed.repaired()).as(name).isEqualTo(cleaned);
+        }
+    }
+
+    @Test
+    void repairsFlowchartMistakes() {
+        assertRepaired("graph TD\n    A[Start --> B[End]", "graph TD\n    A[Start] --> B[End]",
+                MermaidIssue.Kind.UNBALANCED_BRACKETS);
+        assertRepaired("graph TD\n    A[Start]] --> B", "graph TD\n    A[Start] --> B",
+                MermaidIssue.Kind.UNBALANCED_BRACKETS);
+        assertRepaired("graph LR\n    A -> B\n    B ->> C", "graph LR\n    A --> B\n    B --> C",
+                MermaidIssue.Kind.BAD_ARROW, MermaidIssue.Kind.BAD_ARROW);
+        assertRepaired("graph TD\n    A[f(x) = 2x] --> B", "graph TD\n    A[\"f(x) = 2x\"] --> B",
+                MermaidIssue.Kind.UNQUOTED_LABEL);
+        assertRepaired("graph TD\n    A --> B: yes", "graph TD\n    A -->|yes| B",
+                MermaidIssue.Kind.MISPLACED_LABEL);
+        assertRepaired("graph TD\n    subgraph One\n        A --> B\n    C --> D",
+                "graph TD\n    subgraph One\n        A --> B\n    C --> D\n    end",
+                MermaidIssue.Kind.UNBALANCED_BRACKETS);
+        assertRepaired("graph TD\n    A --> B\nThis flowchart shows how A leads to B.\n    B --> C",
+                "graph TD\n    A --> B\n    B --> C", MermaidIssue.Kind.PROSE);
+    }
+
+    @Test
+    void repairsOtherDiagramTypes() {
+        assertRepaired("sequenceDiagram\n    Alice->>Bob hello there", "sequenceDiagram\n    Alice->>Bob: hello there",
+                MermaidIssue.Kind.MISSING_LABEL);
+        assertRepaired("sequenceDiagram\n    Alice => Bob: hi\n    loop Every minute\n        Bob-->>Alice: ping",
+                "sequenceDiagram\n    Alice->>Bob: hi\n    loop Every minute\n        Bob-->>Alice: ping\n    end",
+                MermaidIssue.Kind.BAD_ARROW, MermaidIssue.Kind.UNBALANCED_BRACKETS);
+        assertRepaired("classDiagram\n    class Animal {\n        +String name\n    class Dog\n    Animal <|- Dog",
+                "classDiagram\n    class Animal {\n        +String name\n    }\n    class Dog\n    Animal <|-- Dog",
+                MermaidIssue.Kind.UNBALANCED_BRACKETS, MermaidIssue.Kind.BAD_ARROW);
+        assertRepaired("stateDiagram-v2\n    [*] -> Idle\n    Idle --> [*]", "stateDiagram-v2\n    [*] --> Idle\n    Idle --> [*]",
+                MermaidIssue.Kind.BAD_ARROW);
+        assertRepaired("erDiagram\n    CUSTOMER ||--o{ ORDER", "erDiagram\n    CUSTOMER ||--o{ ORDER : \"\"",
+                MermaidIssue.Kind.MISSING_LABEL);
+        assertRepaired("journey\n    title Cooking\n    section Prep\n      Buy food: 7: Me",
+                "journey\n    title Cooking\n    section Prep\n      Buy food: 5: Me", MermaidIssue.Kind.INVALID_VALUE);
+    }
+
+    @Test
+    void pinpointsBrokenLines() {
+        MermaidParser.Result parsed = MermaidParser.parse("graph TD\n    A --> B\n    B -> C\n    C --> %%%");
+
+        assertThat(parsed.issues()).extracting(MermaidIssue::line).containsExactly(3, 4);
+        assertThat(parsed.issues()).extracting(MermaidIssue::kind)
+                .containsExactly(MermaidIssue.Kind.BAD_ARROW, MermaidIssue.Kind.SYNTAX);
+        assertThat(parsed.isRepairable()).isFalse();
+    }
+
+    @Test
+    void classifiesOutcomes() {
+        assertThat(repairer.review("graph TD\n    A --> B").outcome()).isEqualTo(MermaidRepairer.Outcome.CLEAN);
+        assertThat(repairer.review("graph TD\n    A -> B").outcome()).isEqualTo(MermaidRepairer.Outcome.REPAIRED);
+        assertThat(repairer.review("graph TD\n    A --> B\n    C --> %%%").outcome())
+                .isEqualTo(MermaidRepairer.Outcome.UNRESOLVED);
+        assertThat(repairer.review("graph TD").outcome()).isEqualTo(MermaidRepairer.Outcome.FALLBACK);
+        assertThat(repairer.review("").outcome()).isEqualTo(MermaidRepairer.Outcome.FALLBACK);
+
+        assertThat(meterRegistry.get("diagram.generate.outcome").tag("outcome", "repaired")
+                .tag("diagram_type", "graph").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("diagram.generate.outcome").tag("outcome", "fallback").counters())
+                .extracting(counter -> counter.getId().getTag("diagram_type"))
+                .containsExactlyInAnyOrder("graph", "unknown");
+    }
+
+    @Test
+    void prosePassingOldValidationIsNowRemoved() {
+        String cleaned = MermaidSanitizer.clean(MermaidCorpus.load().get("preamble-and-explanation"));
+        assertThat(MermaidSanitizer.isValid(cleaned)).isTrue();
+
+        MermaidRepairer.Result result = repairer.review(cleaned);
+
+        assertThat(result.outcome()).isEqualTo(MermaidRepairer.Outcome.REPAIRED);
+        assertThat(result.code()).doesNotContain("This diagram shows").endsWith("Client->>Server: ACK");
+    }
+
+    private void assertRepaired(String code, String expected, MermaidIssue.Kind... kinds) {
+        MermaidParser.Result parsed = MermaidParser.parse(code);
+        assertThat(parsed.issues()).as(code).extracting(MermaidIssue::kind).containsExactlyInAnyOrder(kinds);
+        assertThat(parsed.repaired()).isEqualTo(expected);
+
+        MermaidRepairer.Result result = repairer.review(code);
+        assertThat(result.outcome()).as(code).isEqualTo(MermaidRepairer.Outcome.REPAIRED);
+        assertThat(result.code()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,73 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MermaidSanitizerTest {
+
+    private static final String[] FUZZ_TOKENS = {
+            "```", "```mermaid", "`", "``", "mermaid", "\n", "\r\n", "\r", " ", "\t", "\u000B", "\f", "\u0001",
+            "\u0085", "\u2028", "graph TD", "graph", "flowchart LR", "sequenceDiagram", "classDiagram",
+            "stateDiagram", "stateDiagram-v2", "erDiagram", "journey", "gantt", "gitGraph", "pie",
+            "A --> B", "Here is", "Here's", "    ", "[label]", "x"
+    };
+
+    @TestFactory
+    Stream<DynamicTest> matchesLegacyOnModelOutputs() {
+        return MermaidCorpus.load().entrySet().stream()
+                .flatMap(sample -> Stream.of(
+                        DynamicTest.dynamicTest(sample.getKey(), () -> assertEquivalent(sample.getValue())),
+                        DynamicTest.dynamicTest(sample.getKey() + " (crlf)",
+                                () -> assertEquivalent(sample.getValue().replace("\n", "\r\n"))),
+                        DynamicTest.dynamicTest(sample.getKey() + " (no trailing newline)",
+                                () -> assertEquivalent(sample.getValue().stripTrailing())),
+                        DynamicTest.dynamicTest(sample.getKey() + " (prose around)",
+                                () -> assertEquivalent("Sure! Here's a diagram:\n\n" + sample.getValue()
+                                        + "\nLet me know if you need changes.\n"))));
+    }
+
+    @Test
+    void matchesLegacyOnRandomisedInputs() {
+        Random random = new Random(20240101L);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder input = new StringBuilder();
+            int tokens = random.nextInt(40);
+            for (int t = 0; t < tokens; t++) {
+                input.append(FUZZ_TOKENS[random.nextInt(FUZZ_TOKENS.length)]);
+            }
+            assertEquivalent(input.toString());
+        }
+    }
+
+    @Test
+    void handlesNullAndBlank() {
+        assertThat(MermaidSanitizer.clean(null)).isEmpty();
+        assertThat(MermaidSanitizer.clean(" \n\t ")).isEmpty();
+        assertThat(MermaidSanitizer.isValid(null)).isFalse();
+        assertThat(MermaidSanitizer.isValid("   ")).isFalse();
+    }
+
+    private static void assertEquivalent(String raw) {
+        String expected = LegacyMermaidSanitizer.cleanMermaidCode(raw);
+        String actual = MermaidSanitizer.clean(raw);
+        assertThat(actual).as("clean(%s)", escape(raw)).isEqualTo(expected);
+        assertThat(MermaidSanitizer.isValid(actual)).as("isValid(clean(%s))", escape(raw))
+                .isEqualTo(LegacyMermaidSanitizer.isValidMermaidSyntax(expected));
+        assertThat(MermaidSanitizer.isValid(raw)).as("isValid(%s)", escape(raw))
+                .isEqualTo(LegacyMermaidSanitizer.isValidMermaidSyntax(raw));
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            escaped.append(c < ' ' || c > '~' ? String.format("\\u%04x", (int) c) : String.valueOf(c));
+        }
+        return escaped.toString();
+    }
+}
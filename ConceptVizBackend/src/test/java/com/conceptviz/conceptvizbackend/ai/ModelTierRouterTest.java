@@ -0,0 +1,70 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ModelTierRouterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void longTopicsAndComplexKeywordsAreComplex() {
+        ModelTierRouter router = router("fast-first");
+
+        assertThat(router.isComplex("DNS lookup")).isFalse();
+        assertThat(router.isComplex("Kafka architecture")).isTrue();
+        assertThat(router.isComplex("REST vs GraphQL")).isTrue();
+        assertThat(router.isComplex("how a request travels from the browser through the load balancer to the app"))
+                .isTrue();
+        // Keywords match whole words only
+        assertThat(router.isComplex("Comparisons of sorting")).isFalse();
+    }
+
+    @Test
+    void fastFirstStartsSimpleTopicsOnTheFastTierAndComplexOnesOnTheLarge() {
+        ModelTierRouter router = router("fast-first");
+
+        assertThat(router.plan("DNS lookup")).extracting(ModelTierRouter.ModelTier::name)
+                .containsExactly("fast", "large");
+        assertThat(router.plan("Kafka architecture")).extracting(ModelTierRouter.ModelTier::name)
+                .containsExactly("large");
+        assertThat(registry.counter("diagram.tier.routed", "tier", "fast", "reason", "default").count()).isEqualTo(1);
+        assertThat(registry.counter("diagram.tier.routed", "tier", "large", "reason", "complex").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void largeOnlyAlwaysPlansTheLargeTier() {
+        ModelTierRouter router = router("large-only");
+
+        assertThat(router.plan("DNS lookup")).extracting(ModelTierRouter.ModelTier::model)
+                .containsExactly("large-model");
+        assertThat(registry.find("diagram.tier.routed").counters()).isEmpty();
+    }
+
+    @Test
+    void modelsListsThePlannedTiersWithoutCountingARouting() {
+        ModelTierRouter router = router("fast-first");
+
+        assertThat(router.models("DNS lookup")).containsExactly("fast-model", "large-model");
+        assertThat(router.models("Kafka architecture")).containsExactly("large-model");
+        assertThat(registry.find("diagram.tier.routed").counters()).isEmpty();
+    }
+
+    @Test
+    void aTierNeverExceedsThePromptsOutputBudget() {
+        ModelTierRouter.ModelTier fast = router("fast-first").plan("DNS lookup").get(0);
+
+        assertThat(fast.numPredictFor(2000)).isEqualTo(600);
+        assertThat(fast.numPredictFor(400)).isEqualTo(400);
+    }
+
+    private ModelTierRouter router(String policy) {
+        return new ModelTierRouter(policy, "fast-model", 600, "large-model", 2000, 12,
+                List.of("compare", "versus", "vs", "architecture"), registry);
+    }
+}
@@ -0,0 +1,170 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OllamaBackendPoolTest {
+
+    private static final String A = "ollama-a.invalid:11434";
+    private static final String B = "ollama-b.invalid:11434";
+    private static final String C = "ollama-c.invalid:11434";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Backend of every request the pool sent out, in order
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final List<Disposable> open = new ArrayList<>();
+    private OllamaBackendPool pool;
+
+    @AfterEach
+    void closePool() {
+        open.forEach(Disposable::dispose);
+        pool.destroy();
+    }
+
+    @Test
+    void sendsEachRequestToTheBackendWithTheFewestInFlight() throws Exception {
+        pool = pool(List.of(A, B, C), 2, Duration.ofSeconds(5), 3, false);
+        WebClient client = client(request -> Mono.never());
+
+        for (int i = 0; i < 4; i++) {
+            open.add(chat(client).subscribe());
+            int expected = i + 1;
+            InferenceLimiterTest.awaitTrue(() -> sent.size() == expected);
+        }
+
+        assertThat(sent).containsExactly(A, B, C, A);
+        assertThat(inFlight()).containsEntry(A, 2).containsEntry(B, 1).containsEntry(C, 1);
+
+        // Cancelled requests give their slots back
+        open.forEach(Disposable::dispose);
+        InferenceLimiterTest.awaitTrue(() -> inFlight().values().stream().allMatch(count -> count == 0));
+    }
+
+    @Test
+    void aRequestWaitsForASlotOnceEveryBackendIsAtItsLimit() throws Exception {
+        pool = pool(List.of(A), 1, Duration.ofSeconds(5), 3, false);
+        List<Mono<ClientResponse>> responses = new CopyOnWriteArrayList<>();
+        WebClient client = client(request -> Mono.defer(() -> responses.get(sent.size() - 1)));
+        responses.add(Mono.<ClientResponse>never());
+        responses.add(ok());
+
+        Disposable first = chat(client).subscribe();
+        InferenceLimiterTest.awaitTrue(() -> sent.size() == 1);
+        var second = chat(client).toFuture();
+        Thread.sleep(100);
+        assertThat(sent).hasSize(1);
+
+        first.dispose();
+
+        assertThat(second.get()).isEqualTo("ok");
+        assertThat(sent).containsExactly(A, A);
+        assertThat(inFlight()).containsEntry(A, 0);
+    }
+
+    @Test
+    void aRequestThatFindsNoSlotWithinMaxWaitFails() throws Exception {
+        pool = pool(List.of(A), 1, Duration.ofMillis(100), 3, false);
+        WebClient client = client(request -> Mono.never());
+        open.add(chat(client).subscribe());
+        InferenceLimiterTest.awaitTrue(() -> sent.size() == 1);
+
+        assertThatThrownBy(() -> chat(client).block(Duration.ofSeconds(5)))
+                .hasMessageContaining("No Ollama backend had capacity");
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    void consecutiveFailuresEjectABackendButNeverTheLastOneAvailable() throws Exception {
+        pool = pool(List.of(A, B), 2, Duration.ofSeconds(5), 2, false);
+        WebClient client = client(request -> Mono.error(new IOException("connection refused")));
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> chat(client).block(Duration.ofSeconds(5))).hasRootCauseInstanceOf(IOException.class);
+        }
+        // Unmeasured backends tie, so both failures hit the first one and took it out
+        assertThat(sent).containsExactly(A, A);
+        assertThat(state(A)).containsEntry("available", false).containsEntry("ejections", 1);
+
+        for (int i = 0; i < 3; i++) {
+            assertThatThrownBy(() -> chat(client).block(Duration.ofSeconds(5))).hasRootCauseInstanceOf(IOException.class);
+        }
+        assertThat(sent.subList(2, sent.size())).containsOnly(B);
+        assertThat(state(B)).containsEntry("available", true).containsEntry("ejections", 0);
+    }
+
+    @Test
+    void theLoserOfAHedgeRaceReleasesItsSlot() throws Exception {
+        pool = pool(List.of(A, B), 2, Duration.ofSeconds(5), 3, true);
+        // The first backend is stuck; the hedge to the second answers right away
+        WebClient client = client(request -> request.url().getHost().startsWith("ollama-a")
+                ? Mono.never()
+                : ok());
+
+        assertThat(chat(client).block(Duration.ofSeconds(5))).isEqualTo("ok");
+
+        assertThat(sent).containsExactly(A, B);
+        assertThat(registry.counter("ollama.hedge.wins").count()).isEqualTo(1);
+        InferenceLimiterTest.awaitTrue(() -> inFlight().values().stream().allMatch(count -> count == 0));
+    }
+
+    // Probes go to unresolvable hosts, so the threshold keeps them from marking a backend unhealthy
+    private OllamaBackendPool pool(List<String> backends, int maxConcurrent, Duration maxWait, int ejectAfterFailures,
+                                   boolean hedge) {
+        return new OllamaBackendPool(backends.stream().map(backend -> "http://" + backend).toList(),
+                "http://localhost:11434", maxConcurrent, maxWait, Duration.ofHours(1), Duration.ofMillis(100),
+                1000, ejectAfterFailures, 3.0, Duration.ofMinutes(1), Duration.ofMinutes(5), hedge, 0.95,
+                Duration.ofMillis(50), 1.0, registry);
+    }
+
+    private WebClient client(Function<ClientRequest, Mono<ClientResponse>> backend) {
+        WebClient.Builder builder = WebClient.builder().exchangeFunction(request -> {
+            sent.add(request.url().getHost() + ":" + request.url().getPort());
+            return backend.apply(request);
+        });
+        pool.customize(builder);
+        return builder.build();
+    }
+
+    private static Mono<String> chat(WebClient client) {
+        return client.post().uri("http://localhost:11434/api/chat").retrieve().bodyToMono(String.class);
+    }
+
+    private static Mono<ClientResponse> ok() {
+        return Mono.fromSupplier(() -> ClientResponse.create(HttpStatus.OK)
+                .header("Content-Type", "text/plain")
+                .body("ok")
+                .build());
+    }
+
+    private Map<String, Object> state(String backend) {
+        return pool.backendStates().stream()
+                .filter(state -> state.get("backend").equals(backend))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private Map<String, Integer> inFlight() {
+        return pool.backendStates().stream()
+                .collect(Collectors.toMap(state -> (String) state.get("backend"),
+                        state -> (Integer) state.get("inFlight")));
+    }
+}
@@ -0,0 +1,124 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OllamaCircuitBreakerTest {
+
+    private static final Duration CLAIM_TIME = Duration.ofMillis(100);
+
+    @Test
+    void opensAfterFailuresAndClosesAfterASuccessfulProbe() throws InterruptedException {
+        OllamaCircuitBreaker breaker = breaker(Duration.ofMillis(50), Duration.ofSeconds(5));
+        for (int i = 0; i < 4; i++) {
+            breaker.protect(Flux.just("ok")).blockLast();
+        }
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> breaker.protect(Flux.error(new IOException("refused"))).blockLast())
+                    .hasCauseInstanceOf(IOException.class);
+        }
+
+        assertThat(breaker.state()).isEqualTo(OllamaCircuitBreaker.State.OPEN);
+        assertThat(breaker.isCallPermitted()).isFalse();
+        assertThatThrownBy(() -> breaker.protect(Flux.just("ok")).blockLast())
+                .isInstanceOf(CircuitOpenException.class);
+
+        Thread.sleep(80);
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThat(breaker.protect(Flux.just("ok")).blockLast()).isEqualTo("ok");
+        assertThat(breaker.state()).isEqualTo(OllamaCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void onlyTheCallerHoldingTheProbeClaimIsLetThroughOnceTheOpenPeriodEnds() throws InterruptedException {
+        OllamaCircuitBreaker breaker = breaker(Duration.ofMillis(50), Duration.ofSeconds(5));
+        trip(breaker);
+        Thread.sleep(80);
+
+        // The claimant is still waiting for an inference permit; everyone else falls back right away
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThat(breaker.isCallPermitted()).isFalse();
+        assertThat(breaker.isCallPermitted()).isFalse();
+
+        assertThat(breaker.protect(Flux.just("ok")).blockLast()).isEqualTo("ok");
+        assertThat(breaker.state()).isEqualTo(OllamaCircuitBreaker.State.CLOSED);
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThat(breaker.snapshot()).containsEntry("shortCircuited", 2L);
+    }
+
+    @Test
+    void aProbeClaimThatIsNeverUsedExpires() throws InterruptedException {
+        OllamaCircuitBreaker breaker = breaker(Duration.ofMillis(50), Duration.ofSeconds(5));
+        trip(breaker);
+        Thread.sleep(80);
+
+        // Claimed by a caller that was then rejected by the inference limiter
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThat(breaker.isCallPermitted()).isFalse();
+        Thread.sleep(CLAIM_TIME.toMillis() + 30);
+
+        assertThat(breaker.isCallPermitted()).isTrue();
+    }
+
+    @Test
+    void aFailedProbeReopensAndDropsTheClaims() throws InterruptedException {
+        OllamaCircuitBreaker breaker = breaker(Duration.ofMillis(50), Duration.ofSeconds(5));
+        trip(breaker);
+        Thread.sleep(80);
+
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThatThrownBy(() -> breaker.protect(Flux.error(new IOException("refused"))).blockLast())
+                .hasCauseInstanceOf(IOException.class);
+
+        assertThat(breaker.state()).isEqualTo(OllamaCircuitBreaker.State.OPEN);
+        assertThat(breaker.isCallPermitted()).isFalse();
+        // Reopened for twice the base time
+        Thread.sleep(130);
+        assertThat(breaker.isCallPermitted()).isTrue();
+    }
+
+    @Test
+    void timesOutASilentCallAndCountsItAsAFailure() throws InterruptedException {
+        OllamaCircuitBreaker breaker = breaker(Duration.ofSeconds(30), Duration.ofMillis(100));
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> breaker.protect(Flux.never()).blockLast())
+                    .hasCauseInstanceOf(TimeoutException.class);
+        }
+
+        // The timeout fires on a timer thread, which records the outcome just after the caller sees the error
+        InferenceLimiterTest.awaitTrue(() -> breaker.state() == OllamaCircuitBreaker.State.OPEN);
+        assertThat(breaker.snapshot()).containsEntry("timeouts", 4L);
+    }
+
+    @Test
+    void ignoresCallsCancelledBeforeTheFirstToken() {
+        OllamaCircuitBreaker breaker = breaker(Duration.ofSeconds(30), Duration.ofSeconds(5));
+        for (int i = 0; i < 8; i++) {
+            breaker.protect(Flux.never()).take(Duration.ofMillis(1)).blockLast();
+        }
+
+        assertThat(breaker.state()).isEqualTo(OllamaCircuitBreaker.State.CLOSED);
+        assertThat(breaker.snapshot()).containsEntry("callsInWindow", 0);
+    }
+
+    private static void trip(OllamaCircuitBreaker breaker) {
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> breaker.protect(Flux.error(new IOException("refused"))).blockLast())
+                    .hasCauseInstanceOf(IOException.class);
+        }
+        assertThat(breaker.state()).isEqualTo(OllamaCircuitBreaker.State.OPEN);
+    }
+
+    private static OllamaCircuitBreaker breaker(Duration openTime, Duration maxTimeout) {
+        return new OllamaCircuitBreaker(true, 8, 4, 0.5, openTime, Duration.ofMinutes(1), 1, CLAIM_TIME, 0.99, 2.0,
+                Duration.ofMillis(10), maxTimeout, Duration.ofSeconds(5), new SimpleMeterRegistry());
+    }
+}
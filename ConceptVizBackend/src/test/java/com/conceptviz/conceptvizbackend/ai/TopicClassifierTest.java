@@ -0,0 +1,27 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopicClassifierTest {
+
+    @Test
+    void picksTheTypeTheTopicNames() {
+        assertThat(TopicClassifier.bestMatch("How does the OAuth2 login flow work")).isEqualTo("sequenceDiagram");
+        assertThat(TopicClassifier.bestMatch("Library database schema")).isEqualTo("erDiagram");
+        assertThat(TopicClassifier.bestMatch("TCP connection states")).isEqualTo("stateDiagram");
+        assertThat(TopicClassifier.bestMatch("Observer design pattern")).isEqualTo("classDiagram");
+        assertThat(TopicClassifier.bestMatch("Product launch roadmap")).isEqualTo("gantt");
+        assertThat(TopicClassifier.bestMatch("Customer journey for online checkout")).isEqualTo("journey");
+        assertThat(TopicClassifier.bestMatch("CI pipeline")).isEqualTo("graph");
+    }
+
+    @Test
+    void leavesUnknownAndAmbiguousTopicsUnclassified() {
+        assertThat(TopicClassifier.bestMatch("Photosynthesis")).isNull();
+        assertThat(TopicClassifier.bestMatch("API database")).isNull();
+        // Substrings of keywords do not count
+        assertThat(TopicClassifier.bestMatch("Recalling statements")).isNull();
+    }
+}
@@ -0,0 +1,28 @@
+package com.conceptviz.conceptvizbackend.ai;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TopicNormalizerTest {
+
+    @Test
+    void foldsCaseSpacingAndLetterDigitBoundaries() {
+        assertThat(TopicNormalizer.normalize("OAuth2 flow")).isEqualTo("oauth 2 flow");
+        assertThat(TopicNormalizer.normalize("  oauth 2   Flow ")).isEqualTo("oauth 2 flow");
+        assertThat(TopicNormalizer.normalize("TCP/IP-stack")).isEqualTo("tcp ip stack");
+        assertThat(TopicNormalizer.normalize(null)).isEmpty();
+    }
+
+    @Test
+    void keepsLanguageNamesWithPlusOrHashApart() {
+        assertThat(TopicNormalizer.normalize("C")).isEqualTo("c");
+        assertThat(TopicNormalizer.normalize("C++ templates")).isEqualTo("c++ templates");
+        assertThat(TopicNormalizer.normalize("c ++ Templates")).isEqualTo("c templates");
+        assertThat(TopicNormalizer.normalize("C# delegates")).isEqualTo("c# delegates");
+        assertThat(TopicNormalizer.normalize("F#")).isNotEqualTo(TopicNormalizer.normalize("F"));
+        assertThat(TopicNormalizer.normalize("C++11")).isEqualTo("c++ 11");
+        // A leading or free-standing symbol is still a separator
+        assertThat(TopicNormalizer.normalize("#hashtags + tips")).isEqualTo("hashtags tips");
+    }
+}
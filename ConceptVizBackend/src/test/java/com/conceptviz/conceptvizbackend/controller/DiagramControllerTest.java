@@ -0,0 +1,196 @@
+package com.conceptviz.conceptvizbackend.controller;
+
+import com.conceptviz.conceptvizbackend.ai.GenerationExecutor;
+import com.conceptviz.conceptvizbackend.ai.InferenceRejectedException;
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.dto.DiagramHistoryPage;
+import com.conceptviz.conceptvizbackend.dto.DiagramRequest;
+import com.conceptviz.conceptvizbackend.dto.DiagramResponse;
+import com.conceptviz.conceptvizbackend.dto.SaveDiagramBatchRequest;
+import com.conceptviz.conceptvizbackend.dto.SaveDiagramRequest;
+import com.conceptviz.conceptvizbackend.search.DiagramSearchSchema;
+import com.conceptviz.conceptvizbackend.security.RequesterResolver;
+import com.conceptviz.conceptvizbackend.service.BatchGenerationService;
+import com.conceptviz.conceptvizbackend.service.DiagramService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class DiagramControllerTest {
+
+    private static final long NOON_MILLIS = Instant.parse("2026-01-02T12:00:00Z").toEpochMilli();
+
+    private final DiagramService diagramService = mock(DiagramService.class);
+    private final RequesterResolver requesterResolver = mock(RequesterResolver.class);
+    private final DiagramSearchSchema diagramSearchSchema = mock(DiagramSearchSchema.class);
+    private final GenerationExecutor executor = new GenerationExecutor(false, 4, new SimpleMeterRegistry());
+    private final DiagramController controller = new DiagramController(mock(BatchGenerationService.class),
+            diagramService, executor, requesterResolver, diagramSearchSchema);
+
+    @AfterEach
+    void stopExecutor() {
+        executor.destroy();
+    }
+
+    @Test
+    void aFullQueueIsA503WithRetryAfter() throws Exception {
+        ResponseEntity<DiagramResponse> response = generateRejectedWith("queue_full");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+    }
+
+    @Test
+    void aFullRequesterQueueIsA429WithRetryAfter() throws Exception {
+        ResponseEntity<DiagramResponse> response = generateRejectedWith("requester_limit");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+    }
+
+    @Test
+    void searchWithoutTheSearchSchemaIsA503AndNeverQueries() {
+        when(diagramSearchSchema.isAvailable()).thenReturn(false);
+
+        assertThat(controller.search("oauth", 0, 20).getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        verifyNoInteractions(diagramService);
+    }
+
+    @Test
+    void aMatchingETagIsA304WithoutLoadingTheHistory() {
+        when(diagramService.getHistoryState()).thenReturn(new DiagramService.HistoryState("\"u42.v3\"", NOON_MILLIS));
+
+        MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+        ResponseEntity<List<DiagramResponse>> response = controller.getMyHistory(
+                historyRequest("If-None-Match", "\"u42.v3\"", servletResponse));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getBody()).isNull();
+        assertThat(servletResponse.getHeader(HttpHeaders.ETAG)).isEqualTo("\"u42.v3\"");
+        verify(diagramService, never()).getUserHistory();
+    }
+
+    @Test
+    void anETagFromBeforeASaveOrFromAnotherUserIsA200WithTheCurrentETag() {
+        when(diagramService.getHistoryState()).thenReturn(new DiagramService.HistoryState("\"u42.v4\"", NOON_MILLIS));
+        when(diagramService.getUserHistory()).thenReturn(List.of(new DiagramResponse()));
+
+        for (String stale : List.of("\"u42.v3\"", "\"u7.v4\"")) {
+            MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+            ResponseEntity<List<DiagramResponse>> response = controller.getMyHistory(
+                    historyRequest("If-None-Match", stale, servletResponse));
+
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(response.getBody()).hasSize(1);
+            assertThat(servletResponse.getHeader(HttpHeaders.ETAG)).isEqualTo("\"u42.v4\"");
+        }
+    }
+
+    @Test
+    void ifModifiedSinceAloneNeverAnswers304SinceItCannotSeeASaveInTheSameSecond() {
+        // Saved 300 ms after the client's copy: same second in HTTP date precision
+        when(diagramService.getHistoryState()).thenReturn(new DiagramService.HistoryState("\"u42.v4\"", NOON_MILLIS + 300));
+        when(diagramService.getUserHistory()).thenReturn(List.of(new DiagramResponse()));
+
+        ResponseEntity<List<DiagramResponse>> response = controller.getMyHistory(historyRequest("If-Modified-Since",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(NOON_MILLIS).atZone(ZoneOffset.UTC)),
+                new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getLastModified()).isEqualTo(NOON_MILLIS);
+    }
+
+    @Test
+    void aMalformedHistoryCursorIsA400() {
+        when(diagramService.getHistoryState()).thenReturn(new DiagramService.HistoryState("\"u42.v3\"", NOON_MILLIS));
+        when(diagramService.getUserHistoryPage("garbage", 20))
+                .thenThrow(new IllegalArgumentException("Invalid history cursor"));
+
+        ResponseEntity<DiagramHistoryPage> response = controller.getHistoryPage("garbage", 20,
+                new ServletWebRequest(new MockHttpServletRequest("GET", "/diagram/history"), new MockHttpServletResponse()));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void aBatchSaveThatFailsIsA400ForTheWholeBatch() {
+        when(diagramService.saveDiagrams(anyList())).thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        assertThat(controller.saveDiagrams(batch(3)).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void batchSaveRequestsAreLimitedTo500ValidDiagrams() {
+        try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
+            Validator validator = factory.getValidator();
+
+            assertThat(validator.validate(batch(500))).isEmpty();
+            assertThat(validator.validate(batch(501))).extracting(ConstraintViolation::getMessage)
+                    .containsExactly("At most 500 diagrams can be saved at once");
+            assertThat(validator.validate(batch(0))).extracting(ConstraintViolation::getMessage)
+                    .containsExactly("At least one diagram is required");
+
+            SaveDiagramBatchRequest withBlankCode = batch(2);
+            withBlankCode.getDiagrams().get(1).setMermaidCode(" ");
+            assertThat(validator.validate(withBlankCode)).extracting(ConstraintViolation::getMessage)
+                    .containsExactly("Mermaid code is required");
+        }
+    }
+
+    private static ServletWebRequest historyRequest(String header, String value, MockHttpServletResponse response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/diagram/my-history");
+        request.addHeader(header, value);
+        return new ServletWebRequest(request, response);
+    }
+
+    private static SaveDiagramBatchRequest batch(int size) {
+        List<SaveDiagramRequest> diagrams = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            SaveDiagramRequest diagram = new SaveDiagramRequest();
+            diagram.setTopic("Topic " + i);
+            diagram.setMermaidCode("graph TD\n    A --> B" + i);
+            diagrams.add(diagram);
+        }
+        SaveDiagramBatchRequest request = new SaveDiagramBatchRequest();
+        request.setDiagrams(diagrams);
+        return request;
+    }
+
+    private ResponseEntity<DiagramResponse> generateRejectedWith(String reason) throws Exception {
+        when(requesterResolver.resolve(any())).thenReturn(Requester.anonymous("10.0.0.1"));
+        when(diagramService.generateDiagram(anyString(), any())).thenThrow(new InferenceRejectedException(reason, 7));
+        DiagramRequest request = new DiagramRequest();
+        request.setTopic("OAuth2 flow");
+
+        return controller.generateDiagram(request, mock(HttpServletRequest.class)).get(5, TimeUnit.SECONDS);
+    }
+}
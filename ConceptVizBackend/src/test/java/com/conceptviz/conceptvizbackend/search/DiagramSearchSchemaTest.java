@@ -0,0 +1,49 @@
+package com.conceptviz.conceptvizbackend.search;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DiagramSearchSchemaTest {
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final DiagramSearchSchema schema = new DiagramSearchSchema(jdbcTemplate);
+
+    @Test
+    void aDatabaseWithoutTheSearchVectorColumnDisablesSearch() {
+        // A fresh install where only Hibernate's schema update ran, or the H2 load test database
+        when(jdbcTemplate.queryForObject(contains("information_schema.columns"), eq(Integer.class))).thenReturn(0);
+
+        schema.afterSingletonsInstantiated();
+
+        assertThat(schema.isAvailable()).isFalse();
+        verify(jdbcTemplate, never()).queryForObject(contains("pg_indexes"), eq(Integer.class));
+    }
+
+    @Test
+    void theMigratedSchemaEnablesSearch() {
+        when(jdbcTemplate.queryForObject(contains("information_schema.columns"), eq(Integer.class))).thenReturn(1);
+        when(jdbcTemplate.queryForObject(contains("pg_indexes"), eq(Integer.class))).thenReturn(1);
+
+        schema.afterSingletonsInstantiated();
+
+        assertThat(schema.isAvailable()).isTrue();
+    }
+
+    @Test
+    void aMissingIndexOnlyWarnsSinceSearchStillWorks() {
+        when(jdbcTemplate.queryForObject(contains("information_schema.columns"), eq(Integer.class))).thenReturn(1);
+        when(jdbcTemplate.queryForObject(contains("pg_indexes"), eq(Integer.class))).thenReturn(0);
+
+        schema.afterSingletonsInstantiated();
+
+        assertThat(schema.isAvailable()).isTrue();
+    }
+}
@@ -0,0 +1,31 @@
+package com.conceptviz.conceptvizbackend.search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiagramSearchTextTest {
+
+    @Test
+    void keepsLabelsAndDropsMermaidSyntax() {
+        String code = """
+                graph TD
+                    P[Producer] -->|publish| K[(Kafka Broker)]
+                    K --> C{Consumer Group}
+                    C --> K
+                    subgraph Cluster
+                    end
+                    style K fill:#f9f,stroke:#333,stroke-width:2px""";
+
+        assertThat(DiagramSearchText.of(code))
+                .isEqualTo("Producer publish Kafka Broker Consumer Group Cluster 2px");
+        assertThat(DiagramSearchText.of(null)).isEmpty();
+    }
+
+    @Test
+    void buildsPrefixQueryFromWordsOnly() {
+        assertThat(DiagramSearchText.toPrefixQuery("Kafka  consum")).isEqualTo("kafka:* & consum:*");
+        assertThat(DiagramSearchText.toPrefixQuery("a' | !b:* & (c)")).isEqualTo("a:* & b:* & c:*");
+        assertThat(DiagramSearchText.toPrefixQuery(" -- ")).isNull();
+    }
+}
@@ -0,0 +1,164 @@
+package com.conceptviz.conceptvizbackend.security;
+
+import com.conceptviz.conceptvizbackend.entity.User;
+import com.conceptviz.conceptvizbackend.repository.UserRepository;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JwtAuthenticationFilterTest {
+
+    private static final String SECRET = "test-secret-test-secret-test-secret-test-secret";
+    private static final String OTHER_SECRET = "another-secret-another-secret-another-secret-00";
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final JwtUtil jwtUtil = jwtUtil(SECRET, 60_000);
+    private final JwtAuthenticationFilter filter = new JwtAuthenticationFilter(jwtUtil,
+            new PrincipalCache(userRepository, Duration.ofMinutes(1), 100, registry), registry);
+
+    @BeforeEach
+    void knownUser() {
+        when(userRepository.findByEmail("ada@example.com")).thenReturn(Optional.of(user(7L, "ada@example.com", "Ada")));
+        when(userRepository.findByEmail("gone@example.com")).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void aCurrentTokenAuthenticatesFromItsClaimsWithoutALookup() throws Exception {
+        String token = jwtUtil.generateToken(user(7L, "ada@example.com", "Ada"));
+
+        assertThat(filter(token)).isEqualTo(new AuthenticatedUser(7L, "ada@example.com", "Ada"));
+        verify(userRepository, never()).findByEmail(anyString());
+        assertThat(outcomes("claims")).isEqualTo(1);
+    }
+
+    @Test
+    void aLegacyTokenFallsBackToOneCachedLookup() throws Exception {
+        // Issued before the uid and name claims existed: subject only
+        String token = token(SECRET, "ada@example.com", new Date(System.currentTimeMillis() + 60_000));
+
+        assertThat(filter(token)).isEqualTo(new AuthenticatedUser(7L, "ada@example.com", "Ada"));
+        SecurityContextHolder.clearContext();
+        assertThat(filter(token)).isEqualTo(new AuthenticatedUser(7L, "ada@example.com", "Ada"));
+
+        verify(userRepository, times(1)).findByEmail("ada@example.com");
+        assertThat(outcomes("lookup")).isEqualTo(2);
+    }
+
+    @Test
+    void aLegacyTokenOfADeletedUserIsNotAuthenticatedNorCached() throws Exception {
+        String token = token(SECRET, "gone@example.com", new Date(System.currentTimeMillis() + 60_000));
+
+        assertThat(filter(token)).isNull();
+        assertThat(filter(token)).isNull();
+
+        verify(userRepository, times(2)).findByEmail("gone@example.com");
+        assertThat(outcomes("unknown_user")).isEqualTo(2);
+    }
+
+    @Test
+    void anExpiredTokenIsRejected() throws Exception {
+        String expired = jwtUtil(SECRET, -1_000).generateToken(user(7L, "ada@example.com", "Ada"));
+
+        assertThat(filter(expired)).isNull();
+        assertThat(outcomes("invalid")).isEqualTo(1);
+    }
+
+    @Test
+    void aTamperedTokenIsRejected() throws Exception {
+        String token = jwtUtil.generateToken(user(7L, "ada@example.com", "Ada"));
+        String[] parts = token.split("\\.");
+        // Same signature over a payload claiming another user id
+        String forgedPayload = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                "{\"sub\":\"ada@example.com\",\"uid\":1,\"exp\":4102444800}".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(filter(parts[0] + "." + forgedPayload + "." + parts[2])).isNull();
+        assertThat(filter(token(OTHER_SECRET, "ada@example.com", new Date(System.currentTimeMillis() + 60_000))))
+                .isNull();
+        assertThat(filter("not-a-jwt")).isNull();
+        assertThat(outcomes("invalid")).isEqualTo(3);
+        verify(userRepository, never()).findByEmail(anyString());
+    }
+
+    @Test
+    void anExistingAuthenticationIsLeftAlone() throws Exception {
+        AuthenticatedUser oauthUser = new AuthenticatedUser(9L, "grace@example.com", "Grace");
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(oauthUser, null, List.of()));
+
+        assertThat(filter(jwtUtil.generateToken(user(7L, "ada@example.com", "Ada")))).isEqualTo(oauthUser);
+    }
+
+    // Runs the filter with the bearer token and returns the principal it left in the security context
+    private Object filter(String token) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/diagram/history");
+        request.addHeader("Authorization", "Bearer " + token);
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isSameAs(request);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? null : authentication.getPrincipal();
+    }
+
+    private long outcomes(String outcome) {
+        return registry.timer("auth.jwt.filter", "outcome", outcome).count();
+    }
+
+    private static JwtUtil jwtUtil(String secret, long expiration) {
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", secret);
+        ReflectionTestUtils.setField(jwtUtil, "expiration", expiration);
+        jwtUtil.init();
+        return jwtUtil;
+    }
+
+    private static String token(String secret, String subject, Date expiration) {
+        return Jwts.builder()
+                .setSubject(subject)
+                .setIssuedAt(new Date())
+                .setExpiration(expiration)
+                .signWith(Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8)), SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    private static User user(Long id, String email, String name) {
+        User user = new User();
+        user.setId(id);
+        user.setEmail(email);
+        user.setName(name);
+        return user;
+    }
+}
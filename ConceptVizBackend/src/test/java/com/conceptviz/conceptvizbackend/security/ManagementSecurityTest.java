@@ -0,0 +1,103 @@
+package com.conceptviz.conceptvizbackend.security;
+
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.endpoint.EndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.endpoint.web.WebEndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.health.HealthContributorAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.health.HealthEndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.info.InfoEndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsEndpointAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementContextAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.web.servlet.ServletManagementContextAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// No application controllers: only the actuator endpoints and the security chains are under test
+@WebMvcTest(controllers = ManagementSecurityTest.class, properties = {
+        "management.endpoints.web.exposure.include=health,info,metrics",
+        "conceptviz.management.username=scraper",
+        "conceptviz.management.password=scrape-secret",
+        "spring.security.oauth2.client.registration.google.client-id=test",
+        "spring.security.oauth2.client.registration.google.client-secret=test"
+})
+@Import({SecurityConfig.class, JwtAuthenticationFilter.class, ManagementSecurityTest.Metrics.class})
+@ImportAutoConfiguration({EndpointAutoConfiguration.class, WebEndpointAutoConfiguration.class,
+        ManagementContextAutoConfiguration.class, ServletManagementContextAutoConfiguration.class,
+        HealthContributorAutoConfiguration.class, HealthEndpointAutoConfiguration.class,
+        InfoEndpointAutoConfiguration.class, MetricsEndpointAutoConfiguration.class})
+class ManagementSecurityTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private JwtUtil jwtUtil;
+
+    @MockBean
+    private PrincipalCache principalCache;
+
+    @MockBean
+    private UserDetailsService userDetailsService;
+
+    @MockBean
+    private OAuth2AuthenticationSuccessHandler oAuth2AuthenticationSuccessHandler;
+
+    @BeforeEach
+    void validUserToken() {
+        when(jwtUtil.parseToken("user-token")).thenReturn(new DefaultClaims(Map.of(
+                "sub", "user@example.com", JwtUtil.USER_ID_CLAIM, 7, JwtUtil.NAME_CLAIM, "User")));
+    }
+
+    @Test
+    void healthAndInfoAreOpen() throws Exception {
+        mockMvc.perform(get("/actuator/health")).andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/info")).andExpect(status().isOk());
+    }
+
+    @Test
+    void otherEndpointsNeedTheManagementCredential() throws Exception {
+        mockMvc.perform(get("/actuator/metrics")).andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/metrics").header("Authorization", basic("scraper", "wrong")))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/metrics").header("Authorization", basic("scraper", "scrape-secret")))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void aUserTokenDoesNotOpenManagementEndpoints() throws Exception {
+        mockMvc.perform(get("/actuator/metrics").header("Authorization", "Bearer user-token"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TestConfiguration
+    static class Metrics {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
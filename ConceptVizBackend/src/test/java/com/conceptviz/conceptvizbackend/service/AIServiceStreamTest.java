@@ -0,0 +1,138 @@
+package com.conceptviz.conceptvizbackend.service;
+
+import com.conceptviz.conceptvizbackend.ai.CircuitOpenException;
+import com.conceptviz.conceptvizbackend.ai.DiagramCache;
+import com.conceptviz.conceptvizbackend.ai.DiagramPrompts;
+import com.conceptviz.conceptvizbackend.ai.GenerationCoalescer;
+import com.conceptviz.conceptvizbackend.ai.GenerationGuards;
+import com.conceptviz.conceptvizbackend.ai.GenerationMetrics;
+import com.conceptviz.conceptvizbackend.ai.InferenceLimiter;
+import com.conceptviz.conceptvizbackend.ai.MermaidRepairer;
+import com.conceptviz.conceptvizbackend.ai.ModelTierRouter;
+import com.conceptviz.conceptvizbackend.ai.OllamaCircuitBreaker;
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.ai.SemanticDiagramCache;
+import com.conceptviz.conceptvizbackend.dto.DiagramStreamEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AIServiceStreamTest {
+
+    private static final String TOPIC = "TLS handshake";
+    private static final SemanticDiagramCache.Lookup MISS = new SemanticDiagramCache.Lookup(null, null, 0, false);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ChatClient chatClient = mock(ChatClient.class, RETURNS_DEEP_STUBS);
+    private final DiagramPrompts diagramPrompts = mock(DiagramPrompts.class);
+    private final ModelTierRouter modelTierRouter = mock(ModelTierRouter.class);
+    private final OllamaCircuitBreaker breaker = mock(OllamaCircuitBreaker.class);
+    private final SemanticDiagramCache semanticDiagramCache = mock(SemanticDiagramCache.class);
+    private final AtomicInteger modelCalls = new AtomicInteger();
+    private final AIService aiService = new AIService(chatClient,
+            new DiagramCache(true, 100, Duration.ofHours(1), "llama3", registry), diagramPrompts,
+            mock(GenerationCoalescer.class), new GenerationGuards(new MockEnvironment(), registry),
+            new GenerationMetrics(registry),
+            new InferenceLimiter(2, 50, 5, 2, 1, Duration.ofSeconds(5), registry),
+            new MermaidRepairer(registry), registry, modelTierRouter, breaker, semanticDiagramCache);
+
+    @BeforeEach
+    void stubCollaborators() {
+        when(diagramPrompts.version()).thenReturn("v1");
+        when(diagramPrompts.forTopic(anyString())).thenReturn(new DiagramPrompts.DiagramPrompt("flowchart", "Draw {topic}", 300));
+        when(modelTierRouter.plan(anyString())).thenReturn(List.of(new ModelTierRouter.ModelTier("small", "llama3", 300)));
+        when(modelTierRouter.models(anyString())).thenReturn(List.of("llama3"));
+        when(semanticDiagramCache.lookup(anyString(), anyString(), any())).thenReturn(MISS);
+        when(breaker.isCallPermitted()).thenReturn(true);
+        when(breaker.protect(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void streamsCleanedLinesThenACompleteEventWithTheFinalDiagram() {
+        modelAnswers("Here you go:\n```mermaid\ngraph TD\n    A[Client] --> B",
+                "[Server]\n    B --> C[Database]\n```\n");
+
+        List<DiagramStreamEvent> events = stream();
+
+        assertThat(events).extracting(DiagramStreamEvent::getType).containsExactly(
+                DiagramStreamEvent.LINE, DiagramStreamEvent.LINE, DiagramStreamEvent.LINE, DiagramStreamEvent.COMPLETE);
+        assertThat(events.subList(0, 3)).extracting(DiagramStreamEvent::getLine)
+                .containsExactly("graph TD", "    A[Client] --> B[Server]", "    B --> C[Database]");
+        DiagramStreamEvent complete = events.get(3);
+        assertThat(complete.getFallback()).isFalse();
+        assertThat(complete.getTopic()).isEqualTo(TOPIC);
+        assertThat(complete.getMermaidCode()).startsWith("graph TD").contains("B --> C[Database]").doesNotContain("```");
+
+        // The result is cached, so the next stream of the topic never reaches the model
+        List<DiagramStreamEvent> cached = stream();
+        assertThat(cached.get(cached.size() - 1)).isEqualTo(DiagramStreamEvent.complete(TOPIC, complete.getMermaidCode(), false));
+        assertThat(modelCalls).hasValue(1);
+    }
+
+    @Test
+    void outputWithoutADiagramCompletesWithTheFallback() {
+        modelAnswers("I am sorry, I cannot draw that topic.\n");
+
+        List<DiagramStreamEvent> events = stream();
+
+        assertThat(events).extracting(DiagramStreamEvent::getType).containsExactly(DiagramStreamEvent.COMPLETE);
+        assertThat(events.get(0).getFallback()).isTrue();
+        assertThat(events.get(0).getMermaidCode()).startsWith("graph TD").contains("A[" + TOPIC + "]");
+    }
+
+    @Test
+    void aBreakerThatRefusesTheCallAfterThePreCheckCompletesWithTheDegradedMatch() {
+        // The pre-check let the call through, but another request took the half-open probe meanwhile
+        when(breaker.protect(any())).thenReturn(Flux.error(new CircuitOpenException(5)));
+        when(semanticDiagramCache.degradedMatch(MISS)).thenReturn("graph TD\n    A[TLS] --> B[Handshake]");
+
+        assertThat(stream()).containsExactly(
+                DiagramStreamEvent.complete(TOPIC, "graph TD\n    A[TLS] --> B[Handshake]", false));
+    }
+
+    @Test
+    void aRefusedCallWithoutADegradedMatchCompletesWithTheFallback() {
+        when(breaker.protect(any())).thenReturn(Flux.error(new CircuitOpenException(5)));
+
+        List<DiagramStreamEvent> events = stream();
+
+        assertThat(events).extracting(DiagramStreamEvent::getType).containsExactly(DiagramStreamEvent.COMPLETE);
+        assertThat(events.get(0).getFallback()).isTrue();
+    }
+
+    private List<DiagramStreamEvent> stream() {
+        return aiService.streamDiagram(TOPIC, Requester.anonymous("10.0.0.1")).collectList().block(Duration.ofSeconds(10));
+    }
+
+    private void modelAnswers(String... chunks) {
+        Flux<ChatResponse> responses = Flux.defer(() -> {
+            modelCalls.incrementAndGet();
+            return Flux.fromStream(Arrays.stream(chunks).map(AIServiceStreamTest::chunk));
+        });
+        when(chatClient.prompt(any(Prompt.class)).stream().chatResponse()).thenReturn(responses);
+    }
+
+    // Only the text of each streamed chunk matters here; usage metadata stays empty
+    private static ChatResponse chunk(String text) {
+        ChatResponse response = mock(ChatResponse.class, RETURNS_DEEP_STUBS);
+        when(response.getResult().getOutput().getContent()).thenReturn(text);
+        return response;
+    }
+}
@@ -0,0 +1,65 @@
+package com.conceptviz.conceptvizbackend.service;
+
+import com.conceptviz.conceptvizbackend.ai.Requester;
+import com.conceptviz.conceptvizbackend.dto.BatchGenerateEvent;
+import com.conceptviz.conceptvizbackend.dto.DiagramStreamEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchGenerationServiceTest {
+
+    private static final Requester REQUESTER = Requester.user("batch@example.com");
+
+    private final AIService aiService = mock(AIService.class);
+    private final BatchGenerationService service = new BatchGenerationService(aiService, mock(DiagramService.class),
+            new SimpleMeterRegistry(), 2, 20, Duration.ofSeconds(1));
+
+    @Test
+    void generatesEachDistinctTopicOnceAndTagsItWithItsPositions() {
+        when(aiService.streamDiagram(anyString(), any())).thenAnswer(invocation -> Flux.just(
+                DiagramStreamEvent.line("graph TD"),
+                DiagramStreamEvent.complete(invocation.getArgument(0), "graph TD\n    A --> B", false)));
+
+        List<BatchGenerateEvent> events = service.generate(List.of("OAuth2 flow", "DNS lookup", "oauth 2 Flow"),
+                REQUESTER, null).collectList().block();
+
+        assertThat(events).hasSize(3);
+        assertThat(events.subList(0, 2))
+                .extracting(BatchGenerateEvent::getTopic, BatchGenerateEvent::getIndexes)
+                .containsExactlyInAnyOrder(
+                        tuple("OAuth2 flow", List.of(0, 2)),
+                        tuple("DNS lookup", List.of(1)));
+        assertThat(events.get(2))
+                .extracting(BatchGenerateEvent::getType, BatchGenerateEvent::getTotal, BatchGenerateEvent::getUnique)
+                .containsExactly(BatchGenerateEvent.COMPLETE, 3, 2);
+        verify(aiService, times(2)).streamDiagram(anyString(), any());
+    }
+
+    @Test
+    void cancellingStopsTheGenerationsInFlightAndTheRest() {
+        AtomicInteger cancelled = new AtomicInteger();
+        when(aiService.streamDiagram(anyString(), any()))
+                .thenAnswer(invocation -> Flux.<DiagramStreamEvent>never().doOnCancel(cancelled::incrementAndGet));
+
+        Disposable batch = service.generate(List.of("a", "b", "c", "d", "e"), REQUESTER, null).subscribe();
+        batch.dispose();
+
+        assertThat(cancelled).hasValue(2);
+        verify(aiService, times(2)).streamDiagram(anyString(), any());
+    }
+}
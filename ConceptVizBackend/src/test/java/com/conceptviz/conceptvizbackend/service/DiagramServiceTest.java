@@ -0,0 +1,283 @@
+package com.conceptviz.conceptvizbackend.service;
+
+import com.conceptviz.conceptvizbackend.dto.DiagramHistoryPage;
+import com.conceptviz.conceptvizbackend.dto.DiagramResponse;
+import com.conceptviz.conceptvizbackend.dto.DiagramSummary;
+import com.conceptviz.conceptvizbackend.dto.HistoryVersion;
+import com.conceptviz.conceptvizbackend.dto.SaveDiagramRequest;
+import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
+import com.conceptviz.conceptvizbackend.entity.User;
+import com.conceptviz.conceptvizbackend.repository.DiagramRepository;
+import com.conceptviz.conceptvizbackend.repository.UserRepository;
+import com.conceptviz.conceptvizbackend.security.AuthenticatedUser;
+import com.conceptviz.conceptvizbackend.storage.DiagramBlobStore;
+import com.conceptviz.conceptvizbackend.storage.MermaidBlobCodec;
+import com.conceptviz.conceptvizbackend.storage.PendingSave;
+import com.conceptviz.conceptvizbackend.storage.WriteBehindSaveQueue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DiagramServiceTest {
+
+    private static final long USER_ID = 42;
+    private static final LocalDateTime NOON = LocalDateTime.of(2026, 1, 2, 12, 0);
+
+    private final DiagramRepository diagramRepository = mock(DiagramRepository.class);
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final DiagramBlobStore diagramBlobStore = mock(DiagramBlobStore.class);
+    private final WriteBehindSaveQueue writeBehindSaveQueue = mock(WriteBehindSaveQueue.class);
+    private final DiagramService service = new DiagramService(diagramRepository, userRepository,
+            mock(AIService.class), diagramBlobStore, writeBehindSaveQueue, new SimpleMeterRegistry(),
+            mock(TransactionTemplate.class));
+
+    @BeforeEach
+    void signIn() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                new AuthenticatedUser(USER_ID, "user@example.com", "User"), null, List.of()));
+    }
+
+    @AfterEach
+    void signOut() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void historyMergesPendingSavesAndListsOneFlushedBetweenTheReadsOnce() {
+        // Read first: 103 and 102 are still pending
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of(
+                pending(103, NOON.plusMinutes(3)),
+                pending(102, NOON.plusMinutes(2))));
+        // Read second: 102 was flushed in between and is already in the database
+        when(diagramRepository.findByUserIdOrderByCreatedAtDesc(USER_ID)).thenReturn(List.of(
+                stored(102, NOON.plusMinutes(2)),
+                stored(101, NOON.plusMinutes(1))));
+
+        List<DiagramResponse> history = service.getUserHistory();
+
+        assertThat(history).extracting(DiagramResponse::getId).containsExactly(103L, 102L, 101L);
+    }
+
+    @Test
+    void historyWithoutPendingSavesIsTheStoredList() {
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of());
+        when(diagramRepository.findByUserIdOrderByCreatedAtDesc(USER_ID)).thenReturn(List.of(
+                stored(101, NOON)));
+
+        assertThat(service.getUserHistory()).extracting(DiagramResponse::getId).containsExactly(101L);
+    }
+
+    @Test
+    void theNextCursorResumesAfterTheLastRowEvenWhenItsCreatedAtIsShared() {
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of());
+        // 105 and 104 were saved in the same instant and the page ends between them
+        when(diagramRepository.findHistoryFirstPage(eq(USER_ID), any())).thenReturn(List.of(
+                summary(106, NOON.plusMinutes(1)), summary(105, NOON), summary(104, NOON)));
+        when(diagramRepository.findHistoryPageAfter(eq(USER_ID), any(), any(), any())).thenReturn(List.of(
+                summary(104, NOON), summary(103, NOON.minusMinutes(1))));
+
+        DiagramHistoryPage first = service.getUserHistoryPage(null, 2);
+        DiagramHistoryPage second = service.getUserHistoryPage(first.getNextCursor(), 2);
+
+        assertThat(first.getItems()).extracting(DiagramSummary::getId).containsExactly(106L, 105L);
+        assertThat(first.getNextCursor()).isNotBlank();
+        // Keyset on (created_at, id): the tie is broken by the id, so 104 is neither skipped nor repeated
+        verify(diagramRepository).findHistoryPageAfter(USER_ID, NOON, 105L, PageRequest.of(0, 3));
+        assertThat(second.getItems()).extracting(DiagramSummary::getId).containsExactly(104L, 103L);
+        assertThat(second.getNextCursor()).isNull();
+    }
+
+    @Test
+    void aCursorRoundTripsFractionalSecondsAndIsUrlSafe() {
+        LocalDateTime precise = NOON.plusNanos(123_456_000);
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of());
+        when(diagramRepository.findHistoryFirstPage(eq(USER_ID), any())).thenReturn(List.of(
+                summary(2, precise), summary(1, precise.minusSeconds(1))));
+
+        String cursor = service.getUserHistoryPage(null, 1).getNextCursor();
+        service.getUserHistoryPage(cursor, 1);
+
+        assertThat(cursor).matches("[A-Za-z0-9_-]+");
+        verify(diagramRepository).findHistoryPageAfter(USER_ID, precise, 2L, PageRequest.of(0, 2));
+    }
+
+    @Test
+    void malformedCursorsAreRejectedAsInvalidArguments() {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        for (String cursor : List.of("not base64!", encoder.encodeToString("no separator".getBytes()),
+                encoder.encodeToString("yesterday|5".getBytes()), encoder.encodeToString("2026-01-02T12:00|x".getBytes()),
+                encoder.encodeToString("2026-01-02T12:00|".getBytes()))) {
+            assertThatThrownBy(() -> service.getUserHistoryPage(cursor, 20))
+                    .as(cursor)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Invalid history cursor");
+        }
+        verify(diagramRepository, never()).findHistoryPageAfter(any(), any(), any(), any());
+    }
+
+    @Test
+    void thePageSizeIsClampedTo1Through100() {
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of());
+
+        service.getUserHistoryPage(null, 10_000);
+        service.getUserHistoryPage(null, 0);
+
+        // One extra row tells whether another page follows
+        verify(diagramRepository).findHistoryFirstPage(USER_ID, PageRequest.of(0, 101));
+        verify(diagramRepository).findHistoryFirstPage(USER_ID, PageRequest.of(0, 2));
+    }
+
+    @Test
+    void everySaveChangesTheHistoryETag() {
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of());
+        when(userRepository.findHistoryVersion(USER_ID)).thenReturn(
+                Optional.of(new HistoryVersion(3L, NOON, NOON.minusDays(1))),
+                // A second save in the same second: only the version tells them apart
+                Optional.of(new HistoryVersion(4L, NOON, NOON.minusDays(1))));
+
+        DiagramService.HistoryState before = service.getHistoryState();
+        DiagramService.HistoryState after = service.getHistoryState();
+
+        assertThat(before.eTag()).isEqualTo("\"u42.v3\"");
+        assertThat(after.eTag()).isNotEqualTo(before.eTag());
+        assertThat(after.lastModified()).isEqualTo(before.lastModified());
+    }
+
+    @Test
+    void aPendingWriteBehindSaveChangesTheHistoryETagBeforeItsFlush() {
+        when(userRepository.findHistoryVersion(USER_ID)).thenReturn(Optional.of(new HistoryVersion(3L, NOON, NOON)));
+        when(writeBehindSaveQueue.pendingFor(USER_ID)).thenReturn(List.of(), List.of(pending(103, NOON.plusMinutes(3))));
+
+        assertThat(service.getHistoryState().eTag()).isEqualTo("\"u42.v3\"");
+        assertThat(service.getHistoryState().eTag()).isEqualTo("\"u42.v3.p1.103\"");
+    }
+
+    @Test
+    void anotherUsersHistoryETagNeverMatches() {
+        // Same version number, same timestamps: the user id keeps the tags apart
+        when(writeBehindSaveQueue.pendingFor(anyLong())).thenReturn(List.of());
+        when(userRepository.findHistoryVersion(any())).thenReturn(Optional.of(new HistoryVersion(3L, NOON, NOON)));
+        String mine = service.getHistoryState().eTag();
+
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                new AuthenticatedUser(7L, "other@example.com", "Other"), null, List.of()));
+
+        assertThat(service.getHistoryState().eTag()).isEqualTo("\"u7.v3\"").isNotEqualTo(mine);
+    }
+
+    @Test
+    void batchSaveAnswersInRequestOrderWithOneBlobPerDistinctBody() {
+        stubBatchSave();
+        List<Diagram> persisted = new ArrayList<>();
+        when(diagramRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Diagram> diagrams = invocation.getArgument(0);
+            long id = 101;
+            for (Diagram diagram : diagrams) {
+                diagram.setId(id++);
+            }
+            persisted.addAll(diagrams);
+            return diagrams;
+        });
+
+        List<DiagramResponse> saved = service.saveDiagrams(List.of(
+                request("DNS lookup", "graph TD\n    A --> B"),
+                request("TCP handshake", "graph TD\n    C --> D"),
+                request("DNS again", "graph TD\n    A --> B")));
+
+        assertThat(saved).extracting(DiagramResponse::getTopic).containsExactly("DNS lookup", "TCP handshake", "DNS again");
+        assertThat(saved).extracting(DiagramResponse::getId).containsExactly(101L, 102L, 103L);
+        assertThat(persisted.get(0).getBlob()).isSameAs(persisted.get(2).getBlob()).isNotSameAs(persisted.get(1).getBlob());
+        // One history version bump for the whole batch, after its rows are flushed
+        InOrder inOrder = inOrder(diagramRepository, userRepository);
+        inOrder.verify(diagramRepository).flush();
+        inOrder.verify(userRepository).bumpHistoryVersion(eq(USER_ID), any());
+    }
+
+    @Test
+    void aRejectedRowFailsTheWholeBatchWithoutTouchingTheHistoryVersion() {
+        stubBatchSave();
+        // The third row violates a constraint; @Transactional rolls back the rows and blobs before it
+        when(diagramRepository.saveAll(anyList())).thenReturn(List.of());
+        doThrow(new DataIntegrityViolationException("value too long for type character varying(500)"))
+                .when(diagramRepository).flush();
+
+        assertThatThrownBy(() -> service.saveDiagrams(List.of(
+                request("DNS lookup", "graph TD\n    A --> B"),
+                request("TCP handshake", "graph TD\n    C --> D"),
+                request("x".repeat(600), "graph TD\n    E --> F"))))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        verify(userRepository, never()).bumpHistoryVersion(any(), any());
+    }
+
+    private void stubBatchSave() {
+        User user = new User();
+        user.setId(USER_ID);
+        when(userRepository.getReferenceById(USER_ID)).thenReturn(user);
+        when(diagramBlobStore.storeAll(any())).thenAnswer(invocation -> {
+            Map<String, DiagramBlob> blobs = new LinkedHashMap<>();
+            for (String code : invocation.<List<String>>getArgument(0)) {
+                blobs.computeIfAbsent(code, key -> {
+                    DiagramBlob blob = new DiagramBlob();
+                    blob.setHash(MermaidBlobCodec.hash(key));
+                    blob.setMermaidCode(key);
+                    return blob;
+                });
+            }
+            return blobs;
+        });
+    }
+
+    private static SaveDiagramRequest request(String topic, String mermaidCode) {
+        SaveDiagramRequest request = new SaveDiagramRequest();
+        request.setTopic(topic);
+        request.setMermaidCode(mermaidCode);
+        return request;
+    }
+
+    private static PendingSave pending(long id, LocalDateTime createdAt) {
+        return new PendingSave(id, USER_ID, "Topic " + id, "graph TD\n    A --> B", createdAt);
+    }
+
+    private static DiagramSummary summary(long id, LocalDateTime createdAt) {
+        return new DiagramSummary(id, "Topic " + id, createdAt, "flowchart", 20);
+    }
+
+    private static Diagram stored(long id, LocalDateTime createdAt) {
+        Diagram diagram = new Diagram();
+        diagram.setId(id);
+        diagram.setTopic("Topic " + id);
+        diagram.setMermaidCode("graph TD\n    A --> B");
+        diagram.setCreatedAt(createdAt);
+        return diagram;
+    }
+}
@@ -0,0 +1,92 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class IdSequenceCheckTest {
+
+    private static final String SEQUENCE_QUERY = "select last_value, start_value, increment_by from pg_sequences where sequencename = ?";
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final IdSequenceCheck check = new IdSequenceCheck(jdbcTemplate);
+
+    @BeforeEach
+    void postgres() {
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn("PostgreSQL");
+    }
+
+    @Test
+    void theFirstIdOfTheNextBlockFollowsHibernatesPooledOptimizer() {
+        // Never used: Hibernate reads the start value as a fresh sequence and begins at it
+        assertThat(IdSequenceCheck.firstIdOfNextBlock(null, 1, 50)).isEqualTo(1);
+        // Used once by a fresh install: the next value is 51 and the block 2..51
+        assertThat(IdSequenceCheck.firstIdOfNextBlock(1L, 1, 50)).isEqualTo(2);
+        // After the migration's setval(max + 50) on a table holding ids up to 1000
+        assertThat(IdSequenceCheck.firstIdOfNextBlock(1050L, 1, 50)).isEqualTo(1051);
+    }
+
+    @Test
+    void anUpgradeWithoutTheMigrationFailsStartupNamingTheScript() {
+        // Hibernate created diagrams_seq at 1 over a table that already holds ids up to 1000
+        sequence("users_seq", 1050L);
+        maxId("users", 1000);
+        sequence("diagrams_seq", null);
+        maxId("diagrams", 1000);
+
+        assertThatThrownBy(check::afterSingletonsInstantiated)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("diagrams_seq")
+                .hasMessageContaining(IdSequenceCheck.MIGRATION);
+    }
+
+    @Test
+    void migratedAndFreshDatabasesStart() {
+        sequence("users_seq", 1050L);
+        maxId("users", 1000);
+        sequence("diagrams_seq", null);
+        maxId("diagrams", 0);
+
+        assertThatNoException().isThrownBy(check::afterSingletonsInstantiated);
+    }
+
+    @Test
+    void aMissingSequenceFailsStartup() {
+        when(jdbcTemplate.query(eq(SEQUENCE_QUERY), any(RowMapper.class), eq("users_seq"))).thenReturn(List.of());
+
+        assertThatThrownBy(check::afterSingletonsInstantiated).hasMessageContaining("users_seq does not exist");
+    }
+
+    @Test
+    void otherDatabasesAreNotChecked() {
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn("H2");
+
+        check.afterSingletonsInstantiated();
+
+        verify(jdbcTemplate).execute(any(ConnectionCallback.class));
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+
+    private void sequence(String name, Long lastValue) {
+        when(jdbcTemplate.query(eq(SEQUENCE_QUERY), any(RowMapper.class), eq(name)))
+                .thenReturn(List.of(IdSequenceCheck.firstIdOfNextBlock(lastValue, 1, 50)));
+    }
+
+    private void maxId(String table, long maxId) {
+        when(jdbcTemplate.queryForObject(eq("select coalesce(max(id), 0) from " + table), eq(Long.class))).thenReturn(maxId);
+    }
+}
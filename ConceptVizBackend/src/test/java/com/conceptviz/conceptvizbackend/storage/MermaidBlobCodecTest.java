@@ -0,0 +1,62 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.conceptviz.conceptvizbackend.ai.MermaidCorpus;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MermaidBlobCodecTest {
+
+    @Test
+    void canonicalFormIgnoresLineEndingsAndSurroundingWhitespace() {
+        String canonical = MermaidBlobCodec.canonicalize("graph TD\n    A --> B\n\n    B --> C\n");
+
+        assertThat(MermaidBlobCodec.canonicalize("\r\n\r\ngraph TD  \r\n    A --> B\t\r\n\r\n    B --> C\r\n  \r\n"))
+                .isEqualTo(canonical);
+        assertThat(canonical).isEqualTo("graph TD\n    A --> B\n\n    B --> C");
+        assertThat(MermaidBlobCodec.canonicalize(canonical)).isEqualTo(canonical);
+        assertThat(MermaidBlobCodec.hash(canonical)).hasSize(64)
+                .isNotEqualTo(MermaidBlobCodec.hash(canonical.replace("    ", "  ")));
+    }
+
+    @Test
+    void roundTripsCorpusAndCompressesIt() {
+        long original = 0;
+        long stored = 0;
+        for (String sample : MermaidCorpus.load().values()) {
+            String canonical = MermaidBlobCodec.canonicalize(sample);
+            MermaidBlobCodec.Encoded encoded = MermaidBlobCodec.encode(canonical);
+
+            assertThat(MermaidBlobCodec.decode(encoded.encoding(), encoded.content(), encoded.originalSize()))
+                    .isEqualTo(canonical);
+            original += encoded.originalSize();
+            stored += encoded.content().length;
+        }
+        assertThat(stored).isLessThan(original * 3 / 4);
+    }
+
+    @Test
+    void storesIncompressibleBodiesAsIs() {
+        MermaidBlobCodec.Encoded encoded = MermaidBlobCodec.encode("pie");
+
+        assertThat(encoded.encoding()).isEqualTo(MermaidBlobCodec.IDENTITY);
+        assertThat(new String(encoded.content(), StandardCharsets.UTF_8)).isEqualTo("pie");
+        assertThat(MermaidBlobCodec.decode(encoded.encoding(), encoded.content(), 3)).isEqualTo("pie");
+    }
+
+    @Test
+    void rejectsCorruptBodies() {
+        String canonical = MermaidBlobCodec.canonicalize(MermaidCorpus.load().values().iterator().next());
+        MermaidBlobCodec.Encoded encoded = MermaidBlobCodec.encode(canonical);
+
+        assertThatThrownBy(() -> MermaidBlobCodec.decode(encoded.encoding(),
+                Arrays.copyOf(encoded.content(), encoded.content().length / 2), encoded.originalSize()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> MermaidBlobCodec.decode(encoded.encoding(), encoded.content(), encoded.originalSize() - 1))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,118 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SaveJournalTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversTheSavesOfAPreviousRunOldestSegmentFirst() throws IOException {
+        SaveJournal journal = journal();
+        journal.append(save(1, "graph TD\n    A --> B"));
+        journal.roll();
+        journal.append(save(2, "graph TD\n    C --> D"));
+        // No close: the process went away
+
+        List<SaveJournal.Segment> recovered = journal().recover();
+
+        assertThat(recovered).hasSize(2);
+        assertThat(recovered.get(0).saves()).extracting(PendingSave::id).containsExactly(1L);
+        assertThat(recovered.get(1).saves()).extracting(PendingSave::id).containsExactly(2L);
+        assertThat(recovered.get(1).saves().get(0)).isEqualTo(save(2, "graph TD\n    C --> D"));
+    }
+
+    @Test
+    void aTornLastLineIsSkippedAndTheSavesBeforeItAreKept() throws IOException {
+        SaveJournal journal = journal();
+        journal.append(save(1, "graph TD\n    A[Start] --> B"));
+        journal.append(save(2, "graph TD\n    B --> C"));
+        journal.close();
+        // A crash mid-append: half a JSON line ending inside a multi-byte character, no newline
+        byte[] torn = objectMapper.writeValueAsBytes(save(3, "graph TD\n    A[Größe] --> B"));
+        int cut = indexOf(torn, "ö".getBytes(StandardCharsets.UTF_8)) + 1;
+        Files.write(onlySegment(), Arrays.copyOf(torn, cut), StandardOpenOption.APPEND);
+
+        List<SaveJournal.Segment> recovered = journal().recover();
+
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.get(0).saves()).extracting(PendingSave::id).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void replayingTwiceReturnsTheSameSavesUntilTheSegmentIsDeleted() throws IOException {
+        SaveJournal journal = journal();
+        journal.append(save(7, "graph TD\n    A --> B"));
+        journal.append(save(8, "graph TD\n    B --> C"));
+
+        // A crash after the rows were committed but before the segment was deleted replays the same ids
+        SaveJournal firstReplay = journal();
+        SaveJournal secondReplay = journal();
+        assertThat(firstReplay.recover()).hasSize(1);
+        assertThat(secondReplay.recover().get(0).saves()).isEqualTo(firstReplay.recover().get(0).saves());
+
+        secondReplay.delete(secondReplay.recover().get(0));
+        secondReplay.close();
+        firstReplay.close();
+        assertThat(journal().recover()).isEmpty();
+    }
+
+    @Test
+    void rollingAnEmptySegmentReturnsNullAndEmptySegmentsAreNotKept() throws IOException {
+        SaveJournal journal = journal();
+        assertThat(journal.roll()).isNull();
+        journal.append(save(1, "graph TD\n    A --> B"));
+        SaveJournal.Segment rolled = journal.roll();
+        assertThat(rolled.saves()).extracting(PendingSave::id).containsExactly(1L);
+
+        journal.delete(rolled);
+        journal.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private SaveJournal journal() throws IOException {
+        return new SaveJournal(directory, SaveJournal.FsyncPolicy.ALWAYS, objectMapper);
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.reduce((a, b) -> {
+                throw new AssertionError("More than one segment: " + a + ", " + b);
+            }).orElseThrow();
+        }
+    }
+
+    private static PendingSave save(long id, String code) {
+        return new PendingSave(id, 42, "Topic " + id, code, LocalDateTime.of(2026, 1, 2, 3, 4, 5));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + part.length, part, 0, part.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+}
@@ -0,0 +1,181 @@
+package com.conceptviz.conceptvizbackend.storage;
+
+import com.conceptviz.conceptvizbackend.entity.Diagram;
+import com.conceptviz.conceptvizbackend.entity.DiagramBlob;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WriteBehindSaveQueueTest {
+
+    private static final String NEXTVAL = "select nextval('diagrams_seq')";
+
+    private final DiagramBlobStore blobStore = mock(DiagramBlobStore.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    // Ids of every diagram row the writer sent to the database, in order
+    private final List<Long> inserted = new ArrayList<>();
+
+    @TempDir
+    Path journalDir;
+
+    @BeforeEach
+    void stubDatabase() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(blobStore.storeAll(any())).thenAnswer(invocation -> {
+            Map<String, DiagramBlob> blobs = new LinkedHashMap<>();
+            for (String code : invocation.<Collection<String>>getArgument(0)) {
+                DiagramBlob blob = new DiagramBlob();
+                blob.setHash(MermaidBlobCodec.hash(code));
+                blobs.put(code, blob);
+            }
+            return blobs;
+        });
+        when(jdbcTemplate.batchUpdate(startsWith("insert into diagrams"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            rows.forEach(row -> inserted.add((Long) row[0]));
+            return new int[rows.size()];
+        });
+    }
+
+    @Test
+    void reservedIdsNeverOverlapTheBlocksHibernateHandsOut() throws Exception {
+        // A fresh pooled sequence: Hibernate treats the first value as the block 1..51
+        when(jdbcTemplate.queryForObject(NEXTVAL, Long.class)).thenReturn(1L, 51L, 101L, 151L);
+        WriteBehindSaveQueue queue = queue(500);
+
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < Diagram.ID_ALLOCATION_SIZE + 1; i++) {
+            ids.add(queue.save(42, "Topic " + i, "graph TD\n    A --> B" + i).id());
+        }
+
+        // Each block is (hi - size, hi] of a value nobody else received, like Hibernate's own blocks
+        assertThat(ids.get(0)).isEqualTo(52L);
+        assertThat(ids.get(Diagram.ID_ALLOCATION_SIZE - 1)).isEqualTo(101L);
+        assertThat(ids.get(Diagram.ID_ALLOCATION_SIZE)).isEqualTo(102L);
+        assertThat(ids).doesNotHaveDuplicates().allMatch(id -> id > Diagram.ID_ALLOCATION_SIZE + 1);
+        queue.destroy();
+    }
+
+    @Test
+    void journaledSavesAreReplayedWithTheirReservedIdsAfterACrash() throws Exception {
+        when(jdbcTemplate.queryForObject(NEXTVAL, Long.class)).thenReturn(101L);
+        WriteBehindSaveQueue crashed = queue(500);
+        long first = crashed.save(42, "DNS lookup", "graph TD\n    A --> B").id();
+        long second = crashed.save(42, "TCP handshake", "graph TD\n    C --> D").id();
+        // No destroy: nothing reached the database
+
+        WriteBehindSaveQueue restarted = queue(500);
+        assertThat(restarted.pendingFor(42)).extracting(PendingSave::id).containsExactlyInAnyOrder(first, second);
+        restarted.destroy();
+
+        assertThat(inserted).containsExactly(first, second);
+        assertThat(restarted.pendingFor(42)).isEmpty();
+        assertThat(registry.counter("diagram.save.write.behind.flushed").count()).isEqualTo(2);
+    }
+
+    @Test
+    void replayingTheSameJournalTwiceInsertsTheSameIdsWithoutConflictFailures() throws Exception {
+        when(jdbcTemplate.queryForObject(NEXTVAL, Long.class)).thenReturn(101L);
+        WriteBehindSaveQueue crashed = queue(500);
+        long id = crashed.save(42, "DNS lookup", "graph TD\n    A --> B").id();
+
+        // Both runs see the segment, as after a crash between commit and journal cleanup
+        WriteBehindSaveQueue firstRun = queue(500);
+        WriteBehindSaveQueue secondRun = queue(500);
+        firstRun.destroy();
+        secondRun.destroy();
+
+        // The same row twice; on conflict do nothing makes the second insert a no-op
+        assertThat(inserted).containsExactly(id, id);
+        verify(jdbcTemplate, times(2)).batchUpdate(contains("on conflict do nothing"), anyList());
+        assertThat(registry.counter("diagram.save.write.behind.dropped").count()).isZero();
+        assertThat(queue(500).pendingFor(42)).isEmpty();
+    }
+
+    @Test
+    void aRejectedRowIsDroppedWithoutHoldingBackTheRestOfItsBatch() throws Exception {
+        when(jdbcTemplate.queryForObject(NEXTVAL, Long.class)).thenReturn(101L);
+        WriteBehindSaveQueue queue = queue(500);
+        long kept = queue.save(42, "DNS lookup", "graph TD\n    A --> B").id();
+        long orphaned = queue.save(404, "Deleted user", "graph TD\n    C --> D").id();
+        long alsoKept = queue.save(42, "TCP handshake", "graph TD\n    E --> F").id();
+        when(jdbcTemplate.batchUpdate(startsWith("insert into diagrams"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            if (rows.stream().anyMatch(row -> row[0].equals(orphaned))) {
+                throw new DataIntegrityViolationException("violates foreign key constraint on user_id");
+            }
+            rows.forEach(row -> inserted.add((Long) row[0]));
+            return new int[rows.size()];
+        });
+
+        queue.destroy();
+
+        assertThat(inserted).containsExactly(kept, alsoKept);
+        assertThat(queue.pending(orphaned)).isEmpty();
+        assertThat(registry.counter("diagram.save.write.behind.flushed").count()).isEqualTo(2);
+        assertThat(registry.counter("diagram.save.write.behind.dropped").count()).isEqualTo(1);
+    }
+
+    @Test
+    void pendingForListsOnlyTheUsersUnflushedSavesNewestFirst() throws Exception {
+        when(jdbcTemplate.queryForObject(NEXTVAL, Long.class)).thenReturn(101L);
+        WriteBehindSaveQueue queue = queue(500);
+        long older = queue.save(42, "DNS lookup", "graph TD\n    A --> B").id();
+        queue.save(7, "Someone else's", "graph TD\n    C --> D");
+        long newer = queue.save(42, "TCP handshake", "graph TD\n    E --> F").id();
+
+        assertThat(queue.pendingFor(42)).extracting(PendingSave::id).containsExactly(newer, older);
+        assertThat(queue.pending(older)).map(PendingSave::topic).contains("DNS lookup");
+        assertThat(queue.pendingFor(1)).isEmpty();
+
+        queue.destroy();
+        assertThat(queue.pendingFor(42)).isEmpty();
+    }
+
+    @Test
+    void disabledQueueNeitherAcceptsSavesNorTouchesTheDatabase() throws Exception {
+        WriteBehindSaveQueue queue = new WriteBehindSaveQueue(false, journalDir, "never", Duration.ofMillis(100),
+                Duration.ofHours(1), 500, 10, blobStore, jdbcTemplate, transactionManager,
+                JsonMapper.builder().findAndAddModules().build(), registry);
+
+        assertThat(queue.accepts()).isFalse();
+        assertThat(queue.pendingFor(42)).isEmpty();
+        queue.destroy();
+        verify(jdbcTemplate, never()).queryForObject(eq(NEXTVAL), eq(Long.class));
+    }
+
+    // The flush timer is never started; destroy() runs the one flush each test needs on the test thread
+    private WriteBehindSaveQueue queue(int batchSize) {
+        return new WriteBehindSaveQueue(true, journalDir, "never", Duration.ofMillis(100),
+                Duration.ofHours(1), batchSize, 10_000, blobStore, jdbcTemplate, transactionManager,
+                JsonMapper.builder().findAndAddModules().build(), registry);
+    }
+}